@@ -0,0 +1,344 @@
+package com.kelth.mybluetooth;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Reads the AD structures of an advertisement or scan response in place. Each structure is
+ * a length byte, a type byte and {@code length - 1} bytes of value; the parser only keeps a
+ * cursor over the original bytes, so iterating and matching fields does not copy or
+ * allocate. Only the getters returning a {@code String}, array or list allocate.
+ * <p>
+ * One instance is meant to be reused for every advertisement, on one thread.
+ */
+public final class AdvertisingData {
+
+    // AD types, Bluetooth Core Specification Supplement part A
+    public static final int TYPE_FLAGS = 0x01;
+    public static final int TYPE_INCOMPLETE_UUID16 = 0x02;
+    public static final int TYPE_COMPLETE_UUID16 = 0x03;
+    public static final int TYPE_INCOMPLETE_UUID32 = 0x04;
+    public static final int TYPE_COMPLETE_UUID32 = 0x05;
+    public static final int TYPE_INCOMPLETE_UUID128 = 0x06;
+    public static final int TYPE_COMPLETE_UUID128 = 0x07;
+    public static final int TYPE_SHORT_LOCAL_NAME = 0x08;
+    public static final int TYPE_COMPLETE_LOCAL_NAME = 0x09;
+    public static final int TYPE_TX_POWER_LEVEL = 0x0A;
+    public static final int TYPE_SERVICE_DATA_UUID16 = 0x16;
+    public static final int TYPE_SERVICE_DATA_UUID32 = 0x20;
+    public static final int TYPE_SERVICE_DATA_UUID128 = 0x21;
+    public static final int TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
+
+    // Returned by getTxPowerLevel() when the advertisement has none
+    public static final int TX_POWER_UNKNOWN = Integer.MIN_VALUE;
+
+    // 16 and 32-bit UUIDs are short forms of 0000xxxx-0000-1000-8000-00805F9B34FB
+    private static final long BASE_UUID_MSB_LOW = 0x1000L;
+    private static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] EMPTY = new byte[0];
+
+    private byte[] mData = EMPTY;
+    private int mStart;
+    private int mEnd;
+    // Offset of the next structure
+    private int mNext;
+    // Structure at the cursor
+    private int mType = -1;
+    private int mValueOffset;
+    private int mValueLength;
+
+    /**
+     * Parse {@code data} from now on, e.g. {@code ScanRecord#getBytes()}. The array is
+     * referenced, not copied. Null reads as an empty advertisement.
+     */
+    public AdvertisingData wrap(byte[] data) {
+        return data != null ? wrap(data, 0, data.length) : wrap(EMPTY, 0, 0);
+    }
+
+    public AdvertisingData wrap(byte[] data, int offset, int length) {
+        mData = data;
+        mStart = offset;
+        mEnd = offset + length;
+        rewind();
+        return this;
+    }
+
+    /**
+     * Put the cursor back before the first structure.
+     */
+    public void rewind() {
+        mNext = mStart;
+        mType = -1;
+        mValueOffset = 0;
+        mValueLength = 0;
+    }
+
+    /**
+     * Move the cursor to the next structure. Stops at the first zero length, which starts the
+     * padding of a legacy advertisement, or at a structure running past the end.
+     *
+     * @return false if there is none
+     */
+    public boolean next() {
+        if (mNext >= mEnd) {
+            return false;
+        }
+        int length = mData[mNext] & 0xFF;
+        if (length == 0 || mNext + 1 + length > mEnd) {
+            mNext = mEnd;
+            mType = -1;
+            return false;
+        }
+        mType = mData[mNext + 1] & 0xFF;
+        mValueOffset = mNext + 2;
+        mValueLength = length - 1;
+        mNext += 1 + length;
+        return true;
+    }
+
+    /**
+     * Move the cursor to the first structure of a type.
+     *
+     * @param type One of the {@code TYPE_*} constants
+     * @return false if there is none
+     */
+    public boolean find(int type) {
+        rewind();
+        while (next()) {
+            if (mType == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move the cursor to the manufacturer specific data of a company. The value at the cursor
+     * is then the data after the company identifier.
+     *
+     * @param companyId Identifier assigned by the Bluetooth SIG, e.g. 0x004C
+     * @return false if there is none
+     */
+    public boolean findManufacturerData(int companyId) {
+        rewind();
+        while (next()) {
+            if (mType == TYPE_MANUFACTURER_SPECIFIC_DATA && mValueLength >= 2
+                    && readUint16(mValueOffset) == companyId) {
+                mValueOffset += 2;
+                mValueLength -= 2;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move the cursor to the service data of a service. The value at the cursor is then the
+     * data after the service UUID.
+     *
+     * @return false if there is none
+     */
+    public boolean findServiceData(UUID serviceUuid) {
+        rewind();
+        while (next()) {
+            int uuidLength = serviceDataUuidLength(mType);
+            if (uuidLength > 0 && mValueLength >= uuidLength
+                    && uuidEquals(mValueOffset, uuidLength, serviceUuid)) {
+                mValueOffset += uuidLength;
+                mValueLength -= uuidLength;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Type of the structure at the cursor, -1 before the first or after the last
+     */
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * @return The array being parsed, to read the value at the cursor from
+     */
+    public byte[] getBuffer() {
+        return mData;
+    }
+
+    /**
+     * @return Offset in {@link #getBuffer()} of the value at the cursor
+     */
+    public int getValueOffset() {
+        return mValueOffset;
+    }
+
+    public int getValueLength() {
+        return mValueLength;
+    }
+
+    /**
+     * @return Copy of the value at the cursor
+     */
+    public byte[] getValue() {
+        return Arrays.copyOfRange(mData, mValueOffset, mValueOffset + mValueLength);
+    }
+
+    /**
+     * @return Flags, e.g. bit 1 for LE General Discoverable Mode, -1 if not advertised
+     */
+    public int getFlags() {
+        return find(TYPE_FLAGS) && mValueLength > 0 ? mData[mValueOffset] & 0xFF : -1;
+    }
+
+    /**
+     * @return Transmit power in dBm, {@link #TX_POWER_UNKNOWN} if not advertised
+     */
+    public int getTxPowerLevel() {
+        return find(TYPE_TX_POWER_LEVEL) && mValueLength > 0 ? mData[mValueOffset]
+                : TX_POWER_UNKNOWN;
+    }
+
+    /**
+     * @return Complete local name, else the shortened one, else null
+     */
+    public String getLocalName() {
+        if (find(TYPE_COMPLETE_LOCAL_NAME) || find(TYPE_SHORT_LOCAL_NAME)) {
+            return new String(mData, mValueOffset, mValueLength, UTF_8);
+        }
+        return null;
+    }
+
+    /**
+     * @return true if {@code serviceUuid} is in one of the service UUID lists
+     */
+    public boolean hasServiceUuid(UUID serviceUuid) {
+        rewind();
+        while (next()) {
+            int uuidLength = serviceUuidLength(mType);
+            if (uuidLength == 0) {
+                continue;
+            }
+            for (int offset = mValueOffset; offset + uuidLength <= mValueOffset + mValueLength;
+                 offset += uuidLength) {
+                if (uuidEquals(offset, uuidLength, serviceUuid)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Every UUID of the service UUID lists
+     */
+    public List<UUID> getServiceUuids() {
+        List<UUID> uuids = new ArrayList<>();
+        rewind();
+        while (next()) {
+            int uuidLength = serviceUuidLength(mType);
+            if (uuidLength == 0) {
+                continue;
+            }
+            for (int offset = mValueOffset; offset + uuidLength <= mValueOffset + mValueLength;
+                 offset += uuidLength) {
+                uuids.add(readUuid(offset, uuidLength));
+            }
+        }
+        return uuids;
+    }
+
+    /**
+     * @return Company identifier of the first manufacturer specific data, -1 if none
+     */
+    public int getManufacturerId() {
+        return find(TYPE_MANUFACTURER_SPECIFIC_DATA) && mValueLength >= 2
+                ? readUint16(mValueOffset) : -1;
+    }
+
+    /**
+     * @return Copy of the manufacturer specific data of a company, after its identifier, or
+     *         null if there is none
+     */
+    public byte[] getManufacturerData(int companyId) {
+        return findManufacturerData(companyId) ? getValue() : null;
+    }
+
+    /**
+     * @return Copy of the data of a service, after its UUID, or null if there is none
+     */
+    public byte[] getServiceData(UUID serviceUuid) {
+        return findServiceData(serviceUuid) ? getValue() : null;
+    }
+
+    private static int serviceUuidLength(int type) {
+        switch (type) {
+            case TYPE_INCOMPLETE_UUID16:
+            case TYPE_COMPLETE_UUID16:
+                return 2;
+            case TYPE_INCOMPLETE_UUID32:
+            case TYPE_COMPLETE_UUID32:
+                return 4;
+            case TYPE_INCOMPLETE_UUID128:
+            case TYPE_COMPLETE_UUID128:
+                return 16;
+            default:
+                return 0;
+        }
+    }
+
+    private static int serviceDataUuidLength(int type) {
+        switch (type) {
+            case TYPE_SERVICE_DATA_UUID16:
+                return 2;
+            case TYPE_SERVICE_DATA_UUID32:
+                return 4;
+            case TYPE_SERVICE_DATA_UUID128:
+                return 16;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Compare a little endian UUID of {@code length} bytes to {@code uuid}.
+     */
+    private boolean uuidEquals(int offset, int length, UUID uuid) {
+        if (length == 16) {
+            return readInt64(offset) == uuid.getLeastSignificantBits()
+                    && readInt64(offset + 8) == uuid.getMostSignificantBits();
+        }
+        long msb = uuid.getMostSignificantBits();
+        if (uuid.getLeastSignificantBits() != BASE_UUID_LSB
+                || (msb & 0xFFFFFFFFL) != BASE_UUID_MSB_LOW) {
+            return false;
+        }
+        long shortUuid = length == 2 ? readUint16(offset) : readInt32(offset) & 0xFFFFFFFFL;
+        return shortUuid == msb >>> 32;
+    }
+
+    private UUID readUuid(int offset, int length) {
+        if (length == 16) {
+            return new UUID(readInt64(offset + 8), readInt64(offset));
+        }
+        long shortUuid = length == 2 ? readUint16(offset) : readInt32(offset) & 0xFFFFFFFFL;
+        return new UUID(shortUuid << 32 | BASE_UUID_MSB_LOW, BASE_UUID_LSB);
+    }
+
+    private int readUint16(int offset) {
+        return (mData[offset] & 0xFF) | (mData[offset + 1] & 0xFF) << 8;
+    }
+
+    private int readInt32(int offset) {
+        return readUint16(offset) | readUint16(offset + 2) << 16;
+    }
+
+    private long readInt64(int offset) {
+        return (readInt32(offset) & 0xFFFFFFFFL) | (long) readInt32(offset + 4) << 32;
+    }
+}
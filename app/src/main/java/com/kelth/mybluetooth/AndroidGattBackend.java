@@ -0,0 +1,276 @@
+package com.kelth.mybluetooth;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link GattBackend} on the Android Bluetooth stack. The stack calls back on binder threads;
+ * every callback is moved to the scheduler's thread, with the value it carried at the time.
+ */
+public class AndroidGattBackend implements GattBackend {
+
+    private static final String TAG = AndroidGattBackend.class.getSimpleName();
+
+    private final Context mContext;
+    private final BluetoothAdapter mBluetoothAdapter;
+    private final GattScheduler mScheduler;
+
+    /**
+     * @param scheduler Thread the callbacks are delivered on
+     */
+    public AndroidGattBackend(Context context, BluetoothAdapter adapter, GattScheduler scheduler) {
+        mContext = context;
+        mBluetoothAdapter = adapter;
+        mScheduler = scheduler;
+    }
+
+    @Override
+    public GattBackend.Connection connect(String address, boolean autoConnect, Callback callback) {
+        if (mBluetoothAdapter == null) {
+            return null;
+        }
+        BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
+        Connection connection = new Connection(address, callback);
+        connection.mGatt = connectGatt(device, autoConnect, connection.mGattCallback);
+        return connection.mGatt != null ? connection : null;
+    }
+
+    /**
+     * Connect over LE where the transport can be chosen: left to itself, the stack may pick
+     * BR/EDR for a dual-mode device and fail with GATT_ERROR (133).
+     */
+    @TargetApi(Build.VERSION_CODES.M)
+    private BluetoothGatt connectGatt(BluetoothDevice device, boolean autoConnect,
+                                      BluetoothGattCallback callback) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            return device.connectGatt(mContext, autoConnect, callback, BluetoothDevice.TRANSPORT_LE);
+        }
+        return device.connectGatt(mContext, autoConnect, callback);
+    }
+
+    private final class Connection implements GattBackend.Connection {
+        private final String mAddress;
+        private final Callback mCallback;
+        private volatile BluetoothGatt mGatt;
+
+        Connection(String address, Callback callback) {
+            mAddress = address;
+            mCallback = callback;
+        }
+
+        @Override
+        public String getAddress() {
+            return mAddress;
+        }
+
+        @Override
+        public boolean discoverServices() {
+            return mGatt.discoverServices();
+        }
+
+        @Override
+        public List<BluetoothGattService> getServices() {
+            BluetoothGatt gatt = mGatt;
+            return gatt != null ? gatt.getServices() : Collections.<BluetoothGattService>emptyList();
+        }
+
+        @Override
+        public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+            return mGatt.readCharacteristic(characteristic);
+        }
+
+        @Override
+        public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic, byte[] value,
+                                           int writeType) {
+            // The value lives on the shared characteristic object, so it is only set once this
+            // write is the one in flight.
+            characteristic.setWriteType(writeType);
+            characteristic.setValue(value);
+            return mGatt.writeCharacteristic(characteristic);
+        }
+
+        @Override
+        public boolean writeDescriptor(BluetoothGattDescriptor descriptor, byte[] value) {
+            descriptor.setValue(value);
+            return mGatt.writeDescriptor(descriptor);
+        }
+
+        @Override
+        public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic,
+                                                     boolean enable) {
+            return mGatt.setCharacteristicNotification(characteristic, enable);
+        }
+
+        @Override
+        public boolean requestMtu(int mtu) {
+            return mGatt.requestMtu(mtu);
+        }
+
+        @Override
+        public boolean requestConnectionPriority(int priority) {
+            return mGatt.requestConnectionPriority(priority);
+        }
+
+        @Override
+        @TargetApi(Build.VERSION_CODES.O)
+        public boolean setPreferredPhy(int txPhyMask, int rxPhyMask) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O
+                    || (((txPhyMask | rxPhyMask) & BluetoothDevice.PHY_LE_2M_MASK) != 0
+                        && !mBluetoothAdapter.isLe2MPhySupported())) {
+                return false;
+            }
+            mGatt.setPreferredPhy(txPhyMask, rxPhyMask, BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+            return true;
+        }
+
+        /**
+         * {@code BluetoothGatt#refresh()} is hidden, but it is the only way to make the stack
+         * forget a layout it cached.
+         */
+        @Override
+        public boolean refresh() {
+            try {
+                Method refresh = mGatt.getClass().getMethod("refresh");
+                return (Boolean) refresh.invoke(mGatt);
+            } catch (Exception e) {
+                Log.w(TAG, "GATT cache refresh unavailable", e);
+                return false;
+            }
+        }
+
+        @Override
+        public void disconnect() {
+            mGatt.disconnect();
+        }
+
+        @Override
+        public void close() {
+            BluetoothGatt gatt = mGatt;
+            if (gatt != null) {
+                gatt.disconnect();
+                gatt.close();
+            }
+        }
+
+        /*
+         * The value of a characteristic is replaced, not modified, by every read and
+         * notification, so the array taken on the binder thread stays the one of this event.
+         */
+        private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+            @Override
+            public void onConnectionStateChange(BluetoothGatt gatt, final int status,
+                                                final int newState) {
+                mScheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCallback.onConnectionStateChange(Connection.this, status, newState);
+                    }
+                });
+            }
+
+            @Override
+            public void onServicesDiscovered(BluetoothGatt gatt, final int status) {
+                mScheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCallback.onServicesDiscovered(Connection.this, status);
+                    }
+                });
+            }
+
+            @Override
+            public void onCharacteristicRead(BluetoothGatt gatt,
+                                             final BluetoothGattCharacteristic characteristic,
+                                             final int status) {
+                final byte[] value = characteristic.getValue();
+                mScheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCallback.onCharacteristicRead(Connection.this, characteristic, value,
+                                status);
+                    }
+                });
+            }
+
+            @Override
+            public void onCharacteristicWrite(BluetoothGatt gatt,
+                                              final BluetoothGattCharacteristic characteristic,
+                                              final int status) {
+                mScheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCallback.onCharacteristicWrite(Connection.this, characteristic, status);
+                    }
+                });
+            }
+
+            @Override
+            public void onCharacteristicChanged(BluetoothGatt gatt,
+                                                final BluetoothGattCharacteristic characteristic) {
+                final byte[] value = characteristic.getValue();
+                mScheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCallback.onCharacteristicChanged(Connection.this, characteristic, value);
+                    }
+                });
+            }
+
+            @Override
+            public void onDescriptorWrite(BluetoothGatt gatt,
+                                          final BluetoothGattDescriptor descriptor,
+                                          final int status) {
+                mScheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCallback.onDescriptorWrite(Connection.this, descriptor, status);
+                    }
+                });
+            }
+
+            @Override
+            public void onMtuChanged(BluetoothGatt gatt, final int mtu, final int status) {
+                mScheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCallback.onMtuChanged(Connection.this, mtu, status);
+                    }
+                });
+            }
+
+            @Override
+            public void onPhyUpdate(BluetoothGatt gatt, final int txPhy, final int rxPhy,
+                                    final int status) {
+                mScheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCallback.onPhyUpdate(Connection.this, txPhy, rxPhy, status);
+                    }
+                });
+            }
+
+            // BluetoothGattCallback#onServiceChanged, only called from Android 12 on
+            public void onServiceChanged(BluetoothGatt gatt) {
+                mScheduler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        mCallback.onServiceChanged(Connection.this);
+                    }
+                });
+            }
+        };
+    }
+}
@@ -0,0 +1,34 @@
+package com.kelth.mybluetooth;
+
+/**
+ * Battery Level (0x2A19)
+ */
+public class BatteryLevel extends GattCodec {
+
+    private int mLevel;
+
+    public BatteryLevel() {
+        super(0x2A19);
+    }
+
+    @Override
+    public boolean decode(byte[] data, int length) {
+        if (length < 1) {
+            return false;
+        }
+        mLevel = uint8(data, 0);
+        return mLevel <= 100;
+    }
+
+    /**
+     * @return Remaining charge in percent
+     */
+    public int getLevel() {
+        return mLevel;
+    }
+
+    @Override
+    public String toString() {
+        return "Battery: " + mLevel + " %";
+    }
+}
@@ -0,0 +1,171 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Listeners subscribed to a {@link BluetoothLeService}, each called through its own executor.
+ * Events are handed to it on the worker thread; every subscriber sees them in the order they
+ * happened. Subscribing and unsubscribing may be done from any thread.
+ */
+final class BluetoothLeListenerSet implements BluetoothLeService.BluetoothLeListener {
+
+    // Values kept for reuse per subscriber, i.e. how many may wait in its executor
+    private static final int VALUE_POOL_SIZE = 16;
+
+    private final CopyOnWriteArrayList<Subscriber> mSubscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * @return false if {@code listener} was already subscribed
+     */
+    boolean add(BluetoothLeService.BluetoothLeListener listener, Executor executor) {
+        for (Subscriber subscriber : mSubscribers) {
+            if (subscriber.listener == listener) {
+                return false;
+            }
+        }
+        mSubscribers.add(new Subscriber(listener, executor));
+        return true;
+    }
+
+    /**
+     * Events already handed to the executor of {@code listener} may still reach it.
+     *
+     * @return false if {@code listener} was not subscribed
+     */
+    boolean remove(BluetoothLeService.BluetoothLeListener listener) {
+        for (Subscriber subscriber : mSubscribers) {
+            if (subscriber.listener == listener) {
+                return mSubscribers.remove(subscriber);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Subscriber of {@code listener}, or null
+     */
+    Subscriber get(BluetoothLeService.BluetoothLeListener listener) {
+        for (Subscriber subscriber : mSubscribers) {
+            if (subscriber.listener == listener) {
+                return subscriber;
+            }
+        }
+        return null;
+    }
+
+    boolean isEmpty() {
+        return mSubscribers.isEmpty();
+    }
+
+    @Override
+    public void onBLEScanningStart() {
+        for (final Subscriber subscriber : mSubscribers) {
+            subscriber.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    subscriber.listener.onBLEScanningStart();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onBLEScanningStop() {
+        for (final Subscriber subscriber : mSubscribers) {
+            subscriber.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    subscriber.listener.onBLEScanningStop();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onBLEScanResult(BluetoothDevice btDevice, int rssi,
+                                AdvertisingData advertisement) {
+        // On the worker thread whatever the executor, the advertisement is reused
+        for (Subscriber subscriber : mSubscribers) {
+            advertisement.rewind();
+            subscriber.listener.onBLEScanResult(btDevice, rssi, advertisement);
+        }
+    }
+
+    @Override
+    public void onConnected(BluetoothDevice btDevice) {
+        for (Subscriber subscriber : mSubscribers) {
+            onConnected(subscriber, btDevice);
+        }
+    }
+
+    /**
+     * Tell one subscriber only, e.g. of a device connected before it subscribed.
+     */
+    void onConnected(final Subscriber subscriber, final BluetoothDevice btDevice) {
+        subscriber.executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                subscriber.listener.onConnected(btDevice);
+            }
+        });
+    }
+
+    @Override
+    public void onDisconnected(final BluetoothDevice btDevice) {
+        for (final Subscriber subscriber : mSubscribers) {
+            subscriber.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    subscriber.listener.onDisconnected(btDevice);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onServicesDiscovered(final BluetoothDevice btDevice,
+                                     final List<BluetoothGattService> services, final int status) {
+        for (final Subscriber subscriber : mSubscribers) {
+            subscriber.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    subscriber.listener.onServicesDiscovered(btDevice, services, status);
+                }
+            });
+        }
+    }
+
+    /**
+     * Each subscriber gets its own pooled copy of {@code value}.
+     */
+    @Override
+    public void onValue(BluetoothDevice btDevice, UUID uuid, GattValue value) {
+        for (Subscriber subscriber : mSubscribers) {
+            subscriber.values.dispatch(btDevice, uuid, value.getData(), value.getLength());
+        }
+    }
+
+    static final class Subscriber {
+        final BluetoothLeService.BluetoothLeListener listener;
+        final Executor executor;
+        final GattValueDispatcher<BluetoothDevice> values;
+
+        Subscriber(final BluetoothLeService.BluetoothLeListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+            values = new GattValueDispatcher<>(executor,
+                    new GattValueDispatcher.Listener<BluetoothDevice>() {
+                        @Override
+                        public void onValue(BluetoothDevice device, UUID uuid, GattValue value) {
+                            listener.onValue(device, uuid, value);
+                        }
+                    }, VALUE_POOL_SIZE);
+        }
+    }
+}
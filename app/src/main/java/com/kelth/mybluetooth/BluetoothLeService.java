@@ -1,30 +1,79 @@
 package com.kelth.mybluetooth;
 
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanRecord;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.ParcelUuid;
 import android.util.Log;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Executor;
 
-public class BluetoothLeService {
+/**
+ * Scanning and GATT connections. Every control call, scan result, GATT callback and timeout
+ * is handled on one worker thread owned by the service, in the order it happened; control
+ * methods may be called from any thread and return without blocking.
+ * <p>
+ * Components bind to the service and subscribe with {@link #addListener}. Connections belong
+ * to the service, not to them: while a device is connected the service runs in the
+ * foreground, so links survive activities being recreated or going to the background.
+ */
+public class BluetoothLeService extends Service {
 
     private static final String TAG = BluetoothLeService.class.getSimpleName();
-    private static final long SCAN_PERIOD = 10000;  // In seconds
 
-    private static final int STATE_DISCONNECTED = 0;
-    private static final int STATE_CONNECTING = 1;
-    private static final int STATE_CONNECTED = 2;
+    // Messages of the worker thread
+    private static final int MSG_SCAN_RESULT = 1;
+    private static final int MSG_BATCH_SCAN_RESULTS = 2;
+
+    private static final int NOTIFICATION_ID = 1;
+    private static final String NOTIFICATION_CHANNEL_ID = "connections";
+    // Started by the notification to disconnect every device
+    private static final String ACTION_DISCONNECT_ALL =
+            "com.kelth.mybluetooth.ACTION_DISCONNECT_ALL";
+    private static final String ACTION_SAVE_TRACE =
+            "com.kelth.mybluetooth.ACTION_SAVE_TRACE";
+    private static final String TRACE_FILE_NAME = "gatt-trace.json";
 
     public final static String ACTION_GATT_CONNECTED =
             "com.kelth.mybluetooth.ACTION_GATT_CONNECTED";
@@ -36,32 +85,166 @@ public class BluetoothLeService {
             "com.kelth.mybluetooth.ACTION_DATA_AVAILABLE";
     public final static String EXTRA_DATA =
             "com.kelth.mybluetooth.EXTRA_DATA";
-    public final static UUID UUID_HEART_RATE_MEASUREMENT =
-            UUID.fromString(SampleGattAttributes.HEART_RATE_MEASUREMENT);
+    public final static String EXTRA_ADDRESS =
+            "com.kelth.mybluetooth.EXTRA_ADDRESS";
+    public final static UUID UUID_HEART_RATE_MEASUREMENT = GattAttributes.HEART_RATE_MEASUREMENT;
 
-    private Context mAppContext;
+    private final IBinder mBinder = new LocalBinder();
     private BluetoothManager mBluetoothManager;
     private BluetoothAdapter mBluetoothAdapter;
-    // KEL private String mBluetoothDeviceAddress;
-    private BluetoothGatt mBluetoothGatt;
-    private Handler mHandlerScan = new Handler();
-    private BluetoothLeListener mListener;
-    private int mConnectionState = STATE_DISCONNECTED;
-
-
-    public void init(Context appContext, BluetoothLeListener listener) {
-        // Save app context
-        mAppContext = appContext;
-        // Save listener
-        mListener = listener;
+    private HandlerThread mWorkerThread;
+    private Handler mWorkerHandler;
+    private GattScheduler mScheduler;
+    // Only touched on the worker thread
+    private BluetoothLeScanner mBluetoothLeScanner;
+    private volatile List<ScanFilter> mScanFilters;
+    private volatile int mScanMode = ScanSettings.SCAN_MODE_LOW_LATENCY;
+    private volatile long mScanReportDelay = 0;
+    private ScanScheduler mScanScheduler;
+    private volatile Set<String> mScanTargets = Collections.emptySet();
+    // Parses the advertisement of every scan result, on the worker thread
+    private final AdvertisingData mAdvertisingData = new AdvertisingData();
+    private volatile GattConnectionManager mConnectionManager;
+    private final BluetoothLeListenerSet mListeners = new BluetoothLeListenerSet();
+    // Calls listeners given with a single request
+    private Executor mMainExecutor;
+    // Only touched on the worker thread
+    private boolean mForeground;
+    private volatile boolean mBroadcastEnabled = false;
+    private GattValueDispatcher<BluetoothDevice> mValueDispatcher;
+    private volatile SessionRecorder mRecorder;
+
+
+    /**
+     * Gives bound components the service itself.
+     */
+    public class LocalBinder extends Binder {
+        public BluetoothLeService getService() {
+            return BluetoothLeService.this;
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        mMainExecutor = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                mainHandler.post(runnable);
+            }
+        };
+        // Delivered right away, the listener set copies the value for each subscriber
+        mValueDispatcher = new GattValueDispatcher<>(DIRECT_EXECUTOR, mValueListener, 1);
+        mWorkerThread = new HandlerThread("BluetoothLe");
+        mWorkerThread.start();
+        mWorkerHandler = new Handler(mWorkerThread.getLooper(), mWorkerCallback);
+        mScheduler = new HandlerScheduler(mWorkerHandler);
+        mScanScheduler = new ScanScheduler(mScheduler, ScanDutyCycle.DEFAULT, mScanner);
         // Initializes Bluetooth adapter.
-        mBluetoothManager = (BluetoothManager) mAppContext.getSystemService(Context.BLUETOOTH_SERVICE);
+        mBluetoothManager = (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
         mBluetoothAdapter = mBluetoothManager.getAdapter();
+        mConnectionManager = new GattConnectionManager(
+                new AndroidGattBackend(this, mBluetoothAdapter, mScheduler),
+                mScheduler, mSessionCallback);
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    /**
+     * Started to stay alive without bound components while devices are connected, and by
+     * the notification.
+     */
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_DISCONNECT_ALL.equals(intent.getAction())) {
+            disconnectGatt();
+        } else if (GattTrace.ENABLED && intent != null
+                && ACTION_SAVE_TRACE.equals(intent.getAction())) {
+            File directory = getExternalFilesDir(null);
+            final File file = new File(directory != null ? directory : getFilesDir(),
+                    TRACE_FILE_NAME);
+            // Not on the worker thread, which would stall in the trace
+            new Thread("GattTrace") {
+                @Override
+                public void run() {
+                    saveTrace(file);
+                }
+            }.start();
+        }
+        // Connections do not survive the process, nothing to restart with
+        return START_NOT_STICKY;
+    }
+
+    /**
+     * Stop scanning, close every connection and stop the worker thread once it has done so.
+     */
+    @Override
+    public void onDestroy() {
+        scanLeDevice(false);
+        close();
+        mWorkerThread.quitSafely();
+        super.onDestroy();
+    }
+
+    /**
+     * Use another backend from now on, e.g. a {@link SimulatedGattBackend}. Call before
+     * connecting: devices connected through the previous backend are closed, and the
+     * connection limit and reconnect policy are back to their defaults.
+     */
+    public void setGattBackend(final GattBackend backend) {
+        runOnWorker(new Runnable() {
+            @Override
+            public void run() {
+                mConnectionManager.closeAll();
+                mConnectionManager = new GattConnectionManager(backend, mScheduler, mSessionCallback);
+                updateForeground();
+            }
+        });
+    }
+
+    /**
+     * Subscribe to events, with listener callbacks delivered on the main thread.
+     */
+    public void addListener(BluetoothLeListener listener) {
+        addListener(listener, mMainExecutor);
+    }
+
+    /**
+     * Subscribe to events. Devices already connected are reported to {@code listener} by
+     * {@link BluetoothLeListener#onConnected} first.
+     *
+     * @param executor Executor used to call {@code listener}. Connection, discovery and value
+     *                 events are delivered through it in the order they happened. Null calls
+     *                 the listener directly on the worker thread.
+     */
+    public void addListener(final BluetoothLeListener listener, Executor executor) {
+        final Executor listenerExecutor = executor != null ? executor : DIRECT_EXECUTOR;
+        runOnWorker(new Runnable() {
+            @Override
+            public void run() {
+                if (!mListeners.add(listener, listenerExecutor)) {
+                    return;
+                }
+                BluetoothLeListenerSet.Subscriber subscriber = mListeners.get(listener);
+                for (GattSession session : mConnectionManager.getSessions()) {
+                    if (session.isLinkUp()) {
+                        mListeners.onConnected(subscriber, session.getDevice());
+                    }
+                }
+            }
+        });
     }
 
-    public void release() {
-        mBluetoothGatt.disconnect();
-        mBluetoothGatt.close();
+    /**
+     * Unsubscribe, connections are kept. Takes effect right away, though callbacks already
+     * handed to the listener's executor still run.
+     */
+    public void removeListener(BluetoothLeListener listener) {
+        mListeners.remove(listener);
     }
 
     public boolean isBluetoothAdapterAvailable() {
@@ -73,182 +256,899 @@ public class BluetoothLeService {
         return true;
     }
 
+    /**
+     * Close every connection.
+     */
     public void close() {
-        if (mBluetoothGatt != null) {
-            mBluetoothGatt.disconnect();
-            mBluetoothGatt.close();
-            mBluetoothGatt = null;
-        }
+        runOnWorker(new Runnable() {
+            @Override
+            public void run() {
+                mConnectionManager.closeAll();
+                updateForeground();
+            }
+        });
+    }
+
+    /**
+     * @param maxConnections Number of devices that may be connected at the same time
+     */
+    public void setMaxConnections(int maxConnections) {
+        mConnectionManager.setMaxConnections(maxConnections);
+    }
+
+    /**
+     * @param policy How devices connected from now on recover a lost link. Defaults to
+     *               {@code ReconnectPolicy.DEFAULT}; {@code ReconnectPolicy.NONE} reports a lost
+     *               link as a disconnection.
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        mConnectionManager.setReconnectPolicy(policy);
     }
 
     /**
+     * @return Connection, discovery and operation latencies, notification intervals and
+     *         failure counts of every device connected so far, by address
+     */
+    public Map<String, GattMetrics.Snapshot> getMetricsSnapshot() {
+        return mConnectionManager.getMetrics().snapshot();
+    }
+
+    /**
+     * Start the metrics over, e.g. once a snapshot has been exported.
+     */
+    public void resetMetrics() {
+        mConnectionManager.getMetrics().reset();
+    }
+
+    /**
+     * Connect, reported by {@link BluetoothLeListener#onConnected}. A connection refused
+     * because the connection limit is reached is reported by
+     * {@link BluetoothLeListener#onDisconnected}.
      *
      * @param btDevice
      */
     public void connectGatt(BluetoothDevice btDevice) {
-        mBluetoothGatt = btDevice.connectGatt(mAppContext, false, mGattCallback);
+        connectGatt(btDevice, ConnectionProfile.DEFAULT, null);
     }
 
     /**
+     * Connect and negotiate link parameters, e.g. {@code ConnectionProfile.HIGH_THROUGHPUT}.
+     * Parameters the peer refuses keep their defaults.
      *
+     * @param listener Optional, called on the main thread with the negotiated parameters
+     */
+    public void connectGatt(final BluetoothDevice btDevice, final ConnectionProfile profile,
+                            final LinkParameters.Listener listener) {
+        runOnWorker(new Runnable() {
+            @Override
+            public void run() {
+                if (mConnectionManager.connect(btDevice, profile, listener) == null) {
+                    notifyDisconnected(btDevice);
+                }
+                updateForeground();
+            }
+        });
+    }
+
+    /**
+     * @return Link parameters in effect, or null if the device is not connected
+     */
+    public LinkParameters getLinkParameters(String address) {
+        GattSession session = mConnectionManager.get(address);
+        return session != null ? session.getLinkParameters() : null;
+    }
+
+    /**
+     * Disconnect every device.
      */
     public void disconnectGatt() {
-        if (mBluetoothGatt != null) {
-            mBluetoothGatt.disconnect();
-        }
+        runOnWorker(new Runnable() {
+            @Override
+            public void run() {
+                mConnectionManager.disconnectAll();
+            }
+        });
     }
 
     /**
      *
+     * @param address Address of the device to disconnect
      */
-    public void discoverGattServices() {
-        mBluetoothGatt.discoverServices();
+    public void disconnectGatt(final String address) {
+        runOnWorker(new Runnable() {
+            @Override
+            public void run() {
+                mConnectionManager.disconnect(address);
+            }
+        });
+    }
+
+    /**
+     * Discover the device's services, reported by {@link BluetoothLeListener#onServicesDiscovered}.
+     *
+     * @param address Address of a connected device
+     */
+    public void discoverGattServices(final String address) {
+        runOnWorker(new Runnable() {
+            @Override
+            public void run() {
+                GattSession session = mConnectionManager.get(address);
+                if (session == null) {
+                    Log.w(TAG, "Not connected: " + address);
+                    return;
+                }
+                session.discoverServices();
+            }
+        });
     }
 
     /**
      * Retrieves a list of supported GATT services on the connected device. This should be
      * invoked only after {@code BluetoothGatt#discoverServices()} completes successfully.
      *
+     * @param address Address of a connected device
      * @return A {@code List} of supported services.
      */
-    public List<BluetoothGattService> getSupportedGattServices() {
-        if (mBluetoothGatt == null)
+    public List<BluetoothGattService> getSupportedGattServices(String address) {
+        GattSession session = mConnectionManager.get(address);
+        if (session == null)
             return null;
-        return mBluetoothGatt.getServices();
+        return session.getServices();
+    }
+
+    public void readGattCharactertistics(String address, BluetoothGattCharacteristic characteristic) {
+        readGattCharactertistics(address, characteristic, null);
+    }
+
+    /**
+     * Read a characteristic. The value is delivered to {@link BluetoothLeListener#onValue}.
+     * A value still valid in the device's cache is delivered without going over the air.
+     *
+     * @param callback Optional, informed when the read completes, fails or times out
+     */
+    public void readGattCharactertistics(final String address,
+                                         final BluetoothGattCharacteristic characteristic,
+                                         final GattOperation.Callback callback) {
+        runOnWorker(new Runnable() {
+            @Override
+            public void run() {
+                GattOperation operation = GattOperation.readCharacteristic(characteristic)
+                        .setCallback(callback);
+                GattSession session = mConnectionManager.get(address);
+                if (session != null && dispatchCachedValue(session, characteristic)) {
+                    if (callback != null) {
+                        callback.onOperationComplete(operation, BluetoothGatt.GATT_SUCCESS);
+                    }
+                    return;
+                }
+                enqueueOnWorker(address, operation);
+            }
+        });
+    }
+
+    /**
+     * Read every characteristic of the device with {@code PROPERTY_READ}, see
+     * {@link #readGattCharacteristics(String, Collection, GattBatchRead.Listener)}.
+     */
+    public void readAllGattCharacteristics(final String address,
+                                           final GattBatchRead.Listener listener) {
+        runOnWorker(new Runnable() {
+            @Override
+            public void run() {
+                GattSession session = mConnectionManager.get(address);
+                List<BluetoothGattService> services = session != null ? session.getServices() : null;
+                List<BluetoothGattCharacteristic> readable = services != null
+                        ? GattBatchRead.readable(services)
+                        : Collections.<BluetoothGattCharacteristic>emptyList();
+                readOnWorker(address, readable, listener);
+            }
+        });
+    }
+
+    /**
+     * Read a set of characteristics back to back: all reads are queued at once, so each
+     * starts from the completion of the previous one. Values are delivered to
+     * {@link BluetoothLeListener#onValue} as they arrive, cached ones without going over the
+     * air; then {@code listener} gets the status of every read and the total time.
+     *
+     * @param listener Called on the main thread once every read has completed
+     */
+    public void readGattCharacteristics(final String address,
+                                        Collection<BluetoothGattCharacteristic> characteristics,
+                                        final GattBatchRead.Listener listener) {
+        final List<BluetoothGattCharacteristic> copy = new ArrayList<>(characteristics);
+        runOnWorker(new Runnable() {
+            @Override
+            public void run() {
+                readOnWorker(address, copy, listener);
+            }
+        });
+    }
+
+    private void readOnWorker(String address, List<BluetoothGattCharacteristic> characteristics,
+                              GattBatchRead.Listener listener) {
+        GattBatchRead batch = new GattBatchRead(address, characteristics, mMainExecutor,
+                listener);
+        GattSession session = mConnectionManager.get(address);
+        for (int i = 0; i < batch.size(); i++) {
+            if (session != null && dispatchCachedValue(session, batch.getCharacteristic(i))) {
+                batch.onItemComplete(i, BluetoothGatt.GATT_SUCCESS);
+            } else {
+                enqueueOnWorker(address, batch.createOperation(i));
+            }
+        }
+        batch.start();
+    }
+
+    /**
+     * Set how long read values of a characteristic are served from the cache.
+     * Device Information characteristics are cached for the whole connection by default.
+     *
+     * @param ttl Time in milliseconds, {@code GattValueCache.TTL_CONNECTION} or
+     *            {@code GattValueCache.TTL_NONE}
+     */
+    public void setCacheTtl(UUID characteristicUuid, long ttl) {
+        mConnectionManager.getCachePolicy().setTtl(characteristicUuid, ttl);
+    }
+
+    /**
+     * Drop the cached value of a characteristic, so the next read goes over the air.
+     */
+    public void invalidateCachedValue(String address, BluetoothGattCharacteristic characteristic) {
+        GattSession session = mConnectionManager.get(address);
+        if (session != null) {
+            session.getValueCache().invalidate(characteristic);
+        }
+    }
+
+    /**
+     * Queue a characteristic write.
+     *
+     * @param writeType One of {@code BluetoothGattCharacteristic.WRITE_TYPE_*}
+     * @param callback Optional, informed when the write completes, fails or times out
+     */
+    public void writeGattCharacteristic(String address, BluetoothGattCharacteristic characteristic,
+                                        byte[] value, int writeType, GattOperation.Callback callback) {
+        enqueue(address, GattOperation.writeCharacteristic(characteristic, value, writeType)
+                .setCallback(callback));
+    }
+
+    /**
+     * Write a payload of any size, e.g. a firmware image, in chunks as large as the MTU
+     * allows. Each chunk starts as soon as the stack has taken the previous one; see
+     * {@link GattStreamWrite}.
+     *
+     * @param writeType {@code WRITE_TYPE_DEFAULT} for acknowledged writes or
+     *                  {@code WRITE_TYPE_NO_RESPONSE}
+     * @param listener  Called on the main thread with the progress and outcome
+     * @return The write in progress, to cancel it
+     */
+    public GattStreamWrite writeGattCharacteristicStream(String address,
+                                                         BluetoothGattCharacteristic characteristic,
+                                                         byte[] payload, int writeType,
+                                                         GattStreamWrite.Listener listener) {
+        return writeGattCharacteristicStream(address, characteristic,
+                new ByteArrayInputStream(payload), payload.length, writeType, listener);
+    }
+
+    /**
+     * @param source Payload, read one chunk at a time on the worker thread, so it should not
+     *               block: e.g. an in-memory or buffered file stream. Closed once written.
+     * @param length Length of the payload for progress reports, -1 if unknown
+     * @see #writeGattCharacteristicStream(String, BluetoothGattCharacteristic, byte[], int,
+     *      GattStreamWrite.Listener)
+     */
+    public GattStreamWrite writeGattCharacteristicStream(final String address,
+                                                         BluetoothGattCharacteristic characteristic,
+                                                         InputStream source, long length,
+                                                         int writeType,
+                                                         GattStreamWrite.Listener listener) {
+        final GattStreamWrite write = new GattStreamWrite(characteristic, source, length,
+                writeType, mScheduler, mMainExecutor, listener);
+        runOnWorker(new Runnable() {
+            @Override
+            public void run() {
+                GattSession session = mConnectionManager.get(address);
+                if (session == null) {
+                    Log.w(TAG, "Not connected: " + address);
+                    write.abort(GattOperation.STATUS_CANCELLED);
+                    return;
+                }
+                write.start(session.getOperationQueue(),
+                        GattStreamWrite.chunkSize(session.getMtu()));
+            }
+        });
+        return write;
+    }
+
+    /**
+     * Queue a descriptor write.
+     *
+     * @param callback Optional, informed when the write completes, fails or times out
+     */
+    public void writeGattDescriptor(String address, BluetoothGattDescriptor descriptor, byte[] value,
+                                    GattOperation.Callback callback) {
+        enqueue(address, GattOperation.writeDescriptor(descriptor, value).setCallback(callback));
+    }
+
+    /**
+     * Queue an MTU exchange.
+     *
+     * @param callback Optional, informed when the exchange completes, fails or times out
+     */
+    public void requestMtu(String address, int mtu, GattOperation.Callback callback) {
+        enqueue(address, GattOperation.requestMtu(mtu).setCallback(callback));
+    }
+
+    /**
+     * Queue an operation on the session of {@code address}. Fails the operation with
+     * {@code STATUS_CANCELLED} if the device is not connected.
+     */
+    private void enqueue(final String address, final GattOperation operation) {
+        runOnWorker(new Runnable() {
+            @Override
+            public void run() {
+                enqueueOnWorker(address, operation);
+            }
+        });
+    }
+
+    private void enqueueOnWorker(String address, GattOperation operation) {
+        GattSession session = mConnectionManager.get(address);
+        if (session != null) {
+            session.enqueue(operation);
+            return;
+        }
+        Log.w(TAG, "Not connected: " + address);
+        GattOperation.Callback callback = operation.getCallback();
+        if (callback != null) {
+            callback.onOperationComplete(operation, GattOperation.STATUS_CANCELLED);
+        }
+    }
+
+    /**
+     * Record every value read or notified from now on, until {@link #stopRecording()}.
+     * Read the recording back with {@link SessionReader}.
+     *
+     * @param directory Empty directory receiving the recording, e.g. under
+     *                  {@code Context#getFilesDir()}
+     */
+    public void startRecording(File directory) throws IOException {
+        SessionRecorder recorder = new SessionRecorder(directory);
+        SessionRecorder previous = mRecorder;
+        mRecorder = recorder;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Stop recording and flush the recording to disk.
+     */
+    public void stopRecording() throws IOException {
+        SessionRecorder recorder = mRecorder;
+        mRecorder = null;
+        if (recorder != null) {
+            recorder.close();
+            if (recorder.getDroppedCount() > 0) {
+                Log.w(TAG, "Recording dropped " + recorder.getDroppedCount() + " values");
+            }
+        }
     }
 
-    public void readGattCharactertistics(BluetoothGattCharacteristic characteristic) {
-        mBluetoothGatt.readCharacteristic(characteristic);
+    /**
+     * Write the GATT timeline kept so far as a Chrome trace, to open in chrome://tracing or
+     * ui.perfetto.dev. Does nothing unless {@code GattTrace.ENABLED}. Call off the main
+     * thread; the notification also has an action saving it to {@code gatt-trace.json} in the
+     * external files directory.
+     *
+     * @return false if the file could not be written
+     */
+    public boolean saveTrace(File file) {
+        if (!GattTrace.ENABLED) {
+            return false;
+        }
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file),
+                    "UTF-8"));
+            int count = GattTrace.writeChromeJson(writer);
+            Log.i(TAG, "Saved " + count + " trace events to " + file);
+            return true;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to save the trace", e);
+            return false;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to save the trace", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Also publish events as the {@code ACTION_*} broadcasts, for receivers that predate
+     * {@link BluetoothLeListener}. Off by default since every broadcast goes through the system.
+     */
+    public void setBroadcastEnabled(boolean enabled) {
+        mBroadcastEnabled = enabled;
     }
 
     /**
      * Enables or disables notification on a give characteristic.
      *
+     * @param address Address of a connected device
      * @param characteristic Characteristic to act on.
      * @param enabled If true, enable notification.  False otherwise.
      */
-    public void setCharacteristicNotification(BluetoothGattCharacteristic characteristic,
-                                              boolean enabled) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
-            Log.w(TAG, "BluetoothAdapter not initialized");
-            return;
+    public void setCharacteristicNotification(final String address,
+                                              final BluetoothGattCharacteristic characteristic,
+                                              final boolean enabled) {
+        runOnWorker(new Runnable() {
+            @Override
+            public void run() {
+                GattSession session = mConnectionManager.get(address);
+                GattBackend.Connection connection = session != null ? session.getConnection() : null;
+                if (connection == null) {
+                    Log.w(TAG, "Not connected: " + address);
+                    return;
+                }
+
+                connection.setCharacteristicNotification(characteristic, enabled);
+
+                // This is specific to Heart Rate Measurement.
+                if (UUID_HEART_RATE_MEASUREMENT.equals(characteristic.getUuid())) {
+                    BluetoothGattDescriptor descriptor = characteristic.getDescriptor(
+                            GattAttributes.CLIENT_CHARACTERISTIC_CONFIG);
+                    if (descriptor != null) {
+                        enqueueOnWorker(address, GattOperation.writeDescriptor(descriptor, enabled
+                                ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE
+                                : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE));
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Only report devices matching one of the filters. Filtering is done by the controller
+     * when the hardware supports it, so non matching advertisements never reach the app.
+     * Applies from the next scan window.
+     *
+     * @param filters Filters to match, or null to report every device
+     */
+    public void setScanFilters(List<ScanFilter> filters) {
+        mScanFilters = filters;
+    }
+
+    /**
+     * Only report devices advertising one of the given service UUIDs.
+     */
+    public void setScanServiceUuids(UUID... serviceUuids) {
+        List<ScanFilter> filters = new ArrayList<>(serviceUuids.length);
+        for (UUID uuid : serviceUuids) {
+            filters.add(new ScanFilter.Builder().setServiceUuid(new ParcelUuid(uuid)).build());
         }
+        setScanFilters(filters);
+    }
 
-        /*
-        mBluetoothGatt.setCharacteristicNotification(characteristic, enabled);
+    /**
+     * @param scanMode One of {@code ScanSettings.SCAN_MODE_LOW_POWER},
+     *                 {@code SCAN_MODE_BALANCED} or {@code SCAN_MODE_LOW_LATENCY}
+     */
+    public void setScanMode(int scanMode) {
+        mScanMode = scanMode;
+    }
+
+    /**
+     * Let the controller batch scan results and deliver them every {@code reportDelay}
+     * milliseconds. Ignored if the controller does not support batching.
+     *
+     * @param reportDelay Delay in milliseconds, 0 to report every advertisement immediately
+     */
+    public void setScanReportDelay(long reportDelay) {
+        mScanReportDelay = reportDelay;
+    }
+
+    /**
+     * @param dutyCycle How much of the time to scan, {@code ScanDutyCycle.DEFAULT} unless
+     *                  set. Applies from the next scan window.
+     */
+    public void setScanDutyCycle(final ScanDutyCycle dutyCycle) {
+        runOnWorker(new Runnable() {
+            @Override
+            public void run() {
+                mScanScheduler.setDutyCycle(dutyCycle);
+            }
+        });
+    }
 
-        // This is specific to Heart Rate Measurement.
-        if (UUID_HEART_RATE_MEASUREMENT.equals(characteristic.getUuid())) {
-            BluetoothGattDescriptor descriptor = characteristic.getDescriptor(
-                    UUID.fromString(SampleGattAttributes.CLIENT_CHARACTERISTIC_CONFIG));
-            descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-            mBluetoothGatt.writeDescriptor(descriptor);
-        }*/
+    /**
+     * Devices the app is looking for: while one of them is in range, scan windows come as
+     * often as the duty cycle allows, as they do when new devices show up.
+     */
+    public void setScanTargets(String... addresses) {
+        mScanTargets = new HashSet<>(Arrays.asList(addresses));
     }
 
     /**
-     * Scan/Stop for BLE devices
+     * Scan/Stop for BLE devices. The scan runs in windows following the duty cycle until
+     * stopped, or until Bluetooth is off.
      * @param enable
      */
     public void scanLeDevice(final boolean enable) {
+        runOnWorker(new Runnable() {
+            @Override
+            public void run() {
+                scanLeDeviceOnWorker(enable);
+            }
+        });
+    }
+
+    private void scanLeDeviceOnWorker(boolean enable) {
         if (enable) {
-            mListener.onBLEScanningStart(); // Inform client
-            // Stops scanning after a pre-defined scan period.
-            mHandlerScan.postDelayed(new Runnable() {
+            if (mScanScheduler.isRunning()) {
+                return;
+            }
+            notifyScanningStart(); // Inform client
+            mScanScheduler.start();
+        } else {
+            mScanScheduler.stop();
+        }
+    }
+
+    // Starts and stops each scan window, on the worker thread
+    private final ScanScheduler.Scanner mScanner = new ScanScheduler.Scanner() {
+        @Override
+        public boolean startScan() {
+            mBluetoothLeScanner = mBluetoothAdapter.getBluetoothLeScanner();
+            if (mBluetoothLeScanner == null) {
+                // Bluetooth is off
+                Log.w(TAG, "BluetoothLeScanner not available");
+                notifyScanningStop();
+                return false;
+            }
+            mBluetoothLeScanner.startScan(mScanFilters, buildScanSettings(), mScanCallback);
+            return true;
+        }
+
+        @Override
+        public void stopScan() {
+            BluetoothLeService.this.stopScan();
+        }
+    };
+
+    private ScanSettings buildScanSettings() {
+        long reportDelay = mScanReportDelay;
+        if (reportDelay > 0 && !mBluetoothAdapter.isOffloadedScanBatchingSupported()) {
+            Log.w(TAG, "Batched scan not supported, reporting immediately");
+            reportDelay = 0;
+        }
+        return new ScanSettings.Builder()
+                .setScanMode(mScanMode)
+                .setReportDelay(reportDelay)
+                .build();
+    }
+
+    private void stopScan() {
+        if (mBluetoothLeScanner == null) {
+            return;
+        }
+        if (mBluetoothAdapter.isEnabled()) {
+            // Deliver what is still batched in the controller before stopping
+            mBluetoothLeScanner.flushPendingScanResults(mScanCallback);
+            mBluetoothLeScanner.stopScan(mScanCallback);
+        }
+        mBluetoothLeScanner = null;
+    }
+
+    /**
+     * Device scanning callback, called on the main thread. Results are handed to the worker
+     * in pooled messages, so the hop does not allocate.
+     */
+    private final ScanCallback mScanCallback = new ScanCallback() {
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
+            mWorkerHandler.obtainMessage(MSG_SCAN_RESULT, result).sendToTarget();
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+            mWorkerHandler.obtainMessage(MSG_BATCH_SCAN_RESULTS, results).sendToTarget();
+        }
+
+        @Override
+        public void onScanFailed(final int errorCode) {
+            mWorkerHandler.post(new Runnable() {
                 @Override
                 public void run() {
-                    mBluetoothAdapter.stopLeScan(mLeScanCallback);
-                    mListener.onBLEScanningStop(); // Inform client
+                    Log.w(TAG, "onScanFailed: " + errorCode);
+                    mBluetoothLeScanner = null;
+                    mScanScheduler.stop();
+                    notifyScanningStop();
                 }
-            }, SCAN_PERIOD);
-            mBluetoothAdapter.startLeScan(mLeScanCallback);
-        } else {
-            mBluetoothAdapter.stopLeScan(mLeScanCallback);
+            });
         }
+    };
+
+    private final Handler.Callback mWorkerCallback = new Handler.Callback() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean handleMessage(Message msg) {
+            switch (msg.what) {
+                case MSG_SCAN_RESULT:
+                    reportScanResult((ScanResult) msg.obj);
+                    return true;
+                case MSG_BATCH_SCAN_RESULTS:
+                    List<ScanResult> results = (List<ScanResult>) msg.obj;
+                    for (int i = 0; i < results.size(); i++) {
+                        reportScanResult(results.get(i));
+                    }
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    };
+
+    private void reportScanResult(ScanResult result) {
+        ScanRecord record = result.getScanRecord();
+        mAdvertisingData.wrap(record != null ? record.getBytes() : null);
+        String address = result.getDevice().getAddress();
+        mScanScheduler.onDeviceSeen(address, mScanTargets.contains(address));
+        // Inform client BLE device found
+        mListeners.onBLEScanResult(result.getDevice(), result.getRssi(), mAdvertisingData);
     }
 
     /**
-     * Device scanning callback
+     * Run on the worker thread, right away if already on it.
      */
-    private BluetoothAdapter.LeScanCallback mLeScanCallback = new BluetoothAdapter.LeScanCallback() {
+    private void runOnWorker(Runnable runnable) {
+        if (Looper.myLooper() == mWorkerThread.getLooper()) {
+            runnable.run();
+        } else {
+            mWorkerHandler.post(runnable);
+        }
+    }
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
         @Override
-        public void onLeScan(final BluetoothDevice bluetoothDevice, int i, byte[] bytes) {
-            // Inform client BLE device found
-            mListener.onBLEScanResult(bluetoothDevice);
+        public void execute(Runnable runnable) {
+            runnable.run();
         }
     };
 
+    private void notifyScanningStart() {
+        mListeners.onBLEScanningStart();
+    }
+
+    private void notifyScanningStop() {
+        mListeners.onBLEScanningStop();
+    }
+
+    private void notifyDisconnected(BluetoothDevice device) {
+        mListeners.onDisconnected(device);
+    }
+
 
-    // Various callback methods defined by the BLE API.
-    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+    // Events of every connected device, on the worker thread
+    private final GattSession.Callback mSessionCallback = new GattSession.Callback() {
         @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                mConnectionState = STATE_CONNECTED;
-                broadcastUpdate(ACTION_GATT_CONNECTED);
-            }
-            else if (newState == BluetoothProfile.STATE_DISCONNECTED) { ;
-                mConnectionState = STATE_DISCONNECTED;
-                broadcastUpdate(ACTION_GATT_DISCONNECTED);
+        public void onConnected(GattSession session) {
+            mListeners.onConnected(session.getDevice());
+            broadcastUpdate(ACTION_GATT_CONNECTED, session);
+        }
+
+        @Override
+        public void onConnectionLost(GattSession session, int status) {
+            // Keep the connection slot, the session reconnects by itself
+            notifyDisconnected(session.getDevice());
+            broadcastUpdate(ACTION_GATT_DISCONNECTED, session);
+        }
+
+        @Override
+        public void onDisconnected(GattSession session, int status, boolean lossReported) {
+            // Free the connection slot
+            mConnectionManager.close(session);
+            // One event per lost link: reconnection giving up is not a second one
+            if (!lossReported) {
+                notifyDisconnected(session.getDevice());
+                broadcastUpdate(ACTION_GATT_DISCONNECTED, session);
             }
+            updateForeground();
         }
 
         @Override
-        // New services discovered
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            // TODO
+        // New services discovered, or discovery given up
+        public void onServicesDiscovered(GattSession session, int status) {
             if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED);
+                mListeners.onServicesDiscovered(session.getDevice(), session.getServices(), status);
+                broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED, session);
             } else {
-                Log.d(TAG, "onServicesDiscovered received: " + status);
+                Log.w(TAG, "Service discovery failed: " + status);
+                mListeners.onServicesDiscovered(session.getDevice(),
+                        Collections.<BluetoothGattService>emptyList(), status);
             }
         }
 
         @Override
-        // Result of a characteristic read operation
-        public void onCharacteristicRead(BluetoothGatt gatt,
-                                         BluetoothGattCharacteristic characteristic,
-                                         int status) {
-            Log.d(TAG, "onCharacteristicRead: " + gatt + ", status: " + status);
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
+        // Result of a characteristic read or a notification
+        public void onCharacteristicValue(GattSession session,
+                                          BluetoothGattCharacteristic characteristic, byte[] value) {
+            SessionRecorder recorder = mRecorder;
+            if (recorder != null) {
+                recorder.record(System.nanoTime(), session.getAddress(),
+                        characteristic.getUuid(), value, value.length);
             }
+            dispatchValue(session, characteristic, value);
         }
 
         @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt,
-                                            BluetoothGattCharacteristic characteristic) {
-            Log.d(TAG, "onCharacteristicChanged");
-            broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
+        public void onLinkParametersNegotiated(GattSession session, final LinkParameters parameters) {
+            final LinkParameters.Listener listener = session.getLinkParametersListener();
+            if (listener == null) {
+                return;
+            }
+            final BluetoothDevice device = session.getDevice();
+            mMainExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onLinkParametersNegotiated(device, parameters);
+                }
+            });
         }
     };
 
-    private void broadcastUpdate(String action) {
-        //Log.d(TAG, "broadcastUpdate: " + action);
+    /**
+     * Run in the foreground while there are connections, reconnecting ones included, and
+     * let the system stop the service once the last one is closed and nothing is bound.
+     */
+    private void updateForeground() {
+        int connections = mConnectionManager.getSessions().size();
+        if (connections == 0) {
+            if (mForeground) {
+                mForeground = false;
+                stopForeground(true);
+                stopSelf();
+            }
+            return;
+        }
+        if (!mForeground) {
+            mForeground = true;
+            // Started, the service outlives the components bound to it
+            Intent intent = new Intent(this, BluetoothLeService.class);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                startForegroundService(intent);
+            } else {
+                startService(intent);
+            }
+            startForeground(NOTIFICATION_ID, buildNotification(connections));
+        } else {
+            NotificationManager manager =
+                    (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            manager.notify(NOTIFICATION_ID, buildNotification(connections));
+        }
+    }
+
+    private Notification buildNotification(int connections) {
+        Notification.Builder builder;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager =
+                    (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            manager.createNotificationChannel(new NotificationChannel(NOTIFICATION_CHANNEL_ID,
+                    getString(R.string.notification_channel_connections),
+                    NotificationManager.IMPORTANCE_LOW));
+            builder = new Notification.Builder(this, NOTIFICATION_CHANNEL_ID);
+        } else {
+            builder = new Notification.Builder(this);
+        }
+        PendingIntent openIntent = PendingIntent.getActivity(this, 0,
+                new Intent(this, MainActivity.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        PendingIntent disconnectIntent = PendingIntent.getService(this, 0,
+                new Intent(this, BluetoothLeService.class).setAction(ACTION_DISCONNECT_ALL),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        if (GattTrace.ENABLED) {
+            builder.addAction(0, getString(R.string.btn_text_save_trace),
+                    PendingIntent.getService(this, 0,
+                            new Intent(this, BluetoothLeService.class).setAction(ACTION_SAVE_TRACE),
+                            PendingIntent.FLAG_UPDATE_CURRENT));
+        }
+        return builder.setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.notification_connections, connections))
+                .setContentIntent(openIntent)
+                .addAction(0, getString(R.string.btn_text_disconnect), disconnectIntent)
+                .setOngoing(true)
+                .build();
+    }
+
+    private void broadcastUpdate(String action, GattSession session) {
+        if (!mBroadcastEnabled) {
+            return;
+        }
         Intent intent = new Intent(action);
-        mAppContext.sendBroadcast(intent);
+        intent.putExtra(EXTRA_ADDRESS, session.getAddress());
+        sendBroadcast(intent);
+    }
+
+    /**
+     * Hand a characteristic value to the listener without allocating on a warm path.
+     */
+    private void dispatchValue(GattSession session, BluetoothGattCharacteristic characteristic,
+                               byte[] value) {
+        mValueDispatcher.dispatch(session.getDevice(), characteristic.getUuid(), value, value.length);
+
+        broadcastUpdate(ACTION_DATA_AVAILABLE, session, value);
     }
 
-    private void broadcastUpdate(final String action, final BluetoothGattCharacteristic characteristic) {
+    /**
+     * @return false if there is no valid cached value to deliver
+     */
+    private boolean dispatchCachedValue(GattSession session, BluetoothGattCharacteristic characteristic) {
+        GattValue value = mValueDispatcher.obtainValue();
+        if (!session.getValueCache().get(characteristic, value)) {
+            mValueDispatcher.recycleValue(value);
+            return false;
+        }
+        mValueDispatcher.dispatch(session.getDevice(), value);
+        return true;
+    }
+
+    private final GattValueDispatcher.Listener<BluetoothDevice> mValueListener =
+            new GattValueDispatcher.Listener<BluetoothDevice>() {
+        @Override
+        public void onValue(BluetoothDevice device, UUID uuid, GattValue value) {
+            mListeners.onValue(device, uuid, value);
+        }
+    };
+
+    private void broadcastUpdate(final String action, final GattSession session,
+                                 final byte[] data) {
+        if (!mBroadcastEnabled) {
+            return;
+        }
         final Intent intent = new Intent(action);
-        Log.d(TAG, "broadcastUpdate: " + action + ", characteristic: " + characteristic);
+        intent.putExtra(EXTRA_ADDRESS, session.getAddress());
 
         // Writes the data formatted in HEX.
-        final byte[] data = characteristic.getValue();
-        if (data != null && data.length > 0) {
-            final StringBuilder stringBuilder = new StringBuilder(data.length);
-            for(byte byteChar : data)
-                stringBuilder.append(String.format("%02X ", byteChar));
+        if (data.length > 0) {
+            final StringBuilder stringBuilder = new StringBuilder(data.length * 3);
+            GattValue.appendHex(stringBuilder, data, 0, data.length);
             intent.putExtra(EXTRA_DATA, new String(data) + "\n" +
                     stringBuilder.toString());
         }
 
-        mAppContext.sendBroadcast(intent);
+        sendBroadcast(intent);
     }
 
     public interface BluetoothLeListener {
         void onBLEScanningStart();
         void onBLEScanningStop();
-        void onBLEScanResult(final BluetoothDevice btDevice);
+        /**
+         * Called on the worker thread for every advertisement received, whatever the
+         * listener executor. {@code advertisement} reads the raw advertisement and scan
+         * response in place and is reused as soon as this returns.
+         */
+        void onBLEScanResult(final BluetoothDevice btDevice, int rssi,
+                             AdvertisingData advertisement);
+
+        void onConnected(BluetoothDevice btDevice);
+        void onDisconnected(BluetoothDevice btDevice);
+        /**
+         * @param services Empty unless {@code status} is {@code BluetoothGatt.GATT_SUCCESS}
+         * @param status   Outcome of the discovery. After a failure the device is
+         *                 disconnected.
+         */
+        void onServicesDiscovered(BluetoothDevice btDevice, List<BluetoothGattService> services,
+                                  int status);
+
+        /**
+         * Called for every read result and notification. {@code value} is recycled as soon
+         * as this returns, copy what needs to be kept.
+         */
+        void onValue(BluetoothDevice btDevice, UUID uuid, GattValue value);
     }
 }
@@ -0,0 +1,46 @@
+package com.kelth.mybluetooth;
+
+/**
+ * Body Sensor Location (0x2A38)
+ */
+public class BodySensorLocation extends GattCodec {
+
+    public static final int LOCATION_OTHER = 0;
+    public static final int LOCATION_CHEST = 1;
+    public static final int LOCATION_WRIST = 2;
+    public static final int LOCATION_FINGER = 3;
+    public static final int LOCATION_HAND = 4;
+    public static final int LOCATION_EAR_LOBE = 5;
+    public static final int LOCATION_FOOT = 6;
+
+    private static final String[] NAMES = {
+            "Other", "Chest", "Wrist", "Finger", "Hand", "Ear Lobe", "Foot"
+    };
+
+    private int mLocation;
+
+    public BodySensorLocation() {
+        super(0x2A38);
+    }
+
+    @Override
+    public boolean decode(byte[] data, int length) {
+        if (length < 1) {
+            return false;
+        }
+        mLocation = uint8(data, 0);
+        return true;
+    }
+
+    /**
+     * @return One of the {@code LOCATION_*} constants, or a reserved value
+     */
+    public int getLocation() {
+        return mLocation;
+    }
+
+    @Override
+    public String toString() {
+        return "Sensor location: " + (mLocation < NAMES.length ? NAMES[mLocation] : mLocation);
+    }
+}
@@ -0,0 +1,60 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+
+/**
+ * Link parameters to negotiate right after a connection is established.
+ */
+public class ConnectionProfile {
+
+    // MTU every LE link starts with
+    public static final int DEFAULT_MTU = 23;
+    // Largest MTU Android accepts, allows 512 bytes of value per packet
+    public static final int MAX_MTU = 517;
+
+    // Keep whatever the stack chose
+    public static final int NOT_REQUESTED = -1;
+
+    /**
+     * Stack defaults, nothing is negotiated.
+     */
+    public static final ConnectionProfile DEFAULT =
+            new ConnectionProfile(NOT_REQUESTED, NOT_REQUESTED, NOT_REQUESTED);
+
+    /**
+     * Largest MTU, shortest connection interval and 2M PHY where both sides support it.
+     */
+    public static final ConnectionProfile HIGH_THROUGHPUT =
+            new ConnectionProfile(MAX_MTU, BluetoothGatt.CONNECTION_PRIORITY_HIGH,
+                    BluetoothDevice.PHY_LE_2M_MASK);
+
+    private final int mMtu;
+    private final int mConnectionPriority;
+    private final int mPhyMask;
+
+    /**
+     * @param mtu                MTU to request, or {@code NOT_REQUESTED}
+     * @param connectionPriority One of {@code BluetoothGatt.CONNECTION_PRIORITY_*}, or
+     *                           {@code NOT_REQUESTED}
+     * @param phyMask            {@code BluetoothDevice.PHY_LE_*_MASK} bits preferred for both
+     *                           directions, or {@code NOT_REQUESTED}. Needs Android 8.0.
+     */
+    public ConnectionProfile(int mtu, int connectionPriority, int phyMask) {
+        mMtu = mtu;
+        mConnectionPriority = connectionPriority;
+        mPhyMask = phyMask;
+    }
+
+    public int getMtu() {
+        return mMtu;
+    }
+
+    public int getConnectionPriority() {
+        return mConnectionPriority;
+    }
+
+    public int getPhyMask() {
+        return mPhyMask;
+    }
+}
@@ -0,0 +1,155 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * One characteristic of a discovered attribute table, as listed. Immutable: a new discovery
+ * builds new rows, and a list compares the old and new ones to update only what changed.
+ * A row is keyed by its service and characteristic UUIDs and instance IDs, which tell apart
+ * several instances of the same service or characteristic.
+ */
+public final class GattAttributeRow {
+
+    private final UUID mServiceUuid;
+    private final int mServiceInstanceId;
+    private final UUID mCharacteristicUuid;
+    private final int mCharacteristicInstanceId;
+    private final int mProperties;
+    private final String mServiceName;
+    private final String mCharacteristicName;
+    // Handle to read the characteristic with, not part of the row's value
+    private final BluetoothGattCharacteristic mCharacteristic;
+
+    /**
+     * @param serviceName        Name shown for the service
+     * @param characteristicName Name shown for the characteristic
+     */
+    public GattAttributeRow(UUID serviceUuid, int serviceInstanceId, UUID characteristicUuid,
+                            int characteristicInstanceId, int properties, String serviceName,
+                            String characteristicName,
+                            BluetoothGattCharacteristic characteristic) {
+        mServiceUuid = serviceUuid;
+        mServiceInstanceId = serviceInstanceId;
+        mCharacteristicUuid = characteristicUuid;
+        mCharacteristicInstanceId = characteristicInstanceId;
+        mProperties = properties;
+        mServiceName = serviceName;
+        mCharacteristicName = characteristicName;
+        mCharacteristic = characteristic;
+    }
+
+    /**
+     * Build the rows of every characteristic, in discovery order. Meant to run off the main
+     * thread: it walks the whole table and looks up every name.
+     *
+     * @return Unmodifiable list
+     */
+    public static List<GattAttributeRow> fromServices(List<BluetoothGattService> services) {
+        List<GattAttributeRow> rows = new ArrayList<>();
+        for (BluetoothGattService service : services) {
+            UUID serviceUuid = service.getUuid();
+            String serviceName = friendlyName(GattAttributes.serviceName(serviceUuid),
+                    serviceUuid);
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                UUID uuid = characteristic.getUuid();
+                rows.add(new GattAttributeRow(serviceUuid, service.getInstanceId(), uuid,
+                        characteristic.getInstanceId(), characteristic.getProperties(),
+                        serviceName,
+                        friendlyName(GattAttributes.characteristicName(uuid), uuid),
+                        characteristic));
+            }
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    private static String friendlyName(String name, UUID uuid) {
+        return name != null ? name : uuid.toString().toUpperCase(); // unknown
+    }
+
+    public UUID getServiceUuid() {
+        return mServiceUuid;
+    }
+
+    public int getServiceInstanceId() {
+        return mServiceInstanceId;
+    }
+
+    public UUID getCharacteristicUuid() {
+        return mCharacteristicUuid;
+    }
+
+    public int getCharacteristicInstanceId() {
+        return mCharacteristicInstanceId;
+    }
+
+    /**
+     * @return {@code BluetoothGattCharacteristic.PROPERTY_*} bits
+     */
+    public int getProperties() {
+        return mProperties;
+    }
+
+    public String getServiceName() {
+        return mServiceName;
+    }
+
+    public String getCharacteristicName() {
+        return mCharacteristicName;
+    }
+
+    public BluetoothGattCharacteristic getCharacteristic() {
+        return mCharacteristic;
+    }
+
+    /**
+     * @return true if both rows are the same characteristic, whatever they show
+     */
+    public boolean isSameAttribute(GattAttributeRow other) {
+        return mServiceInstanceId == other.mServiceInstanceId
+                && mCharacteristicInstanceId == other.mCharacteristicInstanceId
+                && mServiceUuid.equals(other.mServiceUuid)
+                && mCharacteristicUuid.equals(other.mCharacteristicUuid);
+    }
+
+    /**
+     * Same attribute, showing the same.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GattAttributeRow)) {
+            return false;
+        }
+        GattAttributeRow other = (GattAttributeRow) o;
+        return isSameAttribute(other)
+                && mProperties == other.mProperties
+                && equal(mServiceName, other.mServiceName)
+                && equal(mCharacteristicName, other.mCharacteristicName);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mServiceUuid.hashCode();
+        result = 31 * result + mServiceInstanceId;
+        result = 31 * result + mCharacteristicUuid.hashCode();
+        result = 31 * result + mCharacteristicInstanceId;
+        return result;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public String toString() {
+        return mServiceName + " / " + mCharacteristicName;
+    }
+}
@@ -0,0 +1,91 @@
+package com.kelth.mybluetooth;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Resolves GATT UUIDs to the names assigned by the Bluetooth SIG.
+ *
+ * Standard attributes use 16-bit UUIDs expanded onto the Bluetooth base UUID
+ * 0000xxxx-0000-1000-8000-00805F9B34FB. The 16 bits are extracted from the UUID's two longs
+ * and looked up in the sorted tables of {@link GattAssignedNumbers}, so resolving a name does
+ * not build any String.
+ */
+public final class GattAttributes {
+
+    private static final long BASE_UUID_MOST_SIG_BITS = 0x0000000000001000L;
+    private static final long BASE_UUID_LEAST_SIG_BITS = 0x800000805F9B34FBL;
+
+    public static final UUID HEART_RATE_MEASUREMENT = fromShortUuid(0x2A37);
+    public static final UUID CLIENT_CHARACTERISTIC_CONFIG = fromShortUuid(0x2902);
+
+    private GattAttributes() {
+    }
+
+    /**
+     * @return The 16-bit short form of {@code uuid}, or -1 if it is not built on the
+     *         Bluetooth base UUID
+     */
+    public static int toShortUuid(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        if (uuid.getLeastSignificantBits() != BASE_UUID_LEAST_SIG_BITS
+                || (msb & 0xFFFFFFFFL) != BASE_UUID_MOST_SIG_BITS
+                || (msb >>> 32) > 0xFFFF) {
+            return -1;
+        }
+        return (int) (msb >>> 32);
+    }
+
+    /**
+     * @return The full 128-bit UUID of a 16-bit short form
+     */
+    public static UUID fromShortUuid(int shortUuid) {
+        return new UUID(((long) shortUuid << 32) | BASE_UUID_MOST_SIG_BITS, BASE_UUID_LEAST_SIG_BITS);
+    }
+
+    /**
+     * @return Name of a SIG service, or null if unknown
+     */
+    public static String serviceName(UUID uuid) {
+        return find(GattAssignedNumbers.SERVICE_UUIDS, GattAssignedNumbers.SERVICE_NAMES, uuid);
+    }
+
+    /**
+     * @return Name of a SIG characteristic, or null if unknown
+     */
+    public static String characteristicName(UUID uuid) {
+        return find(GattAssignedNumbers.CHARACTERISTIC_UUIDS, GattAssignedNumbers.CHARACTERISTIC_NAMES, uuid);
+    }
+
+    /**
+     * @return Name of a SIG descriptor, or null if unknown
+     */
+    public static String descriptorName(UUID uuid) {
+        return find(GattAssignedNumbers.DESCRIPTOR_UUIDS, GattAssignedNumbers.DESCRIPTOR_NAMES, uuid);
+    }
+
+    /**
+     * Look up a service, characteristic or descriptor name.
+     *
+     * @return The SIG name, or {@code defaultName} if unknown
+     */
+    public static String lookup(UUID uuid, String defaultName) {
+        String name = serviceName(uuid);
+        if (name == null) {
+            name = characteristicName(uuid);
+        }
+        if (name == null) {
+            name = descriptorName(uuid);
+        }
+        return name == null ? defaultName : name;
+    }
+
+    private static String find(int[] uuids, String[] names, UUID uuid) {
+        int shortUuid = toShortUuid(uuid);
+        if (shortUuid < 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(uuids, shortUuid);
+        return index >= 0 ? names[index] : null;
+    }
+}
@@ -0,0 +1,113 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.List;
+
+/**
+ * The radio as seen by {@link GattSession}: opening connections and running GATT requests on
+ * them. {@link AndroidGattBackend} goes through the Bluetooth stack, {@link SimulatedGattBackend}
+ * models peripherals without any hardware.
+ *
+ * <p>Attributes are handed around as the {@code android.bluetooth} data classes, but nothing
+ * above this interface touches {@code BluetoothGatt} or {@code BluetoothGattCallback}.
+ */
+public interface GattBackend {
+
+    /**
+     * Start connecting to a device. The outcome is reported to
+     * {@link Callback#onConnectionStateChange}.
+     *
+     * @param autoConnect Wait for the device to come in range rather than failing after a while
+     * @return The connection, or null if it could not be started
+     */
+    Connection connect(String address, boolean autoConnect, Callback callback);
+
+    /**
+     * One connection, mirroring {@code BluetoothGatt}. Requests return false if they cannot be
+     * started, e.g. because another one is in flight.
+     */
+    interface Connection {
+        String getAddress();
+
+        boolean discoverServices();
+
+        /**
+         * @return Services found by the last discovery, empty if not discovered yet
+         */
+        List<BluetoothGattService> getServices();
+
+        boolean readCharacteristic(BluetoothGattCharacteristic characteristic);
+
+        /**
+         * @param value     Taken before returning, the caller may reuse the array
+         * @param writeType One of {@code BluetoothGattCharacteristic.WRITE_TYPE_*}
+         */
+        boolean writeCharacteristic(BluetoothGattCharacteristic characteristic, byte[] value,
+                                    int writeType);
+
+        boolean writeDescriptor(BluetoothGattDescriptor descriptor, byte[] value);
+
+        /**
+         * Local switch only, the peer also needs its CCC descriptor written.
+         */
+        boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic,
+                                              boolean enable);
+
+        boolean requestMtu(int mtu);
+
+        boolean requestConnectionPriority(int priority);
+
+        /**
+         * @return false if the PHYs cannot be requested, answered by {@code onPhyUpdate} otherwise
+         */
+        boolean setPreferredPhy(int txPhyMask, int rxPhyMask);
+
+        /**
+         * Drop the attribute layout cached for the device, so the next discovery runs over the air.
+         */
+        boolean refresh();
+
+        void disconnect();
+
+        /**
+         * Release the connection. No callback follows.
+         */
+        void close();
+    }
+
+    /**
+     * Connection events, mirroring {@code BluetoothGattCallback}. Values are passed explicitly
+     * rather than read back from the attribute.
+     */
+    interface Callback {
+        /**
+         * @param newState {@code BluetoothProfile.STATE_CONNECTED} or {@code STATE_DISCONNECTED}
+         */
+        void onConnectionStateChange(Connection connection, int status, int newState);
+
+        void onServicesDiscovered(Connection connection, int status);
+
+        void onCharacteristicRead(Connection connection, BluetoothGattCharacteristic characteristic,
+                                  byte[] value, int status);
+
+        void onCharacteristicWrite(Connection connection,
+                                   BluetoothGattCharacteristic characteristic, int status);
+
+        void onCharacteristicChanged(Connection connection,
+                                     BluetoothGattCharacteristic characteristic, byte[] value);
+
+        void onDescriptorWrite(Connection connection, BluetoothGattDescriptor descriptor, int status);
+
+        void onMtuChanged(Connection connection, int mtu, int status);
+
+        void onPhyUpdate(Connection connection, int txPhy, int rxPhy, int status);
+
+        /**
+         * The peer changed its attribute layout.
+         */
+        void onServiceChanged(Connection connection);
+    }
+}
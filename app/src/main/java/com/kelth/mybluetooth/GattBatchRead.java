@@ -0,0 +1,188 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads of a set of characteristics of one device, queued together so each starts as soon
+ * as the previous one completes. Reports a single {@link Result} once every read is done.
+ * Completions must come from one thread, as they do from a {@link GattOperationQueue}.
+ */
+public class GattBatchRead {
+
+    private final String mAddress;
+    private final BluetoothGattCharacteristic[] mCharacteristics;
+    private final int[] mStatuses;
+    private final Executor mExecutor;
+    private final Listener mListener;
+    // System.nanoTime() when the batch was created
+    private final long mStartTime;
+    private int mRemaining;
+
+    /**
+     * @param executor Executor used to call {@code listener}
+     */
+    public GattBatchRead(String address, Collection<BluetoothGattCharacteristic> characteristics,
+                         Executor executor, Listener listener) {
+        mAddress = address;
+        mCharacteristics = characteristics.toArray(
+                new BluetoothGattCharacteristic[characteristics.size()]);
+        mStatuses = new int[mCharacteristics.length];
+        mExecutor = executor;
+        mListener = listener;
+        mStartTime = System.nanoTime();
+        mRemaining = mCharacteristics.length;
+    }
+
+    /**
+     * @return Every characteristic of {@code services} with {@code PROPERTY_READ}, in order
+     */
+    public static List<BluetoothGattCharacteristic> readable(List<BluetoothGattService> services) {
+        List<BluetoothGattCharacteristic> readable = new ArrayList<>();
+        for (BluetoothGattService service : services) {
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                if ((characteristic.getProperties()
+                        & BluetoothGattCharacteristic.PROPERTY_READ) != 0) {
+                    readable.add(characteristic);
+                }
+            }
+        }
+        return readable;
+    }
+
+    public int size() {
+        return mCharacteristics.length;
+    }
+
+    public BluetoothGattCharacteristic getCharacteristic(int index) {
+        return mCharacteristics[index];
+    }
+
+    /**
+     * @return Read operation of item {@code index}, reporting to this batch
+     */
+    public GattOperation createOperation(int index) {
+        return GattOperation.readCharacteristic(mCharacteristics[index])
+                .setCallback(callbackFor(index));
+    }
+
+    /**
+     * Report an empty batch, which has no completion to wait for.
+     */
+    public void start() {
+        if (mCharacteristics.length == 0) {
+            finish();
+        }
+    }
+
+    /**
+     * @param status {@code BluetoothGatt.GATT_SUCCESS}, a GATT error status or one of the
+     *               {@code GattOperation.STATUS_*} constants
+     */
+    public void onItemComplete(int index, int status) {
+        mStatuses[index] = status;
+        if (--mRemaining == 0) {
+            finish();
+        }
+    }
+
+    private GattOperation.Callback callbackFor(final int index) {
+        return new GattOperation.Callback() {
+            @Override
+            public void onOperationComplete(GattOperation operation, int status) {
+                onItemComplete(index, status);
+            }
+        };
+    }
+
+    private void finish() {
+        final Result result = new Result(mAddress, mCharacteristics, mStatuses,
+                System.nanoTime() - mStartTime);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onBatchReadComplete(result);
+            }
+        });
+    }
+
+    public interface Listener {
+        void onBatchReadComplete(Result result);
+    }
+
+    /**
+     * Outcome of every read of a batch, in the order they were requested. The values
+     * themselves are delivered like those of any read, before the result.
+     */
+    public static final class Result {
+        private final String mAddress;
+        private final BluetoothGattCharacteristic[] mCharacteristics;
+        private final int[] mStatuses;
+        private final long mElapsed;
+
+        Result(String address, BluetoothGattCharacteristic[] characteristics, int[] statuses,
+               long elapsed) {
+            mAddress = address;
+            mCharacteristics = characteristics;
+            mStatuses = statuses;
+            mElapsed = elapsed;
+        }
+
+        public String getAddress() {
+            return mAddress;
+        }
+
+        public int size() {
+            return mCharacteristics.length;
+        }
+
+        public BluetoothGattCharacteristic getCharacteristic(int index) {
+            return mCharacteristics[index];
+        }
+
+        /**
+         * @return {@code BluetoothGatt.GATT_SUCCESS}, a GATT error status or one of the
+         *         {@code GattOperation.STATUS_*} constants
+         */
+        public int getStatus(int index) {
+            return mStatuses[index];
+        }
+
+        public int getSuccessCount() {
+            int count = 0;
+            for (int status : mStatuses) {
+                if (status == 0) { // GATT_SUCCESS
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        /**
+         * @return Nanoseconds from the request of the batch to its last completion
+         */
+        public long getElapsedNanos() {
+            return mElapsed;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("GattBatchRead.Result{address=").append(mAddress)
+                    .append(", read=").append(getSuccessCount()).append('/')
+                    .append(mCharacteristics.length)
+                    .append(", elapsed=").append(mElapsed / 1000000).append("ms");
+            for (int i = 0; i < mCharacteristics.length; i++) {
+                if (mStatuses[i] != 0) {
+                    sb.append(", ").append(mCharacteristics[i].getUuid())
+                            .append('=').append(mStatuses[i]);
+                }
+            }
+            return sb.append('}').toString();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.kelth.mybluetooth;
+
+/**
+ * Decoder of one standard characteristic format. A codec is also its own result: decoding
+ * overwrites the primitive fields of the instance, so the same object is reused for every
+ * value and nothing is allocated. Not thread safe, use one instance per decoding thread.
+ */
+public abstract class GattCodec {
+
+    private final int mShortUuid;
+
+    protected GattCodec(int shortUuid) {
+        mShortUuid = shortUuid;
+    }
+
+    /**
+     * @return 16-bit UUID of the characteristic this codec decodes
+     */
+    public int getShortUuid() {
+        return mShortUuid;
+    }
+
+    /**
+     * Decode {@code length} bytes of {@code data} into this object.
+     *
+     * @return false if the value is malformed, in which case the fields are undefined
+     */
+    public abstract boolean decode(byte[] data, int length);
+
+    static int uint8(byte[] data, int offset) {
+        return data[offset] & 0xFF;
+    }
+
+    static int uint16(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8;
+    }
+
+    /**
+     * Decode a 32-bit IEEE 11073-20601 FLOAT: 24-bit signed mantissa, 8-bit signed base 10
+     * exponent.
+     */
+    static float float32(byte[] data, int offset) {
+        int raw = (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8
+                | (data[offset + 2] & 0xFF) << 16 | data[offset + 3] << 24;
+        int mantissa = raw & 0x00FFFFFF;
+        switch (mantissa) {
+            case 0x007FFFFE:
+                return Float.POSITIVE_INFINITY;
+            case 0x00800002:
+                return Float.NEGATIVE_INFINITY;
+            case 0x007FFFFF:  // NaN
+            case 0x00800000:  // NRes
+            case 0x00800001:  // Reserved
+                return Float.NaN;
+            default:
+                break;
+        }
+        // Sign extend the 24-bit mantissa
+        mantissa = (mantissa << 8) >> 8;
+        int exponent = raw >> 24;
+        return (float) (mantissa * Math.pow(10, exponent));
+    }
+}
@@ -0,0 +1,83 @@
+package com.kelth.mybluetooth;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Finds the {@link GattCodec} of a characteristic by its 16-bit UUID. Characteristics
+ * without a codec are left to the caller as raw bytes.
+ *
+ * The registry owns the codec instances, which are reused for every decode, so a registry
+ * must only be used from one thread.
+ */
+public class GattCodecRegistry {
+
+    private int[] mShortUuids = new int[0];
+    private GattCodec[] mCodecs = new GattCodec[0];
+
+    /**
+     * @return A registry with codecs for all supported standard characteristics
+     */
+    public static GattCodecRegistry createDefault() {
+        GattCodecRegistry registry = new GattCodecRegistry();
+        registry.register(new HeartRateMeasurement());
+        registry.register(new BodySensorLocation());
+        registry.register(new BatteryLevel());
+        registry.register(TemperatureMeasurement.measurement());
+        registry.register(TemperatureMeasurement.intermediate());
+        return registry;
+    }
+
+    /**
+     * Add a codec, replacing any codec registered for the same UUID.
+     */
+    public void register(GattCodec codec) {
+        int index = Arrays.binarySearch(mShortUuids, codec.getShortUuid());
+        if (index >= 0) {
+            mCodecs[index] = codec;
+            return;
+        }
+        // Keep both arrays sorted by UUID
+        index = -index - 1;
+        int[] shortUuids = new int[mShortUuids.length + 1];
+        GattCodec[] codecs = new GattCodec[mCodecs.length + 1];
+        System.arraycopy(mShortUuids, 0, shortUuids, 0, index);
+        System.arraycopy(mCodecs, 0, codecs, 0, index);
+        shortUuids[index] = codec.getShortUuid();
+        codecs[index] = codec;
+        System.arraycopy(mShortUuids, index, shortUuids, index + 1, mShortUuids.length - index);
+        System.arraycopy(mCodecs, index, codecs, index + 1, mCodecs.length - index);
+        mShortUuids = shortUuids;
+        mCodecs = codecs;
+    }
+
+    /**
+     * @return The codec for a characteristic, or null if there is none
+     */
+    public GattCodec find(UUID characteristicUuid) {
+        int shortUuid = GattAttributes.toShortUuid(characteristicUuid);
+        if (shortUuid < 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(mShortUuids, shortUuid);
+        return index >= 0 ? mCodecs[index] : null;
+    }
+
+    /**
+     * Decode a value with the codec of its characteristic.
+     *
+     * @return The codec holding the decoded fields, or null if the characteristic has no
+     *         codec or the value is malformed. The codec is overwritten by the next decode.
+     */
+    public GattCodec decode(UUID characteristicUuid, byte[] data, int length) {
+        GattCodec codec = find(characteristicUuid);
+        if (codec == null || !codec.decode(data, length)) {
+            return null;
+        }
+        return codec;
+    }
+
+    public GattCodec decode(GattValue value) {
+        return decode(value.getUuid(), value.getData(), value.getLength());
+    }
+}
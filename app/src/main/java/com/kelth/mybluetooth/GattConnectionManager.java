@@ -0,0 +1,155 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps one {@link GattSession} per remote device address, up to a configurable number of
+ * concurrent connections.
+ */
+public class GattConnectionManager {
+
+    private static final String TAG = GattConnectionManager.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 7;
+
+    private final ConcurrentHashMap<String, GattSession> mSessions = new ConcurrentHashMap<>();
+    private final GattBackend mBackend;
+    private final GattScheduler mScheduler;
+    private final GattSession.Callback mCallback;
+    private final GattValueCache.Policy mCachePolicy = new GattValueCache.Policy();
+    private final GattMetrics mMetrics = new GattMetrics();
+    private volatile int mMaxConnections = DEFAULT_MAX_CONNECTIONS;
+    private volatile ReconnectPolicy mReconnectPolicy = ReconnectPolicy.DEFAULT;
+
+    /**
+     * @param backend   Opens the connections
+     * @param scheduler Scheduler used for timeouts and reconnection backoff
+     * @param callback  Receives events of every session
+     */
+    public GattConnectionManager(GattBackend backend, GattScheduler scheduler,
+                                 GattSession.Callback callback) {
+        mBackend = backend;
+        mScheduler = scheduler;
+        mCallback = callback;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        mMaxConnections = maxConnections;
+    }
+
+    public int getMaxConnections() {
+        return mMaxConnections;
+    }
+
+    /**
+     * @param policy How sessions connected from now on recover a lost link
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        mReconnectPolicy = policy;
+    }
+
+    public ReconnectPolicy getReconnectPolicy() {
+        return mReconnectPolicy;
+    }
+
+    /**
+     * @return Caching policy shared by the value caches of all sessions
+     */
+    public GattValueCache.Policy getCachePolicy() {
+        return mCachePolicy;
+    }
+
+    /**
+     * @return Latencies and failures of every device connected so far
+     */
+    public GattMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Connect to a device, reusing its session if one is already open. A session waiting to
+     * reconnect attempts it right away.
+     *
+     * @param profile  Link parameters to negotiate once connected
+     * @param listener Optional, informed of the negotiated link parameters
+     * @return The session, or null if the connection limit is reached
+     */
+    public GattSession connect(BluetoothDevice device, ConnectionProfile profile,
+                               LinkParameters.Listener listener) {
+        GattSession session = mSessions.get(device.getAddress());
+        if (session != null) {
+            session.reconnectNow();
+            return session;
+        }
+
+        // Only creating sessions is serialized. Lookups and callbacks never take this lock.
+        synchronized (this) {
+            session = mSessions.get(device.getAddress());
+            if (session != null) {
+                session.reconnectNow();
+                return session;
+            }
+            if (mSessions.size() >= mMaxConnections) {
+                Log.w(TAG, "Connection limit " + mMaxConnections + " reached, not connecting "
+                        + device.getAddress());
+                return null;
+            }
+            session = new GattSession(device, mBackend, mScheduler, mCachePolicy,
+                    mMetrics.forDevice(device.getAddress()), mCallback);
+            mSessions.put(device.getAddress(), session);
+        }
+        session.connect(profile, mReconnectPolicy, listener);
+        return session;
+    }
+
+    public GattSession get(String address) {
+        return mSessions.get(address);
+    }
+
+    public Collection<GattSession> getSessions() {
+        return new ArrayList<>(mSessions.values());
+    }
+
+    public void disconnect(String address) {
+        GattSession session = mSessions.get(address);
+        if (session != null) {
+            session.disconnect();
+        }
+    }
+
+    public void disconnectAll() {
+        for (GattSession session : mSessions.values()) {
+            session.disconnect();
+        }
+    }
+
+    /**
+     * Close a session and free its connection slot.
+     */
+    public void close(String address) {
+        GattSession session = mSessions.remove(address);
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    /**
+     * Close a session if it is still the one registered for its address.
+     */
+    public void close(GattSession session) {
+        if (mSessions.remove(session.getAddress(), session)) {
+            session.close();
+        }
+    }
+
+    public void closeAll() {
+        for (String address : mSessions.keySet()) {
+            close(address);
+        }
+    }
+}
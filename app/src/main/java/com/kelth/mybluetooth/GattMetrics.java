@@ -0,0 +1,339 @@
+package com.kelth.mybluetooth;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms and failure counters of every device connected so far. Each device
+ * gets a fixed set of {@link LatencyHistogram}s and counters on first connection; recording
+ * into them is lock free and does not allocate.
+ */
+public class GattMetrics {
+
+    // Latencies measured per device
+    public static final int CONNECT = 0;
+    public static final int DISCOVER = 1;
+    public static final int READ = 2;
+    public static final int WRITE = 3;
+    public static final int WRITE_DESCRIPTOR = 4;
+    public static final int REQUEST_MTU = 5;
+    public static final int SET_PREFERRED_PHY = 6;
+    // Time between two notifications of the same characteristic
+    public static final int NOTIFICATION_INTERVAL = 7;
+    public static final int LATENCY_COUNT = 8;
+
+    private static final String[] LATENCY_NAMES = {
+            "connect", "discover", "read", "write", "write_descriptor", "request_mtu",
+            "set_preferred_phy", "notification_interval"
+    };
+
+    // GATT statuses are 8 bits, except GATT_FAILURE (0x101)
+    private static final int STATUS_COUNT = 0x102;
+
+    private final ConcurrentHashMap<String, Device> mDevices = new ConcurrentHashMap<>();
+
+    /**
+     * @return The metrics of a device, created on first use
+     */
+    public Device forDevice(String address) {
+        Device device = mDevices.get(address);
+        if (device == null) {
+            device = new Device();
+            Device existing = mDevices.putIfAbsent(address, device);
+            if (existing != null) {
+                device = existing;
+            }
+        }
+        return device;
+    }
+
+    /**
+     * @return Copy of the metrics of every device by address
+     */
+    public Map<String, Snapshot> snapshot() {
+        HashMap<String, Snapshot> snapshots = new HashMap<>();
+        for (Map.Entry<String, Device> entry : mDevices.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    /**
+     * Zero every histogram and counter, e.g. after exporting a snapshot.
+     */
+    public void reset() {
+        for (Device device : mDevices.values()) {
+            device.reset();
+        }
+    }
+
+    /**
+     * @return Name of a latency for reports, e.g. "read" for {@link #READ}
+     */
+    public static String latencyName(int latency) {
+        return LATENCY_NAMES[latency];
+    }
+
+    /**
+     * @return The latency measured for operations of a {@code GattOperation.TYPE_*}, or -1
+     */
+    static int latencyOf(int operationType) {
+        switch (operationType) {
+            case GattOperation.TYPE_READ_CHARACTERISTIC:
+                return READ;
+            case GattOperation.TYPE_WRITE_CHARACTERISTIC:
+                return WRITE;
+            case GattOperation.TYPE_WRITE_DESCRIPTOR:
+                return WRITE_DESCRIPTOR;
+            case GattOperation.TYPE_REQUEST_MTU:
+                return REQUEST_MTU;
+            case GattOperation.TYPE_DISCOVER_SERVICES:
+                return DISCOVER;
+            case GattOperation.TYPE_SET_PREFERRED_PHY:
+                return SET_PREFERRED_PHY;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Metrics of one device.
+     */
+    public static final class Device {
+        // Characteristics whose notification intervals are tracked
+        private static final int MAX_NOTIFYING = 16;
+
+        private final LatencyHistogram[] mLatencies = new LatencyHistogram[LATENCY_COUNT];
+        private final AtomicLong mDropped = new AtomicLong();
+        private final AtomicLong mTimeouts = new AtomicLong();
+        private final AtomicLong mStartFailures = new AtomicLong();
+        private final AtomicLong mConnectFailures = new AtomicLong();
+        private final AtomicLong mLinkLosses = new AtomicLong();
+        private final AtomicLongArray mErrorStatuses = new AtomicLongArray(STATUS_COUNT);
+        // Last notification time by characteristic instance ID. Notifications of a device
+        // arrive on one thread at a time.
+        private final int[] mNotifyingKeys = new int[MAX_NOTIFYING];
+        private final long[] mLastNotificationTimes = new long[MAX_NOTIFYING];
+        private int mNotifyingCount;
+
+        Device() {
+            for (int i = 0; i < LATENCY_COUNT; i++) {
+                mLatencies[i] = new LatencyHistogram();
+            }
+        }
+
+        /**
+         * @param latency One of the latency constants of {@link GattMetrics}
+         */
+        public void recordLatency(int latency, long nanos) {
+            mLatencies[latency].recordNanos(nanos);
+        }
+
+        /**
+         * Account for a queued operation that completed with {@code status} after
+         * {@code nanos} in flight.
+         */
+        void onOperationComplete(int operationType, int status, long nanos) {
+            switch (status) {
+                case GattOperation.STATUS_TIMEOUT:
+                    mTimeouts.incrementAndGet();
+                    break;
+                case GattOperation.STATUS_CANCELLED:
+                    mDropped.incrementAndGet();
+                    break;
+                case GattOperation.STATUS_START_FAILED:
+                    mStartFailures.incrementAndGet();
+                    break;
+                case 0:  // GATT_SUCCESS
+                    int latency = latencyOf(operationType);
+                    if (latency >= 0) {
+                        recordLatency(latency, nanos);
+                    }
+                    break;
+                default:
+                    onErrorStatus(status);
+                    break;
+            }
+        }
+
+        void onConnected(long nanos) {
+            recordLatency(CONNECT, nanos);
+        }
+
+        /**
+         * @param status GATT status, or {@code GattOperation.STATUS_TIMEOUT} if the stack did
+         *               not answer in time
+         */
+        void onConnectFailed(int status) {
+            mConnectFailures.incrementAndGet();
+            onFailureStatus(status);
+        }
+
+        void onLinkLost(int status) {
+            mLinkLosses.incrementAndGet();
+            onFailureStatus(status);
+        }
+
+        /**
+         * @param key       Identifies the characteristic, e.g. its instance ID
+         * @param nanoTime  {@code System.nanoTime()} of the notification
+         */
+        void onNotification(int key, long nanoTime) {
+            for (int i = 0; i < mNotifyingCount; i++) {
+                if (mNotifyingKeys[i] == key) {
+                    recordLatency(NOTIFICATION_INTERVAL, nanoTime - mLastNotificationTimes[i]);
+                    mLastNotificationTimes[i] = nanoTime;
+                    return;
+                }
+            }
+            if (mNotifyingCount < MAX_NOTIFYING) {
+                mNotifyingKeys[mNotifyingCount] = key;
+                mLastNotificationTimes[mNotifyingCount] = nanoTime;
+                mNotifyingCount++;
+            }
+        }
+
+        /**
+         * Forget the last notification times, so the gap of a reconnection is not counted.
+         */
+        void onDisconnected() {
+            mNotifyingCount = 0;
+        }
+
+        private void onFailureStatus(int status) {
+            if (status == GattOperation.STATUS_TIMEOUT) {
+                mTimeouts.incrementAndGet();
+            } else {
+                onErrorStatus(status);
+            }
+        }
+
+        private void onErrorStatus(int status) {
+            if (status == 0) {
+                return; // GATT_SUCCESS, e.g. a link closed by the peer
+            }
+            // Unknown statuses share slot 0
+            mErrorStatuses.incrementAndGet(status > 0 && status < STATUS_COUNT ? status : 0);
+        }
+
+        Snapshot snapshot() {
+            LatencyHistogram.Snapshot[] latencies = new LatencyHistogram.Snapshot[LATENCY_COUNT];
+            for (int i = 0; i < LATENCY_COUNT; i++) {
+                latencies[i] = mLatencies[i].snapshot();
+            }
+            HashMap<Integer, Long> errors = new HashMap<>();
+            for (int i = 0; i < STATUS_COUNT; i++) {
+                long count = mErrorStatuses.get(i);
+                if (count > 0) {
+                    errors.put(i == 0 ? -1 : i, count);
+                }
+            }
+            return new Snapshot(latencies, mDropped.get(), mTimeouts.get(), mStartFailures.get(),
+                    mConnectFailures.get(), mLinkLosses.get(), errors);
+        }
+
+        void reset() {
+            for (LatencyHistogram histogram : mLatencies) {
+                histogram.reset();
+            }
+            mDropped.set(0);
+            mTimeouts.set(0);
+            mStartFailures.set(0);
+            mConnectFailures.set(0);
+            mLinkLosses.set(0);
+            for (int i = 0; i < STATUS_COUNT; i++) {
+                mErrorStatuses.set(i, 0);
+            }
+        }
+    }
+
+    /**
+     * Immutable copy of the metrics of one device.
+     */
+    public static final class Snapshot {
+        private final LatencyHistogram.Snapshot[] mLatencies;
+        private final long mDropped;
+        private final long mTimeouts;
+        private final long mStartFailures;
+        private final long mConnectFailures;
+        private final long mLinkLosses;
+        private final Map<Integer, Long> mErrorStatuses;
+
+        Snapshot(LatencyHistogram.Snapshot[] latencies, long dropped, long timeouts,
+                 long startFailures, long connectFailures, long linkLosses,
+                 Map<Integer, Long> errorStatuses) {
+            mLatencies = latencies;
+            mDropped = dropped;
+            mTimeouts = timeouts;
+            mStartFailures = startFailures;
+            mConnectFailures = connectFailures;
+            mLinkLosses = linkLosses;
+            mErrorStatuses = Collections.unmodifiableMap(errorStatuses);
+        }
+
+        /**
+         * @param latency One of the latency constants of {@link GattMetrics}
+         */
+        public LatencyHistogram.Snapshot getLatency(int latency) {
+            return mLatencies[latency];
+        }
+
+        /**
+         * @return Operations cancelled before completing, e.g. by a lost link
+         */
+        public long getDropped() {
+            return mDropped;
+        }
+
+        /**
+         * @return Operations and connection attempts the stack did not answer in time
+         */
+        public long getTimeouts() {
+            return mTimeouts;
+        }
+
+        /**
+         * @return Operations the stack refused to start
+         */
+        public long getStartFailures() {
+            return mStartFailures;
+        }
+
+        public long getConnectFailures() {
+            return mConnectFailures;
+        }
+
+        public long getLinkLosses() {
+            return mLinkLosses;
+        }
+
+        /**
+         * @return Occurrences of each GATT error status of operations, failed connections and
+         *         lost links. Statuses out of the GATT range are counted under -1.
+         */
+        public Map<Integer, Long> getErrorStatuses() {
+            return mErrorStatuses;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < LATENCY_COUNT; i++) {
+                if (mLatencies[i].getCount() > 0) {
+                    sb.append(LATENCY_NAMES[i]).append(": ").append(mLatencies[i]).append('\n');
+                }
+            }
+            return sb.append("dropped=").append(mDropped)
+                    .append(" timeouts=").append(mTimeouts)
+                    .append(" startFailures=").append(mStartFailures)
+                    .append(" connectFailures=").append(mConnectFailures)
+                    .append(" linkLosses=").append(mLinkLosses)
+                    .append(" errors=").append(mErrorStatuses)
+                    .toString();
+        }
+    }
+}
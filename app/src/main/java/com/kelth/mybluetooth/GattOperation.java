@@ -0,0 +1,174 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+
+/**
+ * A single request to the remote GATT server. Android only allows one of these to be
+ * outstanding per connection, so operations are executed one after the other by
+ * {@link GattOperationQueue}.
+ */
+public abstract class GattOperation {
+
+    public static final int TYPE_READ_CHARACTERISTIC = 1;
+    public static final int TYPE_WRITE_CHARACTERISTIC = 2;
+    public static final int TYPE_WRITE_DESCRIPTOR = 3;
+    public static final int TYPE_REQUEST_MTU = 4;
+    public static final int TYPE_DISCOVER_SERVICES = 5;
+    public static final int TYPE_SET_PREFERRED_PHY = 6;
+
+    // Completion status for operations that never got an answer from the stack.
+    // GATT status codes are all >= 0, so these cannot collide with them.
+    public static final int STATUS_TIMEOUT = -1;
+    public static final int STATUS_START_FAILED = -2;
+    public static final int STATUS_CANCELLED = -3;
+
+    public static final long DEFAULT_TIMEOUT = 5000;  // In milliseconds
+    public static final long DISCOVERY_TIMEOUT = 15000;  // In milliseconds
+
+    private final int mType;
+    private final Object mTarget;
+    private long mTimeout = DEFAULT_TIMEOUT;
+    private Callback mCallback;
+
+    GattOperation(int type, Object target) {
+        mType = type;
+        mTarget = target;
+    }
+
+    public int getType() {
+        return mType;
+    }
+
+    /**
+     * @return The characteristic or descriptor this operation acts on, or null
+     */
+    public Object getTarget() {
+        return mTarget;
+    }
+
+    public long getTimeout() {
+        return mTimeout;
+    }
+
+    /**
+     * @param timeout Time in milliseconds to wait for the matching callback. 0 waits forever.
+     */
+    public GattOperation setTimeout(long timeout) {
+        mTimeout = timeout;
+        return this;
+    }
+
+    public Callback getCallback() {
+        return mCallback;
+    }
+
+    public GattOperation setCallback(Callback callback) {
+        mCallback = callback;
+        return this;
+    }
+
+    /**
+     * Hands the request to the stack.
+     *
+     * @return false if the stack refused to start the request
+     */
+    abstract boolean execute(GattBackend.Connection connection);
+
+    /**
+     * @return true if a callback of the given type and target answers this operation
+     */
+    boolean matches(int type, Object target) {
+        return mType == type && (mTarget == null || target == null || mTarget == target);
+    }
+
+    @Override
+    public String toString() {
+        return "GattOperation{type=" + mType + ", target=" + mTarget + "}";
+    }
+
+    public static GattOperation readCharacteristic(final BluetoothGattCharacteristic characteristic) {
+        return new GattOperation(TYPE_READ_CHARACTERISTIC, characteristic) {
+            @Override
+            boolean execute(GattBackend.Connection connection) {
+                return connection.readCharacteristic(characteristic);
+            }
+        };
+    }
+
+    /**
+     * @param writeType One of {@code BluetoothGattCharacteristic.WRITE_TYPE_*}
+     */
+    public static GattOperation writeCharacteristic(final BluetoothGattCharacteristic characteristic,
+                                                    final byte[] value, final int writeType) {
+        return new GattOperation(TYPE_WRITE_CHARACTERISTIC, characteristic) {
+            @Override
+            boolean execute(GattBackend.Connection connection) {
+                return connection.writeCharacteristic(characteristic, value, writeType);
+            }
+        };
+    }
+
+    public static GattOperation writeDescriptor(final BluetoothGattDescriptor descriptor,
+                                                final byte[] value) {
+        return new GattOperation(TYPE_WRITE_DESCRIPTOR, descriptor) {
+            @Override
+            boolean execute(GattBackend.Connection connection) {
+                return connection.writeDescriptor(descriptor, value);
+            }
+        };
+    }
+
+    public static GattOperation requestMtu(final int mtu) {
+        return new GattOperation(TYPE_REQUEST_MTU, null) {
+            @Override
+            boolean execute(GattBackend.Connection connection) {
+                return connection.requestMtu(mtu);
+            }
+        };
+    }
+
+    /**
+     * Completes with {@code onPhyUpdate}. Fails to start before Android 8.0.
+     *
+     * @param txPhy {@code BluetoothDevice.PHY_LE_*_MASK} bits preferred for sending
+     * @param rxPhy {@code BluetoothDevice.PHY_LE_*_MASK} bits preferred for receiving
+     */
+    public static GattOperation setPreferredPhy(final int txPhy, final int rxPhy) {
+        return new GattOperation(TYPE_SET_PREFERRED_PHY, null) {
+            @Override
+            boolean execute(GattBackend.Connection connection) {
+                return connection.setPreferredPhy(txPhy, rxPhy);
+            }
+        };
+    }
+
+    public static GattOperation discoverServices() {
+        return discoverServices(false);
+    }
+
+    /**
+     * @param refreshCache Drop the attribute layout the stack cached for the device first, so
+     *                     discovery runs over the air
+     */
+    public static GattOperation discoverServices(final boolean refreshCache) {
+        return new GattOperation(TYPE_DISCOVER_SERVICES, null) {
+            @Override
+            boolean execute(GattBackend.Connection connection) {
+                if (refreshCache) {
+                    // Discover anyway, an up to date stack cache is still good
+                    connection.refresh();
+                }
+                return connection.discoverServices();
+            }
+        }.setTimeout(DISCOVERY_TIMEOUT);
+    }
+
+    public interface Callback {
+        /**
+         * @param status {@code BluetoothGatt.GATT_SUCCESS}, a GATT error status or one of
+         *               the {@code STATUS_*} constants of this class
+         */
+        void onOperationComplete(GattOperation operation, int status);
+    }
+}
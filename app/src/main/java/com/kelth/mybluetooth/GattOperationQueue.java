@@ -0,0 +1,194 @@
+package com.kelth.mybluetooth;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+
+/**
+ * Serializes {@link GattOperation}s on one connection. The next operation is started from
+ * the callback that completes the previous one, so there is no idle time between requests.
+ */
+public class GattOperationQueue {
+
+    private static final String TAG = GattOperationQueue.class.getSimpleName();
+
+    private final ArrayDeque<GattOperation> mPending = new ArrayDeque<>();
+    private final GattScheduler mScheduler;
+    private GattBackend.Connection mConnection;
+    private GattOperation mCurrent;
+    // System.nanoTime() when mCurrent was started
+    private long mStartTime;
+    private volatile GattMetrics.Device mMetrics;
+    // Device ID in GattTrace
+    private int mTraceId;
+
+    private final Runnable mTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            GattOperation timedOut;
+            long elapsed;
+            synchronized (GattOperationQueue.this) {
+                timedOut = mCurrent;
+                mCurrent = null;
+                elapsed = System.nanoTime() - mStartTime;
+            }
+            if (timedOut != null) {
+                Log.w(TAG, "Timed out: " + timedOut);
+                if (GattTrace.ENABLED) {
+                    GattTrace.record(GattTrace.EVENT_END, mTraceId, GattOperation.STATUS_TIMEOUT);
+                }
+                notifyComplete(timedOut, GattOperation.STATUS_TIMEOUT, elapsed);
+                next();
+            }
+        }
+    };
+
+    /**
+     * @param scheduler Scheduler used to run operation timeouts
+     */
+    public GattOperationQueue(GattScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    /**
+     * Attach the queue to a connection. Pending operations start once a connection is set.
+     */
+    public void setConnection(GattBackend.Connection connection) {
+        synchronized (this) {
+            mConnection = connection;
+        }
+        next();
+    }
+
+    /**
+     * @param metrics Where to account for the latency and outcome of every operation, or null
+     */
+    public void setMetrics(GattMetrics.Device metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * @param traceId Device ID to record operations in {@link GattTrace} with
+     */
+    public void setTraceId(int traceId) {
+        mTraceId = traceId;
+    }
+
+    public void enqueue(GattOperation operation) {
+        synchronized (this) {
+            mPending.addLast(operation);
+        }
+        next();
+    }
+
+    /**
+     * Called from {@code GattBackend.Callback} when the stack answers a request.
+     *
+     * @param type   One of {@code GattOperation.TYPE_*}
+     * @param target The characteristic or descriptor given by the callback, if any
+     * @param status GATT status of the callback
+     */
+    public void onOperationComplete(int type, Object target, int status) {
+        GattOperation completed;
+        long elapsed;
+        synchronized (this) {
+            if (mCurrent == null || !mCurrent.matches(type, target)) {
+                // Not a reply to our request (e.g. answer that arrived after a timeout)
+                return;
+            }
+            completed = mCurrent;
+            mCurrent = null;
+            elapsed = System.nanoTime() - mStartTime;
+        }
+        mScheduler.removeCallbacks(mTimeoutRunnable);
+        if (GattTrace.ENABLED) {
+            GattTrace.record(GattTrace.EVENT_END, mTraceId, status);
+        }
+        notifyComplete(completed, status, elapsed);
+        next();
+    }
+
+    /**
+     * Drops the operation in flight and everything pending, e.g. when the link goes down.
+     * Each dropped operation completes with {@code status}.
+     */
+    public void clear(int status) {
+        ArrayDeque<GattOperation> dropped;
+        synchronized (this) {
+            dropped = new ArrayDeque<>(mPending);
+            if (mCurrent != null) {
+                dropped.addFirst(mCurrent);
+                mCurrent = null;
+                if (GattTrace.ENABLED) {
+                    GattTrace.record(GattTrace.EVENT_END, mTraceId, status);
+                }
+            }
+            mPending.clear();
+        }
+        mScheduler.removeCallbacks(mTimeoutRunnable);
+        for (GattOperation operation : dropped) {
+            notifyComplete(operation, status, 0);
+        }
+    }
+
+    public synchronized boolean isIdle() {
+        return mCurrent == null && mPending.isEmpty();
+    }
+
+    /**
+     * Start pending operations until one is accepted by the stack.
+     */
+    private void next() {
+        while (true) {
+            GattOperation operation;
+            GattBackend.Connection connection;
+            synchronized (this) {
+                if (mCurrent != null || mConnection == null || mPending.isEmpty()) {
+                    return;
+                }
+                operation = mPending.pollFirst();
+                mCurrent = operation;
+                mStartTime = System.nanoTime();
+                connection = mConnection;
+            }
+
+            if (GattTrace.ENABLED) {
+                GattTrace.record(GattTrace.EVENT_OPERATION + operation.getType(), mTraceId,
+                        GattTrace.handleOf(operation.getTarget()));
+            }
+            if (operation.getTimeout() > 0) {
+                mScheduler.postDelayed(mTimeoutRunnable, operation.getTimeout());
+            }
+            if (operation.execute(connection)) {
+                return;
+            }
+
+            // Stack refused the request. Fail it and move on to the next one.
+            Log.w(TAG, "Failed to start: " + operation);
+            if (GattTrace.ENABLED) {
+                GattTrace.record(GattTrace.EVENT_END, mTraceId, GattOperation.STATUS_START_FAILED);
+            }
+            synchronized (this) {
+                if (mCurrent == operation) {
+                    mCurrent = null;
+                }
+            }
+            mScheduler.removeCallbacks(mTimeoutRunnable);
+            notifyComplete(operation, GattOperation.STATUS_START_FAILED, 0);
+        }
+    }
+
+    /**
+     * @param elapsed Nanoseconds the operation was in flight
+     */
+    private void notifyComplete(GattOperation operation, int status, long elapsed) {
+        GattMetrics.Device metrics = mMetrics;
+        if (metrics != null) {
+            metrics.onOperationComplete(operation.getType(), status, elapsed);
+        }
+        GattOperation.Callback callback = operation.getCallback();
+        if (callback != null) {
+            callback.onOperationComplete(operation, status);
+        }
+    }
+}
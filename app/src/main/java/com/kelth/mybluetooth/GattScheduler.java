@@ -0,0 +1,22 @@
+package com.kelth.mybluetooth;
+
+/**
+ * Runs delayed work such as operation timeouts and reconnection backoff. Shaped after
+ * {@code android.os.Handler}, so the layers using it also run on a plain JVM.
+ */
+public interface GattScheduler {
+
+    void post(Runnable runnable);
+
+    void postDelayed(Runnable runnable, long delayMillis);
+
+    /**
+     * Cancel every pending run of {@code runnable}.
+     */
+    void removeCallbacks(Runnable runnable);
+
+    /**
+     * @return Monotonic time in milliseconds the delays are measured against
+     */
+    long uptimeMillis();
+}
@@ -0,0 +1,604 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * One GATT connection. Each session owns its {@link GattBackend.Connection}, connection state
+ * and operation queue, and gets its own {@link GattBackend.Callback}, so stack events reach the
+ * right session without any lookup or shared lock.
+ *
+ * <p>A link the session did not close itself is recovered as its {@link ReconnectPolicy}
+ * says, going through {@code STATE_BACKOFF} between attempts. The session keeps its
+ * connection slot meanwhile.
+ */
+public class GattSession {
+
+    private static final String TAG = GattSession.class.getSimpleName();
+
+    public static final int STATE_DISCONNECTED = 0;
+    public static final int STATE_CONNECTING = 1;
+    // Link is up, link parameters are being negotiated
+    public static final int STATE_CONNECTED = 2;
+    public static final int STATE_DISCOVERING = 3;
+    // Services discovered
+    public static final int STATE_READY = 4;
+    public static final int STATE_DISCONNECTING = 5;
+    // Link lost, waiting for the next reconnection attempt
+    public static final int STATE_BACKOFF = 6;
+
+    private static final long CONNECT_TIMEOUT = 10000;  // In milliseconds
+    private static final long DISCONNECT_TIMEOUT = 2000;  // In milliseconds
+    // Attempts at discovering services before giving up on the connection
+    private static final int MAX_DISCOVERY_ATTEMPTS = 2;
+
+    private final BluetoothDevice mDevice;
+    private final String mAddress;
+    private final Callback mCallback;
+    private final GattBackend mBackend;
+    private final GattScheduler mScheduler;
+    private final GattOperationQueue mOperationQueue;
+    // Device ID in GattTrace
+    private final int mTraceId;
+    private final GattValueCache mValueCache;
+    private final GattMetrics.Device mMetrics;
+    private volatile GattBackend.Connection mConnection;
+    private volatile int mConnectionState = STATE_DISCONNECTED;
+    private ConnectionProfile mProfile = ConnectionProfile.DEFAULT;
+    private ReconnectPolicy mReconnectPolicy = ReconnectPolicy.NONE;
+    private final Random mRandom = new Random();
+    // Guarded by this
+    private int mReconnectAttempt;
+    // Whether the attempt waiting in STATE_BACKOFF uses autoConnect. Guarded by this.
+    private boolean mReconnectAutoConnect;
+    // onConnectionLost was called and no onConnected since
+    private boolean mLossReported;
+    // System.nanoTime() when the current connection attempt started
+    private long mConnectStartTime;
+    private LinkParameters.Listener mLinkParametersListener;
+    private volatile int mMtu = ConnectionProfile.DEFAULT_MTU;
+    private volatile int mConnectionPriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+    private volatile int mTxPhy = BluetoothDevice.PHY_LE_1M;
+    private volatile int mRxPhy = BluetoothDevice.PHY_LE_1M;
+
+    GattSession(BluetoothDevice device, GattBackend backend, GattScheduler scheduler,
+                GattValueCache.Policy cachePolicy, GattMetrics.Device metrics,
+                Callback callback) {
+        mDevice = device;
+        mAddress = device.getAddress();
+        mCallback = callback;
+        mBackend = backend;
+        mScheduler = scheduler;
+        mOperationQueue = new GattOperationQueue(scheduler);
+        mOperationQueue.setMetrics(metrics);
+        mTraceId = GattTrace.registerDevice(mAddress);
+        mOperationQueue.setTraceId(mTraceId);
+        mValueCache = new GattValueCache(cachePolicy, scheduler);
+        mMetrics = metrics;
+    }
+
+    public BluetoothDevice getDevice() {
+        return mDevice;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    public int getConnectionState() {
+        return mConnectionState;
+    }
+
+    /**
+     * @return true from {@code Callback.onConnected} until the link goes down
+     */
+    public synchronized boolean isLinkUp() {
+        return mConnectionState == STATE_CONNECTED || mConnectionState == STATE_DISCOVERING
+                || mConnectionState == STATE_READY;
+    }
+
+    /**
+     * @return The connection, null while waiting to reconnect
+     */
+    public GattBackend.Connection getConnection() {
+        return mConnection;
+    }
+
+    public GattValueCache getValueCache() {
+        return mValueCache;
+    }
+
+    /**
+     * @return Link parameters currently in effect
+     */
+    public LinkParameters getLinkParameters() {
+        return new LinkParameters(mMtu, mConnectionPriority, mTxPhy, mRxPhy);
+    }
+
+    /**
+     * @return Current ATT MTU
+     */
+    public int getMtu() {
+        return mMtu;
+    }
+
+    LinkParameters.Listener getLinkParametersListener() {
+        return mLinkParametersListener;
+    }
+
+    /**
+     * @param profile  Link parameters to negotiate once connected
+     * @param policy   How to recover a lost link
+     * @param listener Optional, informed of the outcome of the negotiation
+     */
+    void connect(ConnectionProfile profile, ReconnectPolicy policy,
+                 LinkParameters.Listener listener) {
+        mProfile = profile;
+        mReconnectPolicy = policy;
+        mLinkParametersListener = listener;
+        synchronized (this) {
+            mReconnectAttempt = 0;
+            openConnection(false);
+        }
+    }
+
+    /**
+     * Skip the rest of the backoff and attempt to reconnect now, e.g. when the user asks to
+     * connect again.
+     */
+    synchronized void reconnectNow() {
+        if (mConnectionState == STATE_BACKOFF) {
+            mScheduler.removeCallbacks(mReconnectRunnable);
+            openConnection(false);
+        }
+    }
+
+    void disconnect() {
+        boolean lossReported;
+        synchronized (this) {
+            mScheduler.removeCallbacks(mReconnectRunnable);
+            switch (mConnectionState) {
+                case STATE_DISCONNECTING:
+                    return;
+                case STATE_CONNECTED:
+                case STATE_DISCOVERING:
+                case STATE_READY:
+                    mConnectionState = STATE_DISCONNECTING;
+                    mConnection.disconnect();
+                    // Some stacks never confirm, don't wait for them forever
+                    mScheduler.removeCallbacks(mTimeoutRunnable);
+                    mScheduler.postDelayed(mTimeoutRunnable, DISCONNECT_TIMEOUT);
+                    return;
+                default:
+                    // Not connected: a pending connection is cancelled when closing
+                    mScheduler.removeCallbacks(mTimeoutRunnable);
+                    traceConnectCancelled();
+                    mConnectionState = STATE_DISCONNECTED;
+                    lossReported = mLossReported;
+                    mLossReported = false;
+            }
+        }
+        mCallback.onDisconnected(this, BluetoothGatt.GATT_SUCCESS, lossReported);
+    }
+
+    /**
+     * Release the connection. Pending operations complete with
+     * {@code GattOperation.STATUS_CANCELLED}.
+     */
+    void close() {
+        mOperationQueue.clear(GattOperation.STATUS_CANCELLED);
+        synchronized (this) {
+            mScheduler.removeCallbacks(mReconnectRunnable);
+            mScheduler.removeCallbacks(mTimeoutRunnable);
+            traceConnectCancelled();
+            mConnectionState = STATE_DISCONNECTED;
+            closeConnection();
+        }
+        mValueCache.clear();
+    }
+
+    // Call with the lock held
+    private void openConnection(boolean autoConnect) {
+        mConnectionState = STATE_CONNECTING;
+        mConnectStartTime = System.nanoTime();
+        resetLinkParameters();
+        if (GattTrace.ENABLED) {
+            GattTrace.record(GattTrace.EVENT_CONNECT, mTraceId, 0);
+        }
+        mConnection = mBackend.connect(mAddress, autoConnect, mGattCallback);
+        mOperationQueue.setConnection(mConnection);
+        // Direct connections otherwise take about 30 seconds to fail with GATT_ERROR. An
+        // attempt that could not even start never reports, whether it was direct or not.
+        if (!autoConnect || mConnection == null) {
+            mScheduler.postDelayed(mTimeoutRunnable, CONNECT_TIMEOUT);
+        }
+    }
+
+    // Every connection starts over with the defaults, whatever the last one negotiated
+    private void resetLinkParameters() {
+        mMtu = ConnectionProfile.DEFAULT_MTU;
+        mConnectionPriority = BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+        mTxPhy = BluetoothDevice.PHY_LE_1M;
+        mRxPhy = BluetoothDevice.PHY_LE_1M;
+    }
+
+    // Call with the lock held
+    private void closeConnection() {
+        mOperationQueue.setConnection(null);
+        GattBackend.Connection connection = mConnection;
+        mConnection = null;
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    private void onLinkUp(GattBackend.Connection connection) {
+        synchronized (this) {
+            if (connection != mConnection) {
+                return; // Closed meanwhile
+            }
+            mScheduler.removeCallbacks(mTimeoutRunnable);
+            if (GattTrace.ENABLED) {
+                GattTrace.record(GattTrace.EVENT_END, mTraceId, BluetoothGatt.GATT_SUCCESS);
+            }
+            mConnectionState = STATE_CONNECTED;
+            // Includes the wait of an autoConnect, which is as long as the device is away
+            mMetrics.onConnected(System.nanoTime() - mConnectStartTime);
+            mReconnectAttempt = 0;
+            mLossReported = false;
+        }
+        boolean negotiating = negotiateLinkParameters();
+        mCallback.onConnected(this);
+        if (!negotiating) {
+            reportLinkParameters();
+        }
+    }
+
+    private void onLinkDown(GattBackend.Connection connection, int status) {
+        int previousState;
+        boolean reconnecting;
+        boolean lossReported;
+        synchronized (this) {
+            if (connection != mConnection) {
+                return; // Closed meanwhile
+            }
+            mScheduler.removeCallbacks(mTimeoutRunnable);
+            previousState = mConnectionState;
+            if (GattTrace.ENABLED) {
+                GattTrace.record(previousState == STATE_CONNECTING
+                        ? GattTrace.EVENT_END : GattTrace.EVENT_DISCONNECTED, mTraceId, status);
+            }
+            if (previousState == STATE_CONNECTING) {
+                mMetrics.onConnectFailed(status);
+            } else if (previousState != STATE_DISCONNECTING) {
+                mMetrics.onLinkLost(status);
+            }
+            mMetrics.onDisconnected();
+            resetLinkParameters();
+            reconnecting = previousState != STATE_DISCONNECTING && scheduleReconnect();
+            lossReported = mLossReported;
+            if (!reconnecting) {
+                mConnectionState = STATE_DISCONNECTED;
+                mLossReported = false;
+            } else if (previousState != STATE_CONNECTING) {
+                mLossReported = true;
+            }
+        }
+        mOperationQueue.clear(GattOperation.STATUS_CANCELLED);
+        mValueCache.clear();
+        if (!reconnecting) {
+            mCallback.onDisconnected(this, status, lossReported);
+        } else if (previousState != STATE_CONNECTING) {
+            mCallback.onConnectionLost(this, status);
+        }
+    }
+
+    /**
+     * Call with the lock held.
+     *
+     * @return false if the policy gives up
+     */
+    private boolean scheduleReconnect() {
+        if (!mReconnectPolicy.isEnabled()) {
+            return false;
+        }
+        // A fresh client registration for every attempt: after GATT_ERROR (133), what most
+        // stacks report for a connection attempt failing for any reason, reusing one fails
+        closeConnection();
+        int attempt = mReconnectAttempt++;
+        boolean direct = attempt < mReconnectPolicy.getMaxDirectAttempts();
+        if (!direct && !mReconnectPolicy.isAutoConnectFallback()) {
+            return false;
+        }
+        if (GattTrace.ENABLED) {
+            GattTrace.record(GattTrace.EVENT_RECONNECT, mTraceId, attempt);
+        }
+        // The first fallback waits as long as the longest direct backoff, and a failing one
+        // must not come straight back either
+        long delay = direct ? mReconnectPolicy.getDelay(attempt, mRandom)
+                : mReconnectPolicy.getFallbackDelay(
+                        attempt - mReconnectPolicy.getMaxDirectAttempts(), mRandom);
+        mReconnectAutoConnect = !direct;
+        mConnectionState = STATE_BACKOFF;
+        mScheduler.postDelayed(mReconnectRunnable, delay);
+        return true;
+    }
+
+    // Call with the lock held
+    private void traceConnectCancelled() {
+        if (GattTrace.ENABLED && mConnectionState == STATE_CONNECTING) {
+            GattTrace.record(GattTrace.EVENT_END, mTraceId, GattOperation.STATUS_CANCELLED);
+        }
+    }
+
+    private final Runnable mReconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (GattSession.this) {
+                if (mConnectionState == STATE_BACKOFF) {
+                    openConnection(mReconnectAutoConnect);
+                }
+            }
+        }
+    };
+
+    // Connection or disconnection the stack did not answer in time
+    private final Runnable mTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // The connection is null if it could not even be started, e.g. with Bluetooth off
+            Log.w(TAG, mAddress + " timed out in state " + mConnectionState);
+            onLinkDown(mConnection, GattOperation.STATUS_TIMEOUT);
+        }
+    };
+
+    private synchronized void setState(int expectedState, int newState) {
+        if (mConnectionState == expectedState) {
+            mConnectionState = newState;
+        }
+    }
+
+    public void enqueue(GattOperation operation) {
+        mOperationQueue.enqueue(operation);
+    }
+
+    GattOperationQueue getOperationQueue() {
+        return mOperationQueue;
+    }
+
+    /**
+     * Discover the attribute layout, reported by {@code Callback.onServicesDiscovered}.
+     */
+    void discoverServices() {
+        enqueueDiscovery(false, 1);
+    }
+
+    /**
+     * A failed discovery is tried again with the stack's GATT cache refreshed. Once out of
+     * attempts the failure is reported and the device disconnected, as a connection without
+     * its layout is of no use.
+     */
+    private void enqueueDiscovery(boolean refreshCache, final int attempt) {
+        setState(STATE_CONNECTED, STATE_DISCOVERING);
+        setState(STATE_READY, STATE_DISCOVERING);
+        enqueue(GattOperation.discoverServices(refreshCache).setCallback(new GattOperation.Callback() {
+            @Override
+            public void onOperationComplete(GattOperation operation, int status) {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    setState(STATE_DISCOVERING, STATE_READY);
+                    mCallback.onServicesDiscovered(GattSession.this, status);
+                    return;
+                }
+                setState(STATE_DISCOVERING, STATE_CONNECTED);
+                if (status == GattOperation.STATUS_CANCELLED) {
+                    return; // The link went down, which is reported on its own
+                }
+                if (attempt < MAX_DISCOVERY_ATTEMPTS) {
+                    Log.w(TAG, "Service discovery of " + mAddress + " failed: " + status
+                            + ", trying again");
+                    enqueueDiscovery(true, attempt + 1);
+                    return;
+                }
+                mCallback.onServicesDiscovered(GattSession.this, status);
+                disconnect();
+            }
+        }));
+    }
+
+    /**
+     * @return Services found by the last discovery, empty if not discovered yet
+     */
+    public List<BluetoothGattService> getServices() {
+        GattBackend.Connection connection = mConnection;
+        if (connection == null) {
+            return Collections.emptyList();
+        }
+        return connection.getServices();
+    }
+
+    private final GattBackend.Callback mGattCallback = new GattBackend.Callback() {
+        @Override
+        public void onConnectionStateChange(GattBackend.Connection connection, int status,
+                                            int newState) {
+            if (newState == BluetoothProfile.STATE_CONNECTED
+                    && status == BluetoothGatt.GATT_SUCCESS) {
+                onLinkUp(connection);
+            }
+            else if (newState == BluetoothProfile.STATE_DISCONNECTED
+                    || status != BluetoothGatt.GATT_SUCCESS) {
+                onLinkDown(connection, status);
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(GattBackend.Connection connection, int status) {
+            mOperationQueue.onOperationComplete(GattOperation.TYPE_DISCOVER_SERVICES, null, status);
+        }
+
+        @Override
+        public void onCharacteristicRead(GattBackend.Connection connection,
+                                         BluetoothGattCharacteristic characteristic,
+                                         byte[] value, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS && value != null) {
+                mValueCache.put(characteristic, value);
+                mCallback.onCharacteristicValue(GattSession.this, characteristic, value);
+            }
+            mOperationQueue.onOperationComplete(GattOperation.TYPE_READ_CHARACTERISTIC, characteristic, status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(GattBackend.Connection connection,
+                                          BluetoothGattCharacteristic characteristic,
+                                          int status) {
+            mOperationQueue.onOperationComplete(GattOperation.TYPE_WRITE_CHARACTERISTIC, characteristic, status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(GattBackend.Connection connection,
+                                            BluetoothGattCharacteristic characteristic,
+                                            byte[] value) {
+            mMetrics.onNotification(characteristic.getInstanceId(), System.nanoTime());
+            if (GattTrace.ENABLED) {
+                GattTrace.record(GattTrace.EVENT_NOTIFICATION, mTraceId,
+                        characteristic.getInstanceId());
+            }
+            if (value != null) {
+                mValueCache.put(characteristic, value);
+                mCallback.onCharacteristicValue(GattSession.this, characteristic, value);
+            }
+        }
+
+        // The stack consumes Service Changed itself, reported from Android 12 on
+        @Override
+        public void onServiceChanged(GattBackend.Connection connection) {
+            // Refresh, the stack's own cache holds the old layout
+            enqueueDiscovery(true, 1);
+        }
+
+        @Override
+        public void onDescriptorWrite(GattBackend.Connection connection,
+                                      BluetoothGattDescriptor descriptor,
+                                      int status) {
+            mOperationQueue.onOperationComplete(GattOperation.TYPE_WRITE_DESCRIPTOR, descriptor, status);
+        }
+
+        @Override
+        public void onMtuChanged(GattBackend.Connection connection, int mtu, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mMtu = mtu;
+            }
+            mOperationQueue.onOperationComplete(GattOperation.TYPE_REQUEST_MTU, null, status);
+        }
+
+        @Override
+        public void onPhyUpdate(GattBackend.Connection connection, int txPhy, int rxPhy,
+                                int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mTxPhy = txPhy;
+                mRxPhy = rxPhy;
+            }
+            mOperationQueue.onOperationComplete(GattOperation.TYPE_SET_PREFERRED_PHY, null, status);
+        }
+    };
+
+    /*
+     * Profile negotiation runs MTU exchange, connection priority and PHY update one after the
+     * other. A step the peer refuses keeps its default and negotiation moves on to the next.
+     */
+
+    /**
+     * Queue the MTU exchange and PHY update the profile asks for. Called before listeners hear
+     * of the link, so both run ahead of anything they ask for once connected, e.g. discovery.
+     *
+     * @return false if nothing was queued and the link parameters are final already
+     */
+    private boolean negotiateLinkParameters() {
+        final boolean phy = mProfile.getPhyMask() != ConnectionProfile.NOT_REQUESTED;
+        boolean mtu = mProfile.getMtu() != ConnectionProfile.NOT_REQUESTED;
+        if (mtu) {
+            enqueue(GattOperation.requestMtu(mProfile.getMtu()).setCallback(new GattOperation.Callback() {
+                @Override
+                public void onOperationComplete(GattOperation operation, int status) {
+                    if (status == GattOperation.STATUS_CANCELLED) {
+                        return; // Disconnected
+                    }
+                    if (status != BluetoothGatt.GATT_SUCCESS) {
+                        Log.w(TAG, "MTU request refused: " + status + ", keeping " + mMtu);
+                    }
+                    negotiateConnectionPriority();
+                    if (!phy) {
+                        reportLinkParameters();
+                    }
+                }
+            }));
+        } else {
+            negotiateConnectionPriority();
+        }
+        if (phy) {
+            int phyMask = mProfile.getPhyMask();
+            enqueue(GattOperation.setPreferredPhy(phyMask, phyMask).setCallback(new GattOperation.Callback() {
+                @Override
+                public void onOperationComplete(GattOperation operation, int status) {
+                    if (status == GattOperation.STATUS_CANCELLED) {
+                        return; // Disconnected
+                    }
+                    if (status != BluetoothGatt.GATT_SUCCESS) {
+                        Log.w(TAG, "PHY update refused: " + status);
+                    }
+                    reportLinkParameters();
+                }
+            }));
+        }
+        return mtu || phy;
+    }
+
+    private void negotiateConnectionPriority() {
+        int priority = mProfile.getConnectionPriority();
+        GattBackend.Connection connection = mConnection;
+        if (priority != ConnectionProfile.NOT_REQUESTED && connection != null) {
+            if (connection.requestConnectionPriority(priority)) {
+                mConnectionPriority = priority;
+            } else {
+                Log.w(TAG, "Connection priority " + priority + " refused");
+            }
+        }
+    }
+
+    private void reportLinkParameters() {
+        mCallback.onLinkParametersNegotiated(GattSession.this, getLinkParameters());
+    }
+
+    /**
+     * Session events, called on the Bluetooth callback thread.
+     */
+    interface Callback {
+        void onConnected(GattSession session);
+
+        /**
+         * The link is down and the session is reconnecting. {@code onConnected} follows once
+         * it is back.
+         */
+        void onConnectionLost(GattSession session, int status);
+
+        /**
+         * The session is disconnected for good and can be closed.
+         *
+         * @param lossReported true if {@code onConnectionLost} already reported the link down
+         *                     and the session has not connected since
+         */
+        void onDisconnected(GattSession session, int status, boolean lossReported);
+        void onServicesDiscovered(GattSession session, int status);
+        void onCharacteristicValue(GattSession session, BluetoothGattCharacteristic characteristic,
+                                   byte[] value);
+        void onLinkParametersNegotiated(GattSession session, LinkParameters parameters);
+    }
+}
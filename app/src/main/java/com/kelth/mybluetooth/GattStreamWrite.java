@@ -0,0 +1,272 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * Writes a payload of any size to a characteristic in chunks of one ATT payload.
+ * <p>
+ * The stack admits one write per connection at a time and answers a write without response
+ * as soon as the controller has buffered it, so the controller's buffers are the window:
+ * each completion starts the next chunk, with no idle time in between, and a full buffer
+ * (write refused, or answered with {@code GATT_CONNECTION_CONGESTED}) makes the stream back
+ * off and retry the same chunk. Only one chunk is held in memory.
+ * <p>
+ * Runs on the thread of the {@link GattScheduler}, which also delivers the completions.
+ */
+public class GattStreamWrite {
+
+    private static final String TAG = GattStreamWrite.class.getSimpleName();
+
+    // Completion status when the source stream could not be read. GATT statuses are >= 0,
+    // GattOperation.STATUS_* go down to -3.
+    public static final int STATUS_SOURCE_FAILED = -4;
+
+    // ATT header of a write, taken from the MTU
+    public static final int ATT_WRITE_HEADER = 3;
+    // Longest attribute value
+    public static final int MAX_CHUNK_SIZE = 512;
+
+    private static final long MIN_BACKOFF = 5;  // In milliseconds
+    private static final long MAX_BACKOFF = 320;  // In milliseconds
+    // Consecutive refusals of one chunk before giving up
+    private static final int MAX_RETRIES = 20;
+    private static final long PROGRESS_INTERVAL = 100;  // In milliseconds
+
+    private final BluetoothGattCharacteristic mCharacteristic;
+    private final InputStream mSource;
+    private final long mLength;
+    private final int mWriteType;
+    private final GattScheduler mScheduler;
+    private final Executor mExecutor;
+    private final Listener mListener;
+
+    private GattOperationQueue mQueue;
+    private byte[] mChunk;
+    private GattOperation mChunkOperation;
+    // Operation writing the chunk being written, mChunkOperation unless it is the last one
+    private GattOperation mCurrent;
+    private int mCurrentLength;
+    private long mBytesWritten;
+    private long mStartTime;
+    private long mLastProgressTime;
+    private long mBackoff;
+    private int mRetries;
+    private boolean mDone;
+    private volatile boolean mCancelled;
+
+    /**
+     * @param source    Payload, read one chunk at a time on the scheduler's thread, so it
+     *                  should not block, e.g. an in-memory or buffered file stream. Closed
+     *                  once the write is over.
+     * @param length    Length of the payload in bytes for progress reports, -1 if unknown
+     * @param writeType {@code WRITE_TYPE_DEFAULT} for acknowledged writes or
+     *                  {@code WRITE_TYPE_NO_RESPONSE}
+     * @param executor  Executor used to call {@code listener}
+     */
+    public GattStreamWrite(BluetoothGattCharacteristic characteristic, InputStream source,
+                           long length, int writeType, GattScheduler scheduler,
+                           Executor executor, Listener listener) {
+        mCharacteristic = characteristic;
+        mSource = source;
+        mLength = length;
+        mWriteType = writeType;
+        mScheduler = scheduler;
+        mExecutor = executor;
+        mListener = listener;
+    }
+
+    /**
+     * @return Largest chunk written with the given MTU
+     */
+    public static int chunkSize(int mtu) {
+        return Math.min(mtu - ATT_WRITE_HEADER, MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * Start writing.
+     *
+     * @param queue     Operation queue of the connection
+     * @param chunkSize Bytes per write, e.g. {@link #chunkSize(int)} of the current MTU
+     */
+    public void start(GattOperationQueue queue, int chunkSize) {
+        mQueue = queue;
+        mChunk = new byte[chunkSize];
+        mChunkOperation = GattOperation.writeCharacteristic(mCharacteristic, mChunk, mWriteType)
+                .setCallback(mChunkCallback);
+        mStartTime = mScheduler.uptimeMillis();
+        mLastProgressTime = mStartTime;
+        writeNextChunk();
+    }
+
+    /**
+     * Stop after the chunk being written, completing with {@code STATUS_CANCELLED}.
+     * May be called from any thread.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    private void writeNextChunk() {
+        if (mCancelled) {
+            finish(GattOperation.STATUS_CANCELLED);
+            return;
+        }
+        int length;
+        try {
+            length = readChunk();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read the payload", e);
+            finish(STATUS_SOURCE_FAILED);
+            return;
+        }
+        if (length == 0) {
+            finish(BluetoothGatt.GATT_SUCCESS);
+            return;
+        }
+        mCurrentLength = length;
+        if (length == mChunk.length) {
+            mCurrent = mChunkOperation;
+        } else {
+            // Last chunk, shorter than the others
+            mCurrent = GattOperation.writeCharacteristic(mCharacteristic,
+                    Arrays.copyOf(mChunk, length), mWriteType).setCallback(mChunkCallback);
+        }
+        mQueue.enqueue(mCurrent);
+    }
+
+    /**
+     * @return Bytes read into mChunk, short only at the end of the payload
+     */
+    private int readChunk() throws IOException {
+        int length = 0;
+        while (length < mChunk.length) {
+            int read = mSource.read(mChunk, length, mChunk.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+
+    private final GattOperation.Callback mChunkCallback = new GattOperation.Callback() {
+        @Override
+        public void onOperationComplete(GattOperation operation, int status) {
+            switch (status) {
+                case BluetoothGatt.GATT_SUCCESS:
+                    mBytesWritten += mCurrentLength;
+                    mBackoff = 0;
+                    mRetries = 0;
+                    reportProgress();
+                    writeNextChunk();
+                    break;
+                case GattOperation.STATUS_START_FAILED:
+                case BluetoothGatt.GATT_CONNECTION_CONGESTED:
+                    // Controller buffers full, the chunk was not sent
+                    retryLater();
+                    break;
+                default:
+                    finish(status);
+                    break;
+            }
+        }
+    };
+
+    private void retryLater() {
+        if (mCancelled) {
+            finish(GattOperation.STATUS_CANCELLED);
+            return;
+        }
+        if (++mRetries > MAX_RETRIES) {
+            finish(GattOperation.STATUS_START_FAILED);
+            return;
+        }
+        mBackoff = mBackoff == 0 ? MIN_BACKOFF : Math.min(mBackoff * 2, MAX_BACKOFF);
+        mScheduler.postDelayed(mRetryRunnable, mBackoff);
+    }
+
+    private final Runnable mRetryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mQueue.enqueue(mCurrent);
+        }
+    };
+
+    private void reportProgress() {
+        long now = mScheduler.uptimeMillis();
+        if (now - mLastProgressTime < PROGRESS_INTERVAL) {
+            return;
+        }
+        mLastProgressTime = now;
+        final long bytesWritten = mBytesWritten;
+        final long bytesPerSecond = bytesPerSecond(bytesWritten, now - mStartTime);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onProgress(GattStreamWrite.this, bytesWritten, mLength, bytesPerSecond);
+            }
+        });
+    }
+
+    /**
+     * Complete with {@code status} without writing, e.g. if the device is not connected.
+     */
+    void abort(int status) {
+        finish(status);
+    }
+
+    private void finish(final int status) {
+        if (mDone) {
+            return;
+        }
+        mDone = true;
+        try {
+            mSource.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close the payload", e);
+        }
+        final long bytesWritten = mBytesWritten;
+        final long elapsed = mScheduler.uptimeMillis() - mStartTime;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onComplete(GattStreamWrite.this, status, bytesWritten,
+                        bytesPerSecond(bytesWritten, elapsed));
+            }
+        });
+    }
+
+    private static long bytesPerSecond(long bytes, long elapsed) {
+        return elapsed > 0 ? bytes * 1000 / elapsed : 0;
+    }
+
+    public BluetoothGattCharacteristic getCharacteristic() {
+        return mCharacteristic;
+    }
+
+    public interface Listener {
+        /**
+         * Called at most every 100 ms while writing.
+         *
+         * @param totalBytes     Length of the payload, -1 if unknown
+         * @param bytesPerSecond Average throughput since the start
+         */
+        void onProgress(GattStreamWrite write, long bytesWritten, long totalBytes,
+                        long bytesPerSecond);
+
+        /**
+         * @param status {@code BluetoothGatt.GATT_SUCCESS} once every byte is written, else
+         *               the status of the failed chunk, {@code GattOperation.STATUS_*} or
+         *               {@link #STATUS_SOURCE_FAILED}
+         */
+        void onComplete(GattStreamWrite write, int status, long bytesWritten,
+                        long bytesPerSecond);
+    }
+}
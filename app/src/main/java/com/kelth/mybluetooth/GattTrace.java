@@ -0,0 +1,102 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Timeline of the GATT layer: connections, operations and notifications of every device, kept
+ * in a {@link TraceBuffer} to diagnose slow connects and stalls. Built in when
+ * {@code BuildConfig.GATT_TRACE} is set, by default in debug builds only. Call sites test
+ * {@link #ENABLED} so that otherwise the compiler drops them altogether:
+ * <pre>
+ * if (GattTrace.ENABLED) {
+ *     GattTrace.record(GattTrace.EVENT_NOTIFICATION, mTraceId, characteristic.getInstanceId());
+ * }
+ * </pre>
+ */
+public final class GattTrace {
+
+    public static final boolean ENABLED = BuildConfig.GATT_TRACE;
+
+    // Span from the connection request to the link up or down
+    public static final int EVENT_CONNECT = 1;
+    // Ends the span begun last on the device, the handle is the status
+    public static final int EVENT_END = 2;
+    public static final int EVENT_DISCONNECTED = 3;
+    public static final int EVENT_RECONNECT = 4;
+    public static final int EVENT_NOTIFICATION = 5;
+    // Span of a GattOperation is EVENT_OPERATION + its type, the handle is the instance ID
+    // of its characteristic
+    public static final int EVENT_OPERATION = 16;
+
+    private static final int CAPACITY = 8192;
+
+    private static final TraceBuffer sBuffer = ENABLED ? newBuffer() : null;
+
+    private GattTrace() {
+    }
+
+    private static TraceBuffer newBuffer() {
+        TraceBuffer buffer = new TraceBuffer(CAPACITY);
+        buffer.define(EVENT_CONNECT, "connect", TraceBuffer.PHASE_BEGIN, null);
+        buffer.define(EVENT_END, null, TraceBuffer.PHASE_END, "status");
+        buffer.define(EVENT_DISCONNECTED, "disconnected", TraceBuffer.PHASE_INSTANT, "status");
+        buffer.define(EVENT_RECONNECT, "reconnect", TraceBuffer.PHASE_INSTANT, "attempt");
+        buffer.define(EVENT_NOTIFICATION, "notification", TraceBuffer.PHASE_INSTANT, "handle");
+        buffer.define(EVENT_OPERATION + GattOperation.TYPE_READ_CHARACTERISTIC,
+                "read", TraceBuffer.PHASE_BEGIN, "handle");
+        buffer.define(EVENT_OPERATION + GattOperation.TYPE_WRITE_CHARACTERISTIC,
+                "write", TraceBuffer.PHASE_BEGIN, "handle");
+        buffer.define(EVENT_OPERATION + GattOperation.TYPE_WRITE_DESCRIPTOR,
+                "write_descriptor", TraceBuffer.PHASE_BEGIN, "handle");
+        buffer.define(EVENT_OPERATION + GattOperation.TYPE_REQUEST_MTU,
+                "request_mtu", TraceBuffer.PHASE_BEGIN, null);
+        buffer.define(EVENT_OPERATION + GattOperation.TYPE_DISCOVER_SERVICES,
+                "discover", TraceBuffer.PHASE_BEGIN, null);
+        buffer.define(EVENT_OPERATION + GattOperation.TYPE_SET_PREFERRED_PHY,
+                "set_preferred_phy", TraceBuffer.PHASE_BEGIN, null);
+        return buffer;
+    }
+
+    /**
+     * @return ID to record the events of {@code address} with, 0 if tracing is disabled
+     */
+    public static int registerDevice(String address) {
+        return ENABLED ? sBuffer.registerDevice(address) : 0;
+    }
+
+    public static void record(int event, int device, int handle) {
+        if (ENABLED) {
+            sBuffer.record(event, device, handle);
+        }
+    }
+
+    /**
+     * @param target Characteristic or descriptor of an operation, or null
+     * @return Instance ID of its characteristic, or 0
+     */
+    public static int handleOf(Object target) {
+        if (target instanceof BluetoothGattDescriptor) {
+            target = ((BluetoothGattDescriptor) target).getCharacteristic();
+        }
+        if (target instanceof BluetoothGattCharacteristic) {
+            return ((BluetoothGattCharacteristic) target).getInstanceId();
+        }
+        return 0;
+    }
+
+    /**
+     * Write the timeline kept so far as a Chrome trace.
+     *
+     * @return Events written, 0 if tracing is disabled
+     */
+    public static int writeChromeJson(Writer out) throws IOException {
+        if (!ENABLED) {
+            return 0;
+        }
+        return sBuffer.writeChromeJson(out);
+    }
+}
@@ -0,0 +1,125 @@
+package com.kelth.mybluetooth;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Reusable holder for a characteristic value. Instances come from a {@link GattValuePool} and
+ * are only valid for the duration of the callback they are handed to. Use {@link #copyData()}
+ * to keep the bytes longer.
+ *
+ * Hex and text forms are only built when asked for, so the notification path itself does not
+ * allocate.
+ */
+public final class GattValue {
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private UUID mUuid;
+    private byte[] mData;
+    private int mLength;
+    private String mHex;
+    private String mText;
+
+    GattValue(int capacity) {
+        mData = new byte[capacity];
+    }
+
+    /**
+     * Copy {@code length} bytes of {@code src} into this holder. The backing buffer only grows
+     * when a larger value than ever seen before arrives.
+     */
+    void set(UUID uuid, byte[] src, int length) {
+        if (mData.length < length) {
+            mData = new byte[length];
+        }
+        if (length > 0) {
+            System.arraycopy(src, 0, mData, 0, length);
+        }
+        mUuid = uuid;
+        mLength = length;
+        mHex = null;
+        mText = null;
+    }
+
+    void reset() {
+        mUuid = null;
+        mLength = 0;
+        mHex = null;
+        mText = null;
+    }
+
+    /**
+     * @return UUID of the characteristic the value belongs to
+     */
+    public UUID getUuid() {
+        return mUuid;
+    }
+
+    /**
+     * @return The backing buffer. Only the first {@link #getLength()} bytes are valid.
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    public byte getByte(int index) {
+        if (index >= mLength) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + mLength);
+        }
+        return mData[index];
+    }
+
+    /**
+     * @return A private copy of the value, safe to keep after the callback returns
+     */
+    public byte[] copyData() {
+        return Arrays.copyOf(mData, mLength);
+    }
+
+    /**
+     * Append the value as "XX XX " to an existing builder without intermediate strings.
+     */
+    public StringBuilder appendHex(StringBuilder sb) {
+        return appendHex(sb, mData, 0, mLength);
+    }
+
+    /**
+     * @return The value formatted as "XX XX ", built on first use
+     */
+    public String toHexString() {
+        if (mHex == null) {
+            mHex = appendHex(new StringBuilder(mLength * 3), mData, 0, mLength).toString();
+        }
+        return mHex;
+    }
+
+    /**
+     * @return The value decoded as UTF-8 text, built on first use
+     */
+    public String toText() {
+        if (mText == null) {
+            mText = new String(mData, 0, mLength, UTF_8);
+        }
+        return mText;
+    }
+
+    @Override
+    public String toString() {
+        return toText() + "\n" + toHexString();
+    }
+
+    public static StringBuilder appendHex(StringBuilder sb, byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            int b = data[i] & 0xFF;
+            sb.append(HEX_DIGITS[b >>> 4]).append(HEX_DIGITS[b & 0x0F]).append(' ');
+        }
+        return sb;
+    }
+}
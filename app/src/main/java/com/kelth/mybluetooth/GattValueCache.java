@@ -0,0 +1,151 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Last known characteristic values of one connection, keyed by characteristic UUID and
+ * instance ID. Which characteristics are cached, and for how long, is decided by a shared
+ * {@link Policy}. Cached entries are refreshed by every read result and notification.
+ * Ages are measured on the clock of the connection's {@link GattScheduler}.
+ */
+public class GattValueCache {
+
+    // Never cache
+    public static final long TTL_NONE = 0;
+    // Valid until the connection closes
+    public static final long TTL_CONNECTION = Long.MAX_VALUE;
+
+    private final Policy mPolicy;
+    private final GattScheduler mClock;
+    // Keyed by instance ID
+    private final Map<Integer, Entry> mEntries = new HashMap<>();
+
+    public GattValueCache(Policy policy, GattScheduler clock) {
+        mPolicy = policy;
+        mClock = clock;
+    }
+
+    /**
+     * Store a value of {@code characteristic} if the policy caches it.
+     */
+    public void put(BluetoothGattCharacteristic characteristic, byte[] data) {
+        put(characteristic.getUuid(), characteristic.getInstanceId(), data);
+    }
+
+    synchronized void put(UUID uuid, int instanceId, byte[] data) {
+        Entry entry = mEntries.get(instanceId);
+        if (entry == null || !entry.uuid.equals(uuid)) {
+            long ttl = mPolicy.getTtl(uuid);
+            if (ttl == TTL_NONE) {
+                return;
+            }
+            entry = new Entry(uuid, ttl);
+            mEntries.put(instanceId, entry);
+        }
+        if (entry.value.length < data.length) {
+            entry.value = new byte[data.length];
+        }
+        System.arraycopy(data, 0, entry.value, 0, data.length);
+        entry.length = data.length;
+        entry.updateTime = mClock.uptimeMillis();
+    }
+
+    /**
+     * Copy a fresh cached value of {@code characteristic} into {@code value}.
+     *
+     * @return false if there is no cached value or it has expired
+     */
+    public boolean get(BluetoothGattCharacteristic characteristic, GattValue value) {
+        return get(characteristic.getUuid(), characteristic.getInstanceId(), value);
+    }
+
+    synchronized boolean get(UUID uuid, int instanceId, GattValue value) {
+        Entry entry = mEntries.get(instanceId);
+        if (entry == null || !entry.uuid.equals(uuid)) {
+            return false;
+        }
+        if (entry.ttl != TTL_CONNECTION
+                && mClock.uptimeMillis() - entry.updateTime > entry.ttl) {
+            return false;
+        }
+        value.set(entry.uuid, entry.value, entry.length);
+        return true;
+    }
+
+    public synchronized void invalidate(BluetoothGattCharacteristic characteristic) {
+        mEntries.remove(characteristic.getInstanceId());
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    private static class Entry {
+        final UUID uuid;
+        final long ttl;
+        byte[] value = new byte[0];
+        int length;
+        long updateTime;
+
+        Entry(UUID uuid, long ttl) {
+            this.uuid = uuid;
+            this.ttl = ttl;
+        }
+    }
+
+    /**
+     * Time to live of cached values per characteristic UUID. Device Information values and the
+     * Appearance are cached for the whole connection by default, anything else is not cached.
+     */
+    public static class Policy {
+
+        private final ConcurrentHashMap<UUID, Long> mTtls = new ConcurrentHashMap<>();
+        private volatile long mDefaultTtl = TTL_NONE;
+
+        public Policy() {
+            // Fixed for the lifetime of a connection
+            int[] staticCharacteristics = {
+                    0x2A01,  // Appearance
+                    0x2A23,  // System ID
+                    0x2A24,  // Model Number String
+                    0x2A25,  // Serial Number String
+                    0x2A26,  // Firmware Revision String
+                    0x2A27,  // Hardware Revision String
+                    0x2A28,  // Software Revision String
+                    0x2A29,  // Manufacturer Name String
+                    0x2A2A,  // IEEE 11073-20601 Regulatory Certification Data List
+                    0x2A50,  // PnP ID
+            };
+            for (int shortUuid : staticCharacteristics) {
+                setTtl(GattAttributes.fromShortUuid(shortUuid), TTL_CONNECTION);
+            }
+        }
+
+        /**
+         * Applies to values cached after the call.
+         *
+         * @param ttl Time in milliseconds a value stays valid, {@code TTL_CONNECTION} or
+         *            {@code TTL_NONE}
+         */
+        public void setTtl(UUID characteristicUuid, long ttl) {
+            mTtls.put(characteristicUuid, ttl);
+        }
+
+        /**
+         * @param ttl Time to live of characteristics without their own setting
+         */
+        public void setDefaultTtl(long ttl) {
+            mDefaultTtl = ttl;
+        }
+
+        public long getTtl(UUID characteristicUuid) {
+            Long ttl = mTtls.get(characteristicUuid);
+            return ttl != null ? ttl : mDefaultTtl;
+        }
+    }
+}
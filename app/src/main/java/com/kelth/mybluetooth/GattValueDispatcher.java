@@ -0,0 +1,108 @@
+package com.kelth.mybluetooth;
+
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+/**
+ * Hands characteristic values to a listener through an {@code Executor}. The bytes are copied
+ * into a pooled {@link GattValue} and delivered by a pooled event, so a warm path does not
+ * allocate per value.
+ *
+ * @param <D> Type identifying the device a value comes from
+ */
+public class GattValueDispatcher<D> {
+
+    private final Executor mExecutor;
+    private final Listener<D> mListener;
+    private final GattValuePool mValuePool;
+    private final Object mEventLock = new Object();
+    private ValueEvent mFreeEvents;
+
+    /**
+     * @param poolSize Number of values kept for reuse, i.e. how many may wait in the executor
+     *                 before dispatching allocates
+     */
+    public GattValueDispatcher(Executor executor, Listener<D> listener, int poolSize) {
+        mExecutor = executor;
+        mListener = listener;
+        mValuePool = new GattValuePool(poolSize);
+    }
+
+    /**
+     * Copy {@code length} bytes of {@code data} and deliver them.
+     */
+    public void dispatch(D device, UUID uuid, byte[] data, int length) {
+        GattValue value = obtainValue();
+        value.set(uuid, data, length);
+        dispatch(device, value);
+    }
+
+    /**
+     * Deliver a value filled by the caller. The dispatcher takes it over and recycles it once
+     * the listener returns.
+     *
+     * @param value Obtained from {@link #obtainValue()}
+     */
+    public void dispatch(D device, GattValue value) {
+        ValueEvent event;
+        synchronized (mEventLock) {
+            event = mFreeEvents;
+            if (event != null) {
+                mFreeEvents = event.next;
+                event.next = null;
+            }
+        }
+        if (event == null) {
+            event = new ValueEvent();
+        }
+        event.device = device;
+        event.value = value;
+        mExecutor.execute(event);
+    }
+
+    /**
+     * @return An empty pooled value, to dispatch or hand back with {@link #recycleValue}
+     */
+    public GattValue obtainValue() {
+        return mValuePool.acquire();
+    }
+
+    public void recycleValue(GattValue value) {
+        mValuePool.release(value);
+    }
+
+    private void recycle(ValueEvent event) {
+        mValuePool.release(event.value);
+        event.value = null;
+        event.device = null;
+        synchronized (mEventLock) {
+            event.next = mFreeEvents;
+            mFreeEvents = event;
+        }
+    }
+
+    /**
+     * Pooled delivery of one value to the listener
+     */
+    private final class ValueEvent implements Runnable {
+        D device;
+        GattValue value;
+        ValueEvent next;
+
+        @Override
+        public void run() {
+            try {
+                mListener.onValue(device, value.getUuid(), value);
+            } finally {
+                recycle(this);
+            }
+        }
+    }
+
+    public interface Listener<D> {
+        /**
+         * @param value Only valid during the call, copy what must be kept
+         */
+        void onValue(D device, UUID uuid, GattValue value);
+    }
+}
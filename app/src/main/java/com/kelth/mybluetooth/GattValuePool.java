@@ -0,0 +1,42 @@
+package com.kelth.mybluetooth;
+
+/**
+ * Fixed size pool of {@link GattValue} holders. Once every holder has been used with the
+ * largest value of the session, acquiring and releasing does not allocate.
+ */
+public final class GattValuePool {
+
+    // Default ATT MTU is 23 bytes, leaving 20 bytes of value
+    private static final int DEFAULT_VALUE_CAPACITY = 20;
+
+    private final GattValue[] mFree;
+    private int mFreeCount;
+
+    /**
+     * @param size Number of holders kept for reuse. Acquiring more than this at once falls
+     *             back to allocating.
+     */
+    public GattValuePool(int size) {
+        mFree = new GattValue[size];
+        for (int i = 0; i < size; i++) {
+            mFree[i] = new GattValue(DEFAULT_VALUE_CAPACITY);
+        }
+        mFreeCount = size;
+    }
+
+    public synchronized GattValue acquire() {
+        if (mFreeCount == 0) {
+            return new GattValue(DEFAULT_VALUE_CAPACITY);
+        }
+        GattValue value = mFree[--mFreeCount];
+        mFree[mFreeCount] = null;
+        return value;
+    }
+
+    public synchronized void release(GattValue value) {
+        value.reset();
+        if (mFreeCount < mFree.length) {
+            mFree[mFreeCount++] = value;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.kelth.mybluetooth;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * {@link GattScheduler} running on a {@code Handler}'s thread.
+ */
+public class HandlerScheduler implements GattScheduler {
+
+    private final Handler mHandler;
+
+    public HandlerScheduler(Handler handler) {
+        mHandler = handler;
+    }
+
+    @Override
+    public void post(Runnable runnable) {
+        mHandler.post(runnable);
+    }
+
+    @Override
+    public void postDelayed(Runnable runnable, long delayMillis) {
+        mHandler.postDelayed(runnable, delayMillis);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable runnable) {
+        mHandler.removeCallbacks(runnable);
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+}
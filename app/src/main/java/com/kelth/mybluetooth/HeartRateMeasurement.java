@@ -0,0 +1,123 @@
+package com.kelth.mybluetooth;
+
+/**
+ * Heart Rate Measurement (0x2A37)
+ */
+public class HeartRateMeasurement extends GattCodec {
+
+    private static final int FLAG_HEART_RATE_UINT16 = 0x01;
+    private static final int FLAG_SENSOR_CONTACT_DETECTED = 0x02;
+    private static final int FLAG_SENSOR_CONTACT_SUPPORTED = 0x04;
+    private static final int FLAG_ENERGY_EXPENDED = 0x08;
+    private static final int FLAG_RR_INTERVALS = 0x10;
+
+    // Largest ATT value is 512 bytes, at least 2 of which are flags and heart rate
+    private static final int MAX_RR_INTERVALS = 255;
+
+    private int mHeartRate;
+    private boolean mSensorContactSupported;
+    private boolean mSensorContactDetected;
+    private boolean mEnergyExpendedPresent;
+    private int mEnergyExpended;
+    private final int[] mRrIntervals = new int[MAX_RR_INTERVALS];
+    private int mRrIntervalCount;
+
+    public HeartRateMeasurement() {
+        super(0x2A37);
+    }
+
+    @Override
+    public boolean decode(byte[] data, int length) {
+        if (length < 2) {
+            return false;
+        }
+        int flags = uint8(data, 0);
+        int offset = 1;
+
+        if ((flags & FLAG_HEART_RATE_UINT16) != 0) {
+            if (length < offset + 2) {
+                return false;
+            }
+            mHeartRate = uint16(data, offset);
+            offset += 2;
+        } else {
+            mHeartRate = uint8(data, offset);
+            offset += 1;
+        }
+
+        mSensorContactSupported = (flags & FLAG_SENSOR_CONTACT_SUPPORTED) != 0;
+        mSensorContactDetected = mSensorContactSupported && (flags & FLAG_SENSOR_CONTACT_DETECTED) != 0;
+
+        mEnergyExpendedPresent = (flags & FLAG_ENERGY_EXPENDED) != 0;
+        if (mEnergyExpendedPresent) {
+            if (length < offset + 2) {
+                return false;
+            }
+            mEnergyExpended = uint16(data, offset);
+            offset += 2;
+        } else {
+            mEnergyExpended = 0;
+        }
+
+        mRrIntervalCount = 0;
+        if ((flags & FLAG_RR_INTERVALS) != 0) {
+            while (offset + 2 <= length && mRrIntervalCount < MAX_RR_INTERVALS) {
+                mRrIntervals[mRrIntervalCount++] = uint16(data, offset);
+                offset += 2;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Beats per minute
+     */
+    public int getHeartRate() {
+        return mHeartRate;
+    }
+
+    public boolean isSensorContactSupported() {
+        return mSensorContactSupported;
+    }
+
+    public boolean isSensorContactDetected() {
+        return mSensorContactDetected;
+    }
+
+    public boolean isEnergyExpendedPresent() {
+        return mEnergyExpendedPresent;
+    }
+
+    /**
+     * @return Kilojoules since the last reset, valid if {@link #isEnergyExpendedPresent()}
+     */
+    public int getEnergyExpended() {
+        return mEnergyExpended;
+    }
+
+    public int getRrIntervalCount() {
+        return mRrIntervalCount;
+    }
+
+    /**
+     * @return RR interval in 1/1024 seconds
+     */
+    public int getRrInterval(int index) {
+        if (index >= mRrIntervalCount) {
+            throw new IndexOutOfBoundsException("index " + index + ", count " + mRrIntervalCount);
+        }
+        return mRrIntervals[index];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Heart rate: ").append(mHeartRate).append(" bpm");
+        if (mEnergyExpendedPresent) {
+            sb.append(", energy: ").append(mEnergyExpended).append(" kJ");
+        }
+        for (int i = 0; i < mRrIntervalCount; i++) {
+            sb.append(i == 0 ? ", RR: " : " ").append(mRrIntervals[i] * 1000 / 1024).append(" ms");
+        }
+        return sb.toString();
+    }
+}
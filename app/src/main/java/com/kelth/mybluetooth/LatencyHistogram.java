@@ -0,0 +1,172 @@
+package com.kelth.mybluetooth;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of durations in microseconds, in a fixed number of log-linear buckets: 16
+ * buckets per power of two, so any percentile is within about 6% of the true value.
+ * Recording is lock free and does not allocate, and may happen from any thread.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Largest power of two told apart, 2^35 us is about 9.5 hours
+    private static final int MAX_EXPONENT = 35;
+
+    static final int BUCKET_COUNT = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * @param micros Duration in microseconds. Negative values count as 0, values above the
+     *               range go to the last bucket.
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        mBuckets.incrementAndGet(bucketIndex(micros));
+        mSum.addAndGet(micros);
+        long max = mMax.get();
+        while (micros > max && !mMax.compareAndSet(max, micros)) {
+            max = mMax.get();
+        }
+    }
+
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    /**
+     * Copy the current distribution. Values recorded during the copy may or may not be in it.
+     */
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = mBuckets.get(i);
+            count += buckets[i];
+        }
+        return new Snapshot(buckets, count, mSum.get(), mMax.get());
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mBuckets.set(i, 0);
+        }
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        // The bits right after the leading one pick the bucket within the power of two
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return Smallest value counted in bucket {@code index}
+     */
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Immutable copy of a histogram.
+     */
+    public static final class Snapshot {
+        private final long[] mBuckets;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        Snapshot(long[] buckets, long count, long sum, long max) {
+            mBuckets = buckets;
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return Mean in microseconds, 0 if empty
+         */
+        public long getMean() {
+            return mCount > 0 ? mSum / mCount : 0;
+        }
+
+        /**
+         * @return Largest value in microseconds
+         */
+        public long getMax() {
+            return mMax;
+        }
+
+        /**
+         * @param percentile From 0 to 100
+         * @return Estimated value in microseconds below which {@code percentile} percent of the
+         *         values fall, 0 if empty
+         */
+        public long getPercentile(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mCount));
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank) {
+                    // Middle of the bucket, never above the largest value seen
+                    long low = bucketLowerBound(i);
+                    long high = i + 1 < mBuckets.length ? bucketLowerBound(i + 1) : mMax + 1;
+                    return Math.min(low + (high - low - 1) / 2, mMax);
+                }
+            }
+            return mMax;
+        }
+
+        /**
+         * @return Number of values in bucket {@code index}, 0 to {@link #getBucketCount()}
+         */
+        public long getBucket(int index) {
+            return mBuckets[index];
+        }
+
+        public int getBucketCount() {
+            return mBuckets.length;
+        }
+
+        /**
+         * @return Smallest value in microseconds counted in bucket {@code index}
+         */
+        public long getBucketLowerBound(int index) {
+            return bucketLowerBound(index);
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mCount + " mean=" + getMean() + "us p50=" + getPercentile(50)
+                    + "us p90=" + getPercentile(90) + "us p99=" + getPercentile(99)
+                    + "us max=" + mMax + "us";
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+
+/**
+ * Link parameters in effect after negotiating a {@link ConnectionProfile}. Anything the peer
+ * or the local stack refused keeps its default value.
+ */
+public class LinkParameters {
+
+    private final int mMtu;
+    private final int mConnectionPriority;
+    private final int mTxPhy;
+    private final int mRxPhy;
+
+    LinkParameters(int mtu, int connectionPriority, int txPhy, int rxPhy) {
+        mMtu = mtu;
+        mConnectionPriority = connectionPriority;
+        mTxPhy = txPhy;
+        mRxPhy = rxPhy;
+    }
+
+    /**
+     * @return Negotiated ATT MTU. Values of up to MTU - 3 bytes fit in one packet.
+     */
+    public int getMtu() {
+        return mMtu;
+    }
+
+    /**
+     * @return One of {@code BluetoothGatt.CONNECTION_PRIORITY_*}
+     */
+    public int getConnectionPriority() {
+        return mConnectionPriority;
+    }
+
+    /**
+     * @return One of {@code BluetoothDevice.PHY_LE_1M}, {@code PHY_LE_2M} or {@code PHY_LE_CODED}
+     */
+    public int getTxPhy() {
+        return mTxPhy;
+    }
+
+    /**
+     * @return One of {@code BluetoothDevice.PHY_LE_1M}, {@code PHY_LE_2M} or {@code PHY_LE_CODED}
+     */
+    public int getRxPhy() {
+        return mRxPhy;
+    }
+
+    static LinkParameters defaults() {
+        return new LinkParameters(ConnectionProfile.DEFAULT_MTU,
+                BluetoothGatt.CONNECTION_PRIORITY_BALANCED,
+                BluetoothDevice.PHY_LE_1M, BluetoothDevice.PHY_LE_1M);
+    }
+
+    @Override
+    public String toString() {
+        return "LinkParameters{mtu=" + mMtu + ", priority=" + mConnectionPriority
+                + ", txPhy=" + mTxPhy + ", rxPhy=" + mRxPhy + "}";
+    }
+
+    public interface Listener {
+        /**
+         * Called once negotiation of the connection profile is over.
+         */
+        void onLinkParametersNegotiated(BluetoothDevice btDevice, LinkParameters parameters);
+    }
+}
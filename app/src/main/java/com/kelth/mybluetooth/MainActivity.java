@@ -4,17 +4,24 @@ import android.Manifest;
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
-import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
-import android.util.Log;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v7.recyclerview.extensions.ListAdapter;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -27,36 +34,40 @@ import android.widget.Toast;
 import android.widget.ToggleButton;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
 
-import static com.kelth.mybluetooth.BluetoothLeService.ACTION_DATA_AVAILABLE;
-import static com.kelth.mybluetooth.BluetoothLeService.ACTION_GATT_CONNECTED;
-import static com.kelth.mybluetooth.BluetoothLeService.ACTION_GATT_DISCONNECTED;
-import static com.kelth.mybluetooth.BluetoothLeService.ACTION_GATT_SERVICES_DISCOVERED;
-
 public class MainActivity extends Activity implements BluetoothLeService.BluetoothLeListener,
         View.OnClickListener, AdapterView.OnItemClickListener {
 
-    private static final String TAG = MainActivity.class.getSimpleName();
     private static final int REQUEST_ENABLE_BT = 1; // Request code must be > 0
     private static final int REQUEST_PERMISSION_ACCESS_COARSE_LOC = 2;
 
-    private static final int ASYNC_TASK_BLE_SCAN = 1;
-    private static final int ASYNC_TASK_BLE_CONNECT = 2;
-    private static final int ASYNC_TASK_BLE_DISCONNECT = 3;
-
     private BLEDeviceListAdapter mBLEDeviceListAdapter;
-    private BLEServiceCharacteristicListAdapter mBLEServiceCharacteristicListAdapter;
-    private BluetoothLeService mBluetoothLeService;
-    private BluetoothDevice mBluetoothDevice;
+    private GattAttributeListAdapter mGattAttributeListAdapter;
+    // Set once bound, on the main thread
+    private volatile BluetoothLeService mBluetoothLeService;
+    // Set on the main thread, read by listener callbacks on the BLE worker thread
+    private volatile BluetoothDevice mBluetoothDevice;
+    // Listener callbacks run on the BLE worker thread, which alone uses these two
     private BluetoothGattCharacteristic mNotifyCharacteristic;
+    // Latest value received, shown at most once per frame. Guarded by itself.
+    private final GattValue mLastValue = new GattValue(20);
+    private boolean mValueRefreshPending;
+    // Only used on the main thread
+    private final GattCodecRegistry mCodecRegistry = GattCodecRegistry.createDefault();
+    // Receives the view updates computed by listener callbacks
+    private final Handler mUiHandler = new Handler(Looper.getMainLooper());
 
     private ToggleButton mToggleButtonScan;
     private Button mButtonDisconnect;
     private TextView mTextViewStatus;
+    private TextView mTextViewValue;
     private ListView mListViewBLEDevices;
-    private ListView mListViewBLEServices;
+    private RecyclerView mRecyclerViewBLEServices;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -78,67 +89,95 @@ public class MainActivity extends Activity implements BluetoothLeService.Bluetoo
         mToggleButtonScan    = findViewById(R.id.button_scan);
         mButtonDisconnect    = findViewById(R.id.button_disconnect);
         mTextViewStatus      = findViewById(R.id.textView_status);
+        mTextViewValue       = findViewById(R.id.textView_value);
         mListViewBLEDevices  = findViewById(R.id.listView_ble_devices);
-        mListViewBLEServices = findViewById(R.id.listView_ble_services);
+        mRecyclerViewBLEServices = findViewById(R.id.recyclerView_ble_services);
 
         mBLEDeviceListAdapter = new BLEDeviceListAdapter();
-        mBLEServiceCharacteristicListAdapter = new BLEServiceCharacteristicListAdapter();
-        mBluetoothLeService = new BluetoothLeService();
+        mGattAttributeListAdapter = new GattAttributeListAdapter();
 
         // Set adapter
         mListViewBLEDevices.setAdapter(mBLEDeviceListAdapter);
-        mListViewBLEServices.setAdapter(mBLEServiceCharacteristicListAdapter);
+        mRecyclerViewBLEServices.setLayoutManager(new LinearLayoutManager(this));
+        mRecyclerViewBLEServices.setAdapter(mGattAttributeListAdapter);
 
         // click event
         mToggleButtonScan.setOnClickListener(this);
         mButtonDisconnect.setOnClickListener(this);
         mListViewBLEDevices.setOnItemClickListener(this);
-        mListViewBLEServices.setOnItemClickListener(this);
 
-        // Ensures Bluetooth is available on the device and it is enabled. If not,
-        // displays a dialog requesting user permission to enable Bluetooth.
-        mBluetoothLeService.init(getApplicationContext(), this);
-        if (!mBluetoothLeService.isBluetoothAdapterAvailable()) {
-            Intent enableBtIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
-            startActivityForResult(enableBtIntent, REQUEST_ENABLE_BT);
-        }
+        // Connections belong to the service, they outlive this activity
+        bindService(new Intent(this, BluetoothLeService.class), mServiceConnection,
+                Context.BIND_AUTO_CREATE);
     }
 
+    private final ServiceConnection mServiceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            mBluetoothLeService = ((BluetoothLeService.LocalBinder) binder).getService();
+            // Listener callbacks are delivered on the BLE worker thread, starting with the
+            // devices still connected from before
+            mBluetoothLeService.addListener(MainActivity.this, null);
+
+            // Ensures Bluetooth is available on the device and it is enabled. If not,
+            // displays a dialog requesting user permission to enable Bluetooth.
+            if (!mBluetoothLeService.isBluetoothAdapterAvailable()) {
+                Intent enableBtIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
+                startActivityForResult(enableBtIntent, REQUEST_ENABLE_BT);
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mBluetoothLeService = null;
+        }
+    };
+
     @Override
     protected void onResume() {
         super.onResume();
         // TODO Clear content
-        registerReceiver(mGattUpdateReceiver, new IntentFilter(ACTION_GATT_CONNECTED));
-        registerReceiver(mGattUpdateReceiver, new IntentFilter(ACTION_GATT_DISCONNECTED));
-        registerReceiver(mGattUpdateReceiver, new IntentFilter(ACTION_GATT_SERVICES_DISCOVERED));
-        registerReceiver(mGattUpdateReceiver, new IntentFilter(ACTION_DATA_AVAILABLE));
     }
 
     @Override
     protected void onPause() {
         super.onPause();
         // TODO If it's scanning, stop it
-        unregisterReceiver(mGattUpdateReceiver);
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        mBluetoothLeService.close();
-        mBluetoothLeService.release();
+        mUiHandler.removeCallbacksAndMessages(null);
+        BluetoothLeService service = mBluetoothLeService;
+        // Callbacks already dispatched to the worker thread find no service and do nothing
+        mBluetoothLeService = null;
+        if (service != null) {
+            service.removeListener(this);
+            if (isFinishing()) {
+                // Nobody is left to see the results; connections are kept
+                service.scanLeDevice(false);
+            }
+        }
+        unbindService(mServiceConnection);
     }
 
     /**
-     * Toggle button click
+     * Toggle button click. Service calls only hand the work to the BLE worker thread.
      */
     @Override
     public void onClick(View view) {
+        if (mBluetoothLeService == null) {
+            return; // Not bound yet
+        }
         switch (view.getId()) {
             case R.id.button_scan:
-                new asyncTask().execute(ASYNC_TASK_BLE_SCAN);
+                mTextViewStatus.setText(getResources().getString(R.string.ble_start_scanning));
+                mBluetoothLeService.scanLeDevice(mToggleButtonScan.isChecked());
                 break;
             case R.id.button_disconnect:
-                new asyncTask().execute(ASYNC_TASK_BLE_DISCONNECT);
+                mTextViewStatus.setText(getResources().getString(R.string.ble_disconnecting));
+                mBluetoothLeService.disconnectGatt();
                 break;
             default:
                 break;
@@ -150,61 +189,22 @@ public class MainActivity extends Activity implements BluetoothLeService.Bluetoo
      */
     @Override
     public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+        if (mBluetoothLeService == null) {
+            return; // Not bound yet
+        }
         switch (adapterView.getId()) {
             case R.id.listView_ble_devices:
                 mBluetoothDevice = (BluetoothDevice) mBLEDeviceListAdapter.getItem(position);
                 if (mBluetoothDevice != null) {
-                    new asyncTask().execute(ASYNC_TASK_BLE_CONNECT);
+                    mTextViewStatus.setText(getResources().getString(R.string.ble_connecting));
+                    mBluetoothLeService.connectGatt(mBluetoothDevice);
                 }
                 break;
-            case R.id.listView_ble_services:
-                ServiceCharacteristics svcChar = (ServiceCharacteristics) mBLEServiceCharacteristicListAdapter.getItem(position);
-                mBluetoothLeService.readGattCharactertistics(svcChar.btGattCharacteristic);
-                break;
             default:
                 break;
         }
     }
 
-    /**
-     * AsyncTask
-     */
-    private class asyncTask extends AsyncTask<Integer, Void/*progress*/, Void/*result*/> {
-        @Override
-        protected Void doInBackground(Integer... integers) {
-            switch(integers[0]) {
-                case ASYNC_TASK_BLE_SCAN:
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            mTextViewStatus.setText(getResources().getString(R.string.ble_start_scanning));
-                        }
-                    });
-                    mBluetoothLeService.scanLeDevice(mToggleButtonScan.isChecked());
-                    break;
-                case ASYNC_TASK_BLE_CONNECT:
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            mTextViewStatus.setText(getResources().getString(R.string.ble_connecting));
-                        }
-                    });
-                    mBluetoothLeService.connectGatt(mBluetoothDevice);
-                    break;
-                case ASYNC_TASK_BLE_DISCONNECT:
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            mTextViewStatus.setText(getResources().getString(R.string.ble_disconnecting));
-                        }
-                    });
-                    mBluetoothLeService.disconnectGatt();
-                    break;
-            }
-            return null;
-        }
-    }
-
     /**
      * Permission request result callback
      */
@@ -223,17 +223,17 @@ public class MainActivity extends Activity implements BluetoothLeService.Bluetoo
     }
 
     /**
-     * BLE
+     * BLE, called on the BLE worker thread
      */
     @Override
     public void onBLEScanningStart() {
         mBLEDeviceListAdapter.clear();
-        mBLEServiceCharacteristicListAdapter.clear();
+        showAttributes(Collections.<GattAttributeRow>emptyList());
     }
 
     @Override
     public void onBLEScanningStop() {
-        runOnUiThread(new Runnable() {
+        mUiHandler.post(new Runnable() {
             @Override
             public void run() {
                 mToggleButtonScan.setChecked(false);
@@ -243,136 +243,140 @@ public class MainActivity extends Activity implements BluetoothLeService.Bluetoo
     }
 
     @Override
-    public void onBLEScanResult(final BluetoothDevice btDevice) {
-        mBLEDeviceListAdapter.addDevice(btDevice);
-        mBLEDeviceListAdapter.notifyDataSetChanged();
+    public void onBLEScanResult(final BluetoothDevice btDevice, int rssi,
+                                AdvertisingData advertisement) {
+        // List refresh is coalesced by the adapter
+        mBLEDeviceListAdapter.addDevice(btDevice, rssi);
     }
 
 
-    /** Handles various events fired by the Service.
-     * ACTION_GATT_CONNECTED: connected to a GATT server.
-     * ACTION_GATT_DISCONNECTED: disconnected from a GATT server.
-     * ACTION_GATT_SERVICES_DISCOVERED: discovered GATT services.
-     * ACTION_DATA_AVAILABLE: received data from the device. This can be a
-     * result of read or notification operations.
-     */
-    private final BroadcastReceiver mGattUpdateReceiver = new BroadcastReceiver() {
+    @Override
+    public void onConnected(BluetoothDevice btDevice) {
+        if (mBluetoothDevice == null) {
+            // Connected before this activity was created
+            mBluetoothDevice = btDevice;
+        }
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mButtonDisconnect.setEnabled(true);
+                mTextViewStatus.setText(getResources().getString(R.string.ble_connected));
+            }
+        });
+        // Discover services available. Listener callbacks run on the worker thread, where the
+        // service may be gone already.
+        BluetoothLeService service = mBluetoothLeService;
+        if (service != null) {
+            service.discoverGattServices(btDevice.getAddress());
+        }
+    }
 
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            final String action = intent.getAction();
-            if (ACTION_GATT_CONNECTED.equals(action)) {
-                Log.d(TAG, "ACTION_GATT_CONNECTED");
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mButtonDisconnect.setEnabled(true);
-                        mTextViewStatus.setText(getResources().getString(R.string.ble_connected));
-                    }
-                });
-                // Discover services available
-                mBluetoothLeService.discoverGattServices();
+    @Override
+    public void onDisconnected(BluetoothDevice btDevice) {
+        BluetoothDevice shown = mBluetoothDevice;
+        if (shown == null || !shown.getAddress().equals(btDevice.getAddress())) {
+            return; // Not the device shown
+        }
+        mNotifyCharacteristic = null;
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mButtonDisconnect.setEnabled(false);
+                mTextViewStatus.setText(getResources().getString(R.string.ble_disconnected));
             }
-            else if (ACTION_GATT_DISCONNECTED.equals(action)) {
-                Log.d(TAG, "ACTION_GATT_DISCONNECTED");
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        mButtonDisconnect.setEnabled(false);
-                        mTextViewStatus.setText(getResources().getString(R.string.ble_disconnected));
-                    }
-                });
-                mBLEServiceCharacteristicListAdapter.clear();
-                mBLEServiceCharacteristicListAdapter.notifyDataSetChanged();
+        });
+        showAttributes(Collections.<GattAttributeRow>emptyList());
+    }
+
+    @Override
+    public void onServicesDiscovered(BluetoothDevice btDevice, List<BluetoothGattService> gattServices,
+                                     int status) {
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            // The service disconnects the device
+            mUiHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mTextViewStatus.setText(getResources().getString(R.string.ble_discovery_failed));
+                }
+            });
+            showAttributes(Collections.<GattAttributeRow>emptyList());
+            return;
+        }
+        // The rows are built here, off the main thread, and diffed against the shown ones in
+        // the background by the adapter
+        List<GattAttributeRow> rows = GattAttributeRow.fromServices(gattServices);
+        showAttributes(rows);
+
+        // Notifications of the last characteristic supporting them
+        BluetoothGattCharacteristic notifyCharacteristic = null;
+        for (GattAttributeRow row : rows) {
+            if ((row.getProperties() & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0) {
+                notifyCharacteristic = row.getCharacteristic();
             }
-            else if (BluetoothLeService.ACTION_GATT_SERVICES_DISCOVERED.equals(action)) {
-                Log.d(TAG, "ACTION_GATT_SERVICES_DISCOVERED");
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        // Show all the supported services and characteristics on the
-                        // user interface.
-                        List<BluetoothGattService> gattServices = mBluetoothLeService.getSupportedGattServices();
-
-                        String serviceUUID;
-                        // Loops through available GATT Services.
-                        for (BluetoothGattService gattService : gattServices) {
-
-                            serviceUUID = gattService.getUuid().toString();
-                            Log.d(TAG, "ACTION_GATT_SERVICES_DISCOVERED uuid: " + serviceUUID);
-                            List<BluetoothGattCharacteristic> gattCharacteristics = gattService.getCharacteristics();
-
-                            // Loops through available Characteristics.
-                            for (BluetoothGattCharacteristic gattCharacteristic : gattCharacteristics) {
-                                UUID characteristicsUUID = gattCharacteristic.getUuid();
-                                Log.d(TAG, "ACTION_GATT_SERVICES_DISCOVERED characteristic uuid: " +
-                                        characteristicsUUID.toString());
-
-                                ServiceCharacteristics svcChar = new ServiceCharacteristics();
-                                svcChar.btGattCharacteristic = gattCharacteristic;
-                                svcChar.serviceUUID = uuidToFriendlyServiceName(serviceUUID);
-                                svcChar.characteristicUUID = uuidToFriendlyCharacteristicName(gattCharacteristic.getUuid().toString());
-                                mBLEServiceCharacteristicListAdapter.addSvc(svcChar);
-
-                                // Get characteristics properties
-                                int properties = gattCharacteristic.getProperties();
-
-                                if ((properties | BluetoothGattCharacteristic.PROPERTY_READ) > 0) {
-                                    // If there's an active notification. Clear it first
-                                    if (mNotifyCharacteristic != null) {
-                                        mBluetoothLeService.setCharacteristicNotification(mNotifyCharacteristic, false);
-                                        mNotifyCharacteristic = null;
-                                    }
-                                }
-
-                                if ((properties | BluetoothGattCharacteristic.PROPERTY_NOTIFY) > 0) {
-                                    mNotifyCharacteristic = gattCharacteristic;
-                                    mBluetoothLeService.setCharacteristicNotification(mNotifyCharacteristic, true);
-                                }
-                            }
-                            mBLEServiceCharacteristicListAdapter.notifyDataSetChanged();
-                        }
-                    }
-                });
+        }
+        BluetoothLeService service = mBluetoothLeService;
+        if (notifyCharacteristic == mNotifyCharacteristic || service == null) {
+            return;
+        }
+        // If there's an active notification. Clear it first
+        if (mNotifyCharacteristic != null) {
+            service.setCharacteristicNotification(btDevice.getAddress(), mNotifyCharacteristic, false);
+        }
+        mNotifyCharacteristic = notifyCharacteristic;
+        if (mNotifyCharacteristic != null) {
+            service.setCharacteristicNotification(btDevice.getAddress(), mNotifyCharacteristic, true);
+        }
+    }
+
+    /**
+     * Replace the rows shown. May be called from any thread; the list takes them in order.
+     */
+    private void showAttributes(final List<GattAttributeRow> rows) {
+        mUiHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mGattAttributeListAdapter.submitList(rows);
             }
-            else if (BluetoothLeService.ACTION_DATA_AVAILABLE.equals(action)) {
-                Log.d(TAG, "ACTION_DATA_AVAILABLE");
-                String data = intent.getStringExtra(BluetoothLeService.EXTRA_DATA);
-                Log.d(TAG, "Data: " + data);
-                Toast.makeText(getApplicationContext(), data, Toast.LENGTH_SHORT).show();
+        });
+    }
+
+    private void onAttributeClick(GattAttributeRow row) {
+        BluetoothDevice device = mBluetoothDevice;
+        BluetoothLeService service = mBluetoothLeService;
+        if (service == null || device == null) {
+            return;
+        }
+        service.readGattCharactertistics(device.getAddress(), row.getCharacteristic());
+    }
+
+    /**
+     * Received data from the device. This can be a result of read or notification operations.
+     * Only the latest value is kept, and formatted once per frame at most.
+     */
+    @Override
+    public void onValue(BluetoothDevice btDevice, UUID uuid, GattValue value) {
+        synchronized (mLastValue) {
+            mLastValue.set(uuid, value.getData(), value.getLength());
+            if (!mValueRefreshPending) {
+                mValueRefreshPending = true;
+                mTextViewValue.postOnAnimation(mValueRefreshRunnable);
             }
         }
+    }
 
-        private String uuidToFriendlyServiceName(String uuid) {
-            uuid = uuid.toUpperCase();
-            if (uuid.contains("1800"))
-                return "Generic Access";
-            else if (uuid.contains("1801"))
-                return "Generic Attribute";
-            else if (uuid.contains("180A"))
-                return "Device Information";
-            else
-                return uuid; // unknown
-        }
-
-        private String uuidToFriendlyCharacteristicName(String uuid) {
-            uuid = uuid.toUpperCase();
-            if (uuid.contains("2A00"))
-                return "Device Name";
-            else if (uuid.contains("2A01"))
-                return "Appearance";
-            else if (uuid.contains("2A05"))
-                return "Service Changed";
-            else if (uuid.contains("2A24"))
-                return "Model Number";
-            else if (uuid.contains("2A29"))
-                return "Manufacturer Name";
-            else
-                return uuid; // unknown
+    private final Runnable mValueRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            String text;
+            synchronized (mLastValue) {
+                mValueRefreshPending = false;
+                GattCodec decoded = mCodecRegistry.decode(mLastValue);
+                text = decoded != null ? decoded.toString() : mLastValue.toString();
+            }
+            mTextViewValue.setText(text);
         }
     };
 
-
     /**
      * Holder for each list item textView
      */
@@ -381,106 +385,195 @@ public class MainActivity extends Activity implements BluetoothLeService.Bluetoo
         TextView desc;
     }
 
-    static class ServiceCharacteristics {
-        BluetoothGattCharacteristic btGattCharacteristic;
-        String serviceUUID;
-        String characteristicUUID;
-    }
-
     /**
-     * Adapter for holding services and characteristic of selected device
+     * A device in the scan list, with the smoothed RSSI shown
      */
-    private class BLEServiceCharacteristicListAdapter extends BaseAdapter {
-
-        private ArrayList<ServiceCharacteristics> mSvcChars;
-        private LayoutInflater mInflator;
+    static class ScanEntry {
+        final BluetoothDevice device;
+        int rssi;
 
-        public BLEServiceCharacteristicListAdapter() {
-            super();
-            mSvcChars = new ArrayList<ServiceCharacteristics>();
-            mInflator = MainActivity.this.getLayoutInflater();
+        ScanEntry(BluetoothDevice device) {
+            this.device = device;
         }
+    }
 
-        public void clear() {
-            mSvcChars.clear();
+    /**
+     * Holder of a characteristic row
+     */
+    private class AttributeViewHolder extends RecyclerView.ViewHolder
+            implements View.OnClickListener {
+        final TextView title;
+        final TextView desc;
+
+        AttributeViewHolder(View view) {
+            super(view);
+            title = view.findViewById(R.id.device_service);
+            desc = view.findViewById(R.id.device_characteristic);
+            view.setOnClickListener(this);
         }
 
-        public void addSvc(ServiceCharacteristics svcChar) {
-            if(!mSvcChars.contains(svcChar)) {
-                mSvcChars.add(svcChar);
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                onAttributeClick(mGattAttributeListAdapter.getRow(position));
             }
         }
+    }
 
-        public ServiceCharacteristics getSvcChar(int position) {
-            return mSvcChars.get(position);
+    /**
+     * Adapter for holding services and characteristic of selected device. A new list is
+     * diffed against the shown one on a background thread, and only the rows that changed
+     * are rebound.
+     */
+    private class GattAttributeListAdapter
+            extends ListAdapter<GattAttributeRow, AttributeViewHolder> {
+
+        GattAttributeListAdapter() {
+            super(ATTRIBUTE_DIFF);
         }
 
-        @Override
-        public int getCount() {
-            return mSvcChars.size();
+        GattAttributeRow getRow(int position) {
+            return getItem(position);
         }
 
         @Override
-        public Object getItem(int i) {
-            return mSvcChars.get(i);
+        public AttributeViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            return new AttributeViewHolder(LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.list_item_ble_svc_char, parent, false));
         }
 
         @Override
-        public long getItemId(int i) {
-            return i;
+        public void onBindViewHolder(AttributeViewHolder holder, int position) {
+            GattAttributeRow row = getItem(position);
+            holder.title.setText(row.getServiceName());
+            holder.desc.setText(row.getCharacteristicName());
         }
+    }
 
+    private static final DiffUtil.ItemCallback<GattAttributeRow> ATTRIBUTE_DIFF =
+            new DiffUtil.ItemCallback<GattAttributeRow>() {
         @Override
-        public View getView(int i, View view, ViewGroup viewGroup) {
-            ViewHolder viewHolder;
-            // General ListView optimization code.
-            if (view == null) {
-                view = mInflator.inflate(R.layout.list_item_ble_svc_char, null);
-                viewHolder = new ViewHolder();
-                viewHolder.desc = (TextView) view.findViewById(R.id.device_characteristic);
-                viewHolder.title = (TextView) view.findViewById(R.id.device_service);
-                view.setTag(viewHolder);
-            } else {
-                viewHolder = (ViewHolder) view.getTag();
-            }
-
-            ServiceCharacteristics svcChar = mSvcChars.get(i);
-
-            if (svcChar.serviceUUID != null && svcChar.serviceUUID.length() > 0)
-                viewHolder.title.setText(svcChar.serviceUUID);
-            else
-                viewHolder.title.setText(R.string.ble_unknown_service);
-            viewHolder.desc.setText(svcChar.characteristicUUID);
+        public boolean areItemsTheSame(GattAttributeRow oldRow, GattAttributeRow newRow) {
+            return oldRow.isSameAttribute(newRow);
+        }
 
-            return view;
+        @Override
+        public boolean areContentsTheSame(GattAttributeRow oldRow, GattAttributeRow newRow) {
+            return oldRow.equals(newRow);
         }
-    }
+    };
 
     /**
-     * Adapter for holding devices found through scanning.
+     * Adapter for holding devices found through scanning, nearest first.
+     * Scan results may arrive on any thread at any rate. Their RSSI is smoothed and ranked as
+     * they arrive; the list takes the leading ranks at most once per display frame, on the
+     * main thread, and only if they changed. Devices not heard from for a while are dropped.
      */
     private class BLEDeviceListAdapter extends BaseAdapter {
-        private ArrayList<BluetoothDevice> mLeDevices;
+        // Devices shown, the nearest ones
+        private static final int MAX_SHOWN = 100;
+        // Weight of a new RSSI sample in the average
+        private static final float RSSI_SMOOTHING = 0.25f;
+        // Devices not advertising for that long are gone, in milliseconds
+        private static final long DEVICE_TIMEOUT = 10000;
+        private static final long EXPIRY_INTERVAL = 1000;
+
+        // Shown by the list view, only touched on the main thread
+        private ArrayList<ScanEntry> mLeDevices;
         private LayoutInflater mInflator;
+        // Every known device by address. Guards mRanking and the flags below.
+        private final HashMap<String, ScanEntry> mDeviceIndex = new HashMap<>();
+        private final RssiRanking mRanking = new RssiRanking(RSSI_SMOOTHING, MAX_SHOWN);
+        private boolean mRefreshPending;
+        private boolean mExpiryPending;
+
+        private final Runnable mRefreshRunnable = new Runnable() {
+            @Override
+            public void run() {
+                mLeDevices.clear();
+                synchronized (mDeviceIndex) {
+                    int shown = Math.min(mRanking.size(), MAX_SHOWN);
+                    for (int rank = 0; rank < shown; rank++) {
+                        ScanEntry entry = mDeviceIndex.get(mRanking.getAddress(rank));
+                        entry.rssi = Math.round(mRanking.getSmoothedRssi(rank));
+                        mLeDevices.add(entry);
+                    }
+                    mRefreshPending = false;
+                }
+                notifyDataSetChanged();
+            }
+        };
+
+        private final Runnable mExpiryRunnable = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mDeviceIndex) {
+                    mExpiryPending = false;
+                    if (mRanking.removeOlderThan(SystemClock.elapsedRealtime() - DEVICE_TIMEOUT)) {
+                        scheduleRefreshLocked();
+                    }
+                    if (mDeviceIndex.size() != mRanking.size()) {
+                        Iterator<String> addresses = mDeviceIndex.keySet().iterator();
+                        while (addresses.hasNext()) {
+                            if (mRanking.getRank(addresses.next()) < 0) {
+                                addresses.remove();
+                            }
+                        }
+                    }
+                    scheduleExpiryLocked();
+                }
+            }
+        };
 
         public BLEDeviceListAdapter() {
             super();
-            mLeDevices = new ArrayList<BluetoothDevice>();
+            mLeDevices = new ArrayList<ScanEntry>();
             mInflator = /*DeviceScanActivity*/MainActivity.this.getLayoutInflater();
         }
 
-        public void addDevice(BluetoothDevice device) {
-            if(!mLeDevices.contains(device)) {
-                mLeDevices.add(device);
+        public void addDevice(BluetoothDevice device, int rssi) {
+            String address = device.getAddress();
+            synchronized (mDeviceIndex) {
+                if (!mDeviceIndex.containsKey(address)) {
+                    mDeviceIndex.put(address, new ScanEntry(device));
+                }
+                boolean changed = mRanking.update(address, rssi, SystemClock.elapsedRealtime());
+                scheduleExpiryLocked();
+                if (!changed) {
+                    return; // Nothing shown changed
+                }
+                scheduleRefreshLocked();
             }
         }
 
         public BluetoothDevice getDevice(int position) {
-            return mLeDevices.get(position);
+            return mLeDevices.get(position).device;
         }
 
         public void clear() {
-            mLeDevices.clear();
+            synchronized (mDeviceIndex) {
+                mDeviceIndex.clear();
+                mRanking.clear();
+                mUiHandler.removeCallbacks(mExpiryRunnable);
+                mExpiryPending = false;
+                scheduleRefreshLocked();
+            }
+        }
+
+        private void scheduleExpiryLocked() {
+            if (!mExpiryPending && mRanking.size() > 0) {
+                mExpiryPending = true;
+                mUiHandler.postDelayed(mExpiryRunnable, EXPIRY_INTERVAL);
+            }
+        }
+
+        private void scheduleRefreshLocked() {
+            if (!mRefreshPending) {
+                mRefreshPending = true;
+                // Runs on the main thread with the next frame
+                mListViewBLEDevices.postOnAnimation(mRefreshRunnable);
+            }
         }
 
         @Override
@@ -490,7 +583,7 @@ public class MainActivity extends Activity implements BluetoothLeService.Bluetoo
 
         @Override
         public Object getItem(int i) {
-            return mLeDevices.get(i);
+            return mLeDevices.get(i).device;
         }
 
         @Override
@@ -512,15 +605,15 @@ public class MainActivity extends Activity implements BluetoothLeService.Bluetoo
                 viewHolder = (ViewHolder) view.getTag();
             }
 
-            BluetoothDevice device = mLeDevices.get(i);
-            final String deviceName = device.getName();
+            ScanEntry entry = mLeDevices.get(i);
+            final String deviceName = entry.device.getName();
             if (deviceName != null && deviceName.length() > 0)
                 viewHolder.title.setText(deviceName);
             else
                 viewHolder.title.setText(R.string.ble_unknown_device);
-            viewHolder.desc.setText(device.getAddress());
+            viewHolder.desc.setText(entry.device.getAddress() + "  " + entry.rssi + " dBm");
 
             return view;
         }
     }
-}
\ No newline at end of file
+}
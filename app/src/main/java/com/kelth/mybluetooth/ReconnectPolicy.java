@@ -0,0 +1,89 @@
+package com.kelth.mybluetooth;
+
+import java.util.Random;
+
+/**
+ * How a {@link GattSession} recovers a link it did not close itself. The first attempt is a
+ * direct connection made right away. Failed attempts are retried as direct connections after
+ * an exponentially growing, jittered delay. Once those run out the session can fall back to
+ * {@code autoConnect}, which waits for the device to come back in range however long it takes.
+ * A fallback that fails is retried after a delay starting at the maximum delay and doubling up
+ * to {@link #MAX_FALLBACK_DELAY}, so a stack refusing connections is not hammered.
+ */
+public class ReconnectPolicy {
+
+    // Bounds in milliseconds of the delay between autoConnect attempts
+    static final long MIN_FALLBACK_DELAY = 1000;
+    static final long MAX_FALLBACK_DELAY = 60000;
+
+    /**
+     * Never reconnect, a lost link is reported as a disconnection.
+     */
+    public static final ReconnectPolicy NONE = new ReconnectPolicy(0, 0, 0, false);
+
+    /**
+     * Five direct attempts over about 4 seconds, then autoConnect.
+     */
+    public static final ReconnectPolicy DEFAULT = new ReconnectPolicy(5, 250, 8000, true);
+
+    private final int mMaxDirectAttempts;
+    private final long mBaseDelay;
+    private final long mMaxDelay;
+    private final boolean mAutoConnectFallback;
+
+    /**
+     * @param maxDirectAttempts   Number of direct connection attempts
+     * @param baseDelay           Delay in milliseconds before the second attempt, doubled for
+     *                            each one after it
+     * @param maxDelay            Upper bound in milliseconds of the delay
+     * @param autoConnectFallback Keep waiting with {@code autoConnect} once direct attempts
+     *                            are exhausted
+     */
+    public ReconnectPolicy(int maxDirectAttempts, long baseDelay, long maxDelay,
+                           boolean autoConnectFallback) {
+        mMaxDirectAttempts = maxDirectAttempts;
+        mBaseDelay = baseDelay;
+        mMaxDelay = maxDelay;
+        mAutoConnectFallback = autoConnectFallback;
+    }
+
+    public int getMaxDirectAttempts() {
+        return mMaxDirectAttempts;
+    }
+
+    public boolean isAutoConnectFallback() {
+        return mAutoConnectFallback;
+    }
+
+    public boolean isEnabled() {
+        return mMaxDirectAttempts > 0 || mAutoConnectFallback;
+    }
+
+    /**
+     * @param attempt Index of the direct attempt, from 0
+     * @return Delay in milliseconds before the attempt. The first is immediate; later ones wait
+     *         a random time between half and all of the backoff, so devices that dropped
+     *         together do not retry in lockstep.
+     */
+    long getDelay(int attempt, Random random) {
+        if (attempt == 0) {
+            return 0;
+        }
+        return jitter(Math.min(mMaxDelay, mBaseDelay << Math.min(attempt - 1, 30)), random);
+    }
+
+    /**
+     * @param failures Number of autoConnect attempts that failed since the last connection
+     * @return Delay in milliseconds before the next autoConnect attempt, jittered as
+     *         {@link #getDelay} does
+     */
+    long getFallbackDelay(int failures, Random random) {
+        long delay = Math.max(mMaxDelay, MIN_FALLBACK_DELAY) << Math.min(failures, 30);
+        return jitter(Math.min(MAX_FALLBACK_DELAY, delay), random);
+    }
+
+    private static long jitter(long backoff, Random random) {
+        long half = backoff / 2;
+        return half + (long) (random.nextDouble() * (backoff - half));
+    }
+}
@@ -0,0 +1,192 @@
+package com.kelth.mybluetooth;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Smoothed RSSI of every device seen, kept ordered from the strongest signal. Each sample
+ * goes into an exponentially weighted moving average, and only the device it belongs to is
+ * moved, by as many ranks as its average passed; since the averages move a little at a time,
+ * that is usually none or one. State lives in primitive arrays indexed by a slot per device.
+ * <p>
+ * Devices out of range stop advertising rather than fading out, so their last average would
+ * stay forever: {@link #removeOlderThan} drops those not seen for a while.
+ * <p>
+ * Not thread safe.
+ */
+public class RssiRanking {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final float mAlpha;
+    private final int mTopK;
+    private final HashMap<String, Integer> mSlots = new HashMap<>();
+    private String[] mAddresses = new String[INITIAL_CAPACITY];
+    private float[] mSmoothed = new float[INITIAL_CAPACITY];
+    private long[] mLastSeen = new long[INITIAL_CAPACITY];
+    private int[] mRankOfSlot = new int[INITIAL_CAPACITY];
+    private int[] mSlotAtRank = new int[INITIAL_CAPACITY];
+    private int mSize;
+
+    /**
+     * @param alpha Weight of a new sample, from 0 exclusive to 1. Smaller is smoother.
+     * @param topK  Number of leading ranks whose changes {@link #update} reports
+     */
+    public RssiRanking(float alpha, int topK) {
+        mAlpha = alpha;
+        mTopK = topK;
+    }
+
+    /**
+     * Add a sample, the first one of a device being its average.
+     *
+     * @param time When the sample was received, on the clock given to {@link #removeOlderThan}
+     * @return true if the first {@code topK} ranks changed: the device moved into, out of or
+     *         within them, or its rounded average changed while in them
+     */
+    public boolean update(String address, int rssi, long time) {
+        Integer existing = mSlots.get(address);
+        int slot;
+        int oldRank;
+        int oldRounded;
+        if (existing == null) {
+            slot = add(address, rssi);
+            oldRank = Integer.MAX_VALUE;
+            oldRounded = Integer.MIN_VALUE;
+        } else {
+            slot = existing;
+            oldRank = mRankOfSlot[slot];
+            oldRounded = Math.round(mSmoothed[slot]);
+            mSmoothed[slot] += mAlpha * (rssi - mSmoothed[slot]);
+        }
+        mLastSeen[slot] = time;
+        int newRank = reposition(slot);
+        if (oldRank >= mTopK && newRank >= mTopK) {
+            return false;
+        }
+        return newRank != oldRank || Math.round(mSmoothed[slot]) != oldRounded;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @param rank 0 for the strongest signal, up to {@link #size()}
+     */
+    public String getAddress(int rank) {
+        return mAddresses[mSlotAtRank[rank]];
+    }
+
+    /**
+     * @return Smoothed RSSI in dBm of the device at {@code rank}
+     */
+    public float getSmoothedRssi(int rank) {
+        return mSmoothed[mSlotAtRank[rank]];
+    }
+
+    /**
+     * @return Rank of a device, -1 if never seen
+     */
+    public int getRank(String address) {
+        Integer slot = mSlots.get(address);
+        return slot != null ? mRankOfSlot[slot] : -1;
+    }
+
+    /**
+     * Drop the devices whose last sample is older than {@code time}. Walks every device, call
+     * it periodically rather than per sample.
+     *
+     * @return true if the first {@code topK} ranks changed
+     */
+    public boolean removeOlderThan(long time) {
+        // Close the gaps in the ranks, the order of the devices kept does not change
+        int kept = 0;
+        boolean topChanged = false;
+        for (int rank = 0; rank < mSize; rank++) {
+            int slot = mSlotAtRank[rank];
+            if (mLastSeen[slot] < time) {
+                mSlots.remove(mAddresses[slot]);
+                mAddresses[slot] = null;
+                topChanged |= rank < mTopK;
+            } else {
+                place(slot, kept++);
+            }
+        }
+        if (kept == mSize) {
+            return false;
+        }
+        // Then the gaps in the slots
+        int next = 0;
+        for (int slot = 0; slot < mSize; slot++) {
+            if (mAddresses[slot] == null) {
+                continue;
+            }
+            if (slot != next) {
+                mAddresses[next] = mAddresses[slot];
+                mAddresses[slot] = null;
+                mSmoothed[next] = mSmoothed[slot];
+                mLastSeen[next] = mLastSeen[slot];
+                mSlots.put(mAddresses[next], next);
+                place(next, mRankOfSlot[slot]);
+            }
+            next++;
+        }
+        mSize = kept;
+        return topChanged;
+    }
+
+    public void clear() {
+        mSlots.clear();
+        Arrays.fill(mAddresses, 0, mSize, null);
+        mSize = 0;
+    }
+
+    private int add(String address, int rssi) {
+        if (mSize == mAddresses.length) {
+            grow();
+        }
+        int slot = mSize++;
+        mSlots.put(address, slot);
+        mAddresses[slot] = address;
+        mSmoothed[slot] = rssi;
+        // Start last, reposition() moves it up
+        mRankOfSlot[slot] = slot;
+        mSlotAtRank[slot] = slot;
+        return slot;
+    }
+
+    /**
+     * Move a slot whose average changed to its rank, shifting the ones it passes by one.
+     *
+     * @return Its new rank
+     */
+    private int reposition(int slot) {
+        float smoothed = mSmoothed[slot];
+        int rank = mRankOfSlot[slot];
+        while (rank > 0 && mSmoothed[mSlotAtRank[rank - 1]] < smoothed) {
+            place(mSlotAtRank[rank - 1], rank);
+            rank--;
+        }
+        while (rank < mSize - 1 && mSmoothed[mSlotAtRank[rank + 1]] > smoothed) {
+            place(mSlotAtRank[rank + 1], rank);
+            rank++;
+        }
+        place(slot, rank);
+        return rank;
+    }
+
+    private void place(int slot, int rank) {
+        mSlotAtRank[rank] = slot;
+        mRankOfSlot[slot] = rank;
+    }
+
+    private void grow() {
+        int capacity = mAddresses.length * 2;
+        mAddresses = Arrays.copyOf(mAddresses, capacity);
+        mSmoothed = Arrays.copyOf(mSmoothed, capacity);
+        mLastSeen = Arrays.copyOf(mLastSeen, capacity);
+        mRankOfSlot = Arrays.copyOf(mRankOfSlot, capacity);
+        mSlotAtRank = Arrays.copyOf(mSlotAtRank, capacity);
+    }
+}
@@ -0,0 +1,71 @@
+package com.kelth.mybluetooth;
+
+/**
+ * How much of the time a {@link ScanScheduler} keeps the radio scanning. Scans run in windows
+ * started every interval. The interval starts short and doubles after each window that found
+ * nothing new, up to the longest interval, which bounds how long a device advertising in range
+ * can go unseen. A new or target device brings it back to the shortest interval and keeps the
+ * current window open a little longer.
+ */
+public class ScanDutyCycle {
+
+    /**
+     * 4 second windows, every 8 seconds at first, down to every minute once nothing changes.
+     */
+    public static final ScanDutyCycle DEFAULT = new ScanDutyCycle(4000, 6000, 8000, 60000);
+
+    /**
+     * 2 second windows, every 15 seconds at first, down to every 2 minutes.
+     */
+    public static final ScanDutyCycle LOW_POWER = new ScanDutyCycle(2000, 6000, 15000, 120000);
+
+    private final long mWindow;
+    private final long mMaxWindow;
+    private final long mMinInterval;
+    private final long mMaxInterval;
+
+    /**
+     * All in milliseconds.
+     *
+     * @param window      Length of a window
+     * @param maxWindow   Longest a window is kept open while new devices keep showing up
+     * @param minInterval Time from one window start to the next while devices show up, longer
+     *                    than {@code maxWindow}. Below 6 seconds the platform limit on scan
+     *                    starts delays some windows.
+     * @param maxInterval Time from one window start to the next in a stable environment
+     */
+    public ScanDutyCycle(long window, long maxWindow, long minInterval, long maxInterval) {
+        if (window <= 0 || maxWindow < window || minInterval <= maxWindow
+                || maxInterval < minInterval) {
+            throw new IllegalArgumentException("Need 0 < window <= maxWindow < minInterval"
+                    + " <= maxInterval");
+        }
+        mWindow = window;
+        mMaxWindow = maxWindow;
+        mMinInterval = minInterval;
+        mMaxInterval = maxInterval;
+    }
+
+    public long getWindow() {
+        return mWindow;
+    }
+
+    public long getMaxWindow() {
+        return mMaxWindow;
+    }
+
+    public long getMinInterval() {
+        return mMinInterval;
+    }
+
+    public long getMaxInterval() {
+        return mMaxInterval;
+    }
+
+    /**
+     * @return Longest time in milliseconds between two windows
+     */
+    public long getMaxIdle() {
+        return mMaxInterval - mWindow;
+    }
+}
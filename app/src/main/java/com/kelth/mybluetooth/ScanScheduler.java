@@ -0,0 +1,208 @@
+package com.kelth.mybluetooth;
+
+import java.util.HashSet;
+
+/**
+ * Runs a scan in windows following a {@link ScanDutyCycle}, instead of keeping the radio
+ * scanning the whole time. Windows are delayed as needed so that no more than
+ * {@link #MAX_STARTS} scans are started within {@link #START_LIMIT_PERIOD}; past that, Android
+ * 7 and later quietly ignore the start and the app gets no results.
+ * <p>
+ * Runs on the thread of the {@link GattScheduler}, which must also call
+ * {@link #onDeviceSeen}.
+ */
+public class ScanScheduler {
+
+    public static final int MAX_STARTS = 5;
+    public static final long START_LIMIT_PERIOD = 30000;  // In milliseconds
+    // The stack measures the period on its own clock
+    private static final long START_LIMIT_SLACK = 500;  // In milliseconds
+    // Addresses remembered before starting over, bounds memory with random addresses
+    private static final int MAX_SEEN = 4096;
+
+    private final GattScheduler mScheduler;
+    private final Scanner mScanner;
+    private ScanDutyCycle mDutyCycle;
+
+    // Times of the last MAX_STARTS starts, the oldest at mStartCount % MAX_STARTS
+    private final long[] mStartTimes = new long[MAX_STARTS];
+    private int mStartCount;
+    private final HashSet<String> mSeen = new HashSet<>();
+    private boolean mRunning;
+    private boolean mScanning;
+    private long mInterval;
+    private long mWindowStart;
+    private long mWindowEnd;
+    private boolean mFoundInWindow;
+    private long mScanningTime;
+
+    public ScanScheduler(GattScheduler scheduler, ScanDutyCycle dutyCycle, Scanner scanner) {
+        mScheduler = scheduler;
+        mDutyCycle = dutyCycle;
+        mScanner = scanner;
+    }
+
+    /**
+     * Start the first window now, or as soon as the start limit allows. Every device is new
+     * again.
+     */
+    public void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mSeen.clear();
+        mInterval = mDutyCycle.getMinInterval();
+        startWindow();
+    }
+
+    /**
+     * Stop scanning and cancel the next window.
+     */
+    public void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mScheduler.removeCallbacks(mStartRunnable);
+        mScheduler.removeCallbacks(mEndRunnable);
+        if (mScanning) {
+            endScan();
+        }
+    }
+
+    /**
+     * Report a scan result.
+     *
+     * @param target true if the device is one the app is looking for, which keeps the duty
+     *               cycle up for as long as it is around
+     */
+    public void onDeviceSeen(String address, boolean target) {
+        if (!mScanning) {
+            return;
+        }
+        if (mSeen.size() >= MAX_SEEN) {
+            mSeen.clear();
+        }
+        if (mSeen.add(address) || target) {
+            mFoundInWindow = true;
+            mInterval = mDutyCycle.getMinInterval();
+            long now = mScheduler.uptimeMillis();
+            mWindowEnd = Math.max(mWindowEnd, Math.min(now + mDutyCycle.getWindow(),
+                    mWindowStart + mDutyCycle.getMaxWindow()));
+        }
+    }
+
+    /**
+     * Applies from the next window.
+     */
+    public void setDutyCycle(ScanDutyCycle dutyCycle) {
+        mDutyCycle = dutyCycle;
+        mInterval = Math.max(dutyCycle.getMinInterval(),
+                Math.min(mInterval, dutyCycle.getMaxInterval()));
+    }
+
+    public ScanDutyCycle getDutyCycle() {
+        return mDutyCycle;
+    }
+
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    public boolean isScanning() {
+        return mScanning;
+    }
+
+    /**
+     * @return Time in milliseconds from the start of the current window to the next
+     */
+    public long getInterval() {
+        return mInterval;
+    }
+
+    /**
+     * @return Total time in milliseconds spent scanning, windows in progress included
+     */
+    public long getScanningTime() {
+        long time = mScanningTime;
+        if (mScanning) {
+            time += mScheduler.uptimeMillis() - mWindowStart;
+        }
+        return time;
+    }
+
+    private void startWindow() {
+        long now = mScheduler.uptimeMillis();
+        long earliest = earliestStart(now);
+        if (earliest > now) {
+            mScheduler.postDelayed(mStartRunnable, earliest - now);
+            return;
+        }
+        if (!mScanner.startScan()) {
+            mRunning = false;
+            return;
+        }
+        mStartTimes[mStartCount++ % MAX_STARTS] = now;
+        mScanning = true;
+        mFoundInWindow = false;
+        mWindowStart = now;
+        mWindowEnd = now + mDutyCycle.getWindow();
+        mScheduler.postDelayed(mEndRunnable, mDutyCycle.getWindow());
+    }
+
+    /**
+     * @return Earliest time a scan may start without exceeding the start limit
+     */
+    private long earliestStart(long now) {
+        if (mStartCount < MAX_STARTS) {
+            return now;
+        }
+        long oldest = mStartTimes[mStartCount % MAX_STARTS];
+        return Math.max(now, oldest + START_LIMIT_PERIOD + START_LIMIT_SLACK);
+    }
+
+    private void endScan() {
+        mScanner.stopScan();
+        mScanning = false;
+        mScanningTime += mScheduler.uptimeMillis() - mWindowStart;
+    }
+
+    private final Runnable mStartRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startWindow();
+        }
+    };
+
+    private final Runnable mEndRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long now = mScheduler.uptimeMillis();
+            if (now < mWindowEnd) {
+                // Extended by new devices
+                mScheduler.postDelayed(this, mWindowEnd - now);
+                return;
+            }
+            endScan();
+            if (!mFoundInWindow) {
+                mInterval = Math.min(mInterval * 2, mDutyCycle.getMaxInterval());
+            }
+            mScheduler.postDelayed(mStartRunnable,
+                    Math.max(0, mWindowStart + mInterval - now));
+        }
+    };
+
+    /**
+     * Starts and stops the actual scan.
+     */
+    public interface Scanner {
+        /**
+         * @return false if the scan could not start, e.g. Bluetooth is off. The scheduler
+         *         then stops.
+         */
+        boolean startScan();
+
+        void stopScan();
+    }
+}
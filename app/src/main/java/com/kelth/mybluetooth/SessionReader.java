@@ -0,0 +1,199 @@
+package com.kelth.mybluetooth;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Iterates the values of a recording made by {@link SessionRecorder}, oldest first. Segments
+ * are mapped one at a time, so a recording of any size is read without loading it.
+ *
+ * <pre>
+ *   SessionReader reader = new SessionReader(directory);
+ *   while (reader.next()) {
+ *       reader.getTimestamp(); reader.getDeviceAddress(); reader.getValue(buffer); ...
+ *   }
+ *   reader.close();
+ * </pre>
+ * The getters describe the current value and are valid until the next call to {@link #next()}.
+ */
+public class SessionReader implements Closeable {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final File[] mSegmentFiles;
+    private final ArrayList<String> mDevices = new ArrayList<>();
+    private final ArrayList<UUID> mCharacteristics = new ArrayList<>();
+    private int mSegmentIndex = -1;
+    private MappedByteBuffer mSegment;
+
+    private long mTimestamp;
+    private int mDeviceIndex;
+    private int mCharacteristicIndex;
+    private int mValueOffset;
+    private int mValueLength;
+
+    public SessionReader(File directory) throws IOException {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(SessionRecorder.SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            throw new IOException("Cannot list " + directory);
+        }
+        // Names carry the zero padded segment number
+        Arrays.sort(files);
+        mSegmentFiles = files;
+    }
+
+    /**
+     * Move to the next value.
+     *
+     * @return false at the end of the recording
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            if (mSegment == null && !openNextSegment()) {
+                return false;
+            }
+            MappedByteBuffer segment = mSegment;
+            if (segment.remaining() < 2) {
+                mSegment = null;
+                continue;
+            }
+            int length = (segment.getShort() & 0xFFFF) - 1;
+            if (length < 0 || segment.remaining() < SessionRecorder.RECORD_HEADER_SIZE - 2 + length) {
+                mSegment = null; // End of segment
+                continue;
+            }
+            int type = segment.get();
+            int device = segment.getShort() & 0xFFFF;
+            int characteristic = segment.getShort() & 0xFFFF;
+            long timestamp = segment.getLong();
+            int offset = segment.position();
+            segment.position(offset + length);
+
+            switch (type) {
+                case SessionRecorder.TYPE_VALUE:
+                    mTimestamp = timestamp;
+                    mDeviceIndex = device;
+                    mCharacteristicIndex = characteristic;
+                    mValueOffset = offset;
+                    mValueLength = length;
+                    return true;
+                case SessionRecorder.TYPE_DEVICE:
+                    byte[] ascii = new byte[length];
+                    segment.position(offset);
+                    segment.get(ascii);
+                    define(mDevices, device, new String(ascii, ASCII));
+                    break;
+                case SessionRecorder.TYPE_CHARACTERISTIC:
+                    define(mCharacteristics, characteristic,
+                            new UUID(segment.getLong(offset), segment.getLong(offset + 8)));
+                    break;
+                default:
+                    // Written by a later version, skip it
+                    break;
+            }
+        }
+    }
+
+    /**
+     * @return {@code System.nanoTime()} of the value when it was recorded
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public int getDeviceIndex() {
+        return mDeviceIndex;
+    }
+
+    public String getDeviceAddress() {
+        return mDevices.get(mDeviceIndex);
+    }
+
+    public int getCharacteristicIndex() {
+        return mCharacteristicIndex;
+    }
+
+    public UUID getCharacteristicUuid() {
+        return mCharacteristics.get(mCharacteristicIndex);
+    }
+
+    /**
+     * @return Number of devices seen so far
+     */
+    public int getDeviceCount() {
+        return mDevices.size();
+    }
+
+    public int getValueLength() {
+        return mValueLength;
+    }
+
+    public byte getValueByte(int index) {
+        return mSegment.get(mValueOffset + index);
+    }
+
+    /**
+     * Copy the value to {@code buffer}, which must hold {@link #getValueLength()} bytes.
+     *
+     * @return The length of the value
+     */
+    public int getValue(byte[] buffer) {
+        for (int i = 0; i < mValueLength; i++) {
+            buffer[i] = mSegment.get(mValueOffset + i);
+        }
+        return mValueLength;
+    }
+
+    @Override
+    public void close() {
+        mSegment = null;
+        mSegmentIndex = mSegmentFiles.length;
+    }
+
+    private boolean openNextSegment() throws IOException {
+        if (++mSegmentIndex >= mSegmentFiles.length) {
+            mSegmentIndex = mSegmentFiles.length;
+            return false;
+        }
+        RandomAccessFile file = new RandomAccessFile(mSegmentFiles[mSegmentIndex], "r");
+        try {
+            MappedByteBuffer segment = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            if (segment.remaining() < SessionRecorder.SEGMENT_HEADER_SIZE
+                    || segment.getInt() != SessionRecorder.MAGIC) {
+                throw new IOException("Not a session segment: " + mSegmentFiles[mSegmentIndex]);
+            }
+            int version = segment.getInt();
+            if (version > SessionRecorder.VERSION) {
+                throw new IOException("Unsupported session format " + version);
+            }
+            segment.getInt(); // Segment number
+            mSegment = segment;
+            return true;
+        } finally {
+            file.close();
+        }
+    }
+
+    private static <T> void define(ArrayList<T> table, int index, T value) {
+        while (table.size() <= index) {
+            table.add(null);
+        }
+        table.set(index, value);
+    }
+}
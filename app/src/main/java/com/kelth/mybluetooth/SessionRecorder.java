@@ -0,0 +1,294 @@
+package com.kelth.mybluetooth;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Appends characteristic values to a recording made of fixed-size, memory-mapped segment
+ * files, read back with {@link SessionReader}.
+ *
+ * <p>Recording a value copies it into the mapped segment and never waits on the disk. The
+ * next segment is created and mapped ahead of time on a background thread; if it is not
+ * ready when the current one fills up the value is dropped and counted instead.
+ *
+ * <p>Every segment starts with a {@link #SEGMENT_HEADER_SIZE} byte header: magic, format
+ * version and segment number. Records follow, each made of
+ * <pre>
+ *   u16  payload length + 1, 0 marks the end of the segment
+ *   u8   record type, one of TYPE_*
+ *   u16  device index
+ *   u16  characteristic index
+ *   i64  System.nanoTime() of the event
+ *   ...  payload
+ * </pre>
+ * Devices and characteristics are given an index when first seen, announced by a
+ * {@code TYPE_DEVICE} record holding the address in ASCII or a {@code TYPE_CHARACTERISTIC}
+ * record holding the 16 bytes of the UUID.
+ */
+public class SessionRecorder {
+
+    static final int MAGIC = 0x424c4553;  // "BLES"
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_SIZE = 12;
+    static final int RECORD_HEADER_SIZE = 15;
+    static final String SEGMENT_SUFFIX = ".bles";
+
+    static final int TYPE_VALUE = 1;
+    static final int TYPE_DEVICE = 2;
+    static final int TYPE_CHARACTERISTIC = 3;
+
+    static final int MAX_PAYLOAD = 0xFFFE;
+    static final int MAX_INDEX = 0xFFFF;
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final File mDirectory;
+    private final int mSegmentSize;
+    private final ExecutorService mMapper;
+    private final HashMap<String, Integer> mDeviceIndexes = new HashMap<>();
+    private final HashMap<UUID, Integer> mCharacteristicIndexes = new HashMap<>();
+    private final byte[] mUuidBytes = new byte[16];
+
+    // Guarded by this
+    private MappedByteBuffer mSegment;
+    private int mSegmentNumber;
+    private Future<MappedByteBuffer> mNextSegment;
+    private long mRecordCount;
+    private long mDroppedCount;
+    private boolean mClosed;
+
+    /**
+     * @param directory Empty directory, created if needed, that receives the segment files
+     */
+    public SessionRecorder(File directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize Size in bytes of each segment file
+     */
+    public SessionRecorder(File directory, int segmentSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        if (segmentSize < SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE + MAX_PAYLOAD + 2) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+        }
+        mDirectory = directory;
+        mSegmentSize = segmentSize;
+        mMapper = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SessionRecorder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mSegment = mapSegment(0);
+        mNextSegment = prepareSegment(1);
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Record a characteristic value.
+     *
+     * @param timestamp {@code System.nanoTime()} of the event
+     * @return false if the value was dropped
+     */
+    public synchronized boolean record(long timestamp, String address, UUID characteristic,
+                                       byte[] value, int length) {
+        if (mClosed || length > MAX_PAYLOAD) {
+            mDroppedCount++;
+            return false;
+        }
+        int device = deviceIndex(timestamp, address);
+        int characteristicIndex = characteristicIndex(timestamp, characteristic);
+        if (device < 0 || characteristicIndex < 0
+                || !append(TYPE_VALUE, device, characteristicIndex, timestamp, value, length)) {
+            mDroppedCount++;
+            return false;
+        }
+        mRecordCount++;
+        return true;
+    }
+
+    /**
+     * @return Number of values recorded
+     */
+    public synchronized long getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * @return Number of values dropped because the next segment was not ready in time
+     */
+    public synchronized long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Flush the recording to disk and stop. Values recorded afterwards are dropped.
+     */
+    public void close() throws IOException {
+        MappedByteBuffer segment;
+        Future<MappedByteBuffer> next;
+        int nextNumber;
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            segment = mSegment;
+            next = mNextSegment;
+            nextNumber = mSegmentNumber + 1;
+            mSegment = null;
+            mNextSegment = null;
+        }
+        if (segment != null) {
+            segment.force();
+        }
+        if (next != null) {
+            // Never written to
+            next.cancel(false);
+            try {
+                next.get();
+            } catch (Exception e) {
+                // Cancelled or failed, either way there is nothing to keep
+            }
+            segmentFile(mDirectory, nextNumber).delete();
+        }
+        mMapper.shutdown();
+    }
+
+    // Call with the lock held. Returns -1 if the device cannot be announced.
+    private int deviceIndex(long timestamp, String address) {
+        Integer index = mDeviceIndexes.get(address);
+        if (index != null) {
+            return index;
+        }
+        int newIndex = mDeviceIndexes.size();
+        byte[] ascii = address.getBytes(ASCII);
+        if (newIndex > MAX_INDEX
+                || !append(TYPE_DEVICE, newIndex, 0, timestamp, ascii, ascii.length)) {
+            return -1;
+        }
+        mDeviceIndexes.put(address, newIndex);
+        return newIndex;
+    }
+
+    // Call with the lock held. Returns -1 if the characteristic cannot be announced.
+    private int characteristicIndex(long timestamp, UUID uuid) {
+        Integer index = mCharacteristicIndexes.get(uuid);
+        if (index != null) {
+            return index;
+        }
+        int newIndex = mCharacteristicIndexes.size();
+        putLong(mUuidBytes, 0, uuid.getMostSignificantBits());
+        putLong(mUuidBytes, 8, uuid.getLeastSignificantBits());
+        if (newIndex > MAX_INDEX
+                || !append(TYPE_CHARACTERISTIC, 0, newIndex, timestamp, mUuidBytes, 16)) {
+            return -1;
+        }
+        mCharacteristicIndexes.put(uuid, newIndex);
+        return newIndex;
+    }
+
+    // Call with the lock held
+    private boolean append(int type, int device, int characteristic, long timestamp,
+                           byte[] payload, int length) {
+        // Keep room for the end of segment marker
+        if (mSegment.remaining() < RECORD_HEADER_SIZE + length + 2 && !nextSegment()) {
+            return false;
+        }
+        MappedByteBuffer segment = mSegment;
+        segment.putShort((short) (length + 1));
+        segment.put((byte) type);
+        segment.putShort((short) device);
+        segment.putShort((short) characteristic);
+        segment.putLong(timestamp);
+        segment.put(payload, 0, length);
+        return true;
+    }
+
+    // Call with the lock held
+    private boolean nextSegment() {
+        if (!mNextSegment.isDone()) {
+            return false; // Mapping is late, never wait for it
+        }
+        MappedByteBuffer next;
+        try {
+            next = mNextSegment.get();
+        } catch (Exception e) {
+            // Retry mapping, values are dropped meanwhile
+            mNextSegment = prepareSegment(mSegmentNumber + 1);
+            return false;
+        }
+        final MappedByteBuffer full = mSegment;
+        // The rest of the file is zero, which already reads as the end of segment marker
+        mMapper.execute(new Runnable() {
+            @Override
+            public void run() {
+                full.force();
+            }
+        });
+        mSegment = next;
+        mSegmentNumber++;
+        mNextSegment = prepareSegment(mSegmentNumber + 1);
+        return true;
+    }
+
+    private Future<MappedByteBuffer> prepareSegment(final int number) {
+        return mMapper.submit(new Callable<MappedByteBuffer>() {
+            @Override
+            public MappedByteBuffer call() throws IOException {
+                return mapSegment(number);
+            }
+        });
+    }
+
+    private MappedByteBuffer mapSegment(int number) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(mDirectory, number), "rw");
+        try {
+            file.setLength(mSegmentSize);
+            // The mapping stays valid once the file is closed
+            MappedByteBuffer segment = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+            segment.order(ByteOrder.LITTLE_ENDIAN);
+            segment.putInt(MAGIC);
+            segment.putInt(VERSION);
+            segment.putInt(number);
+            return segment;
+        } finally {
+            file.close();
+        }
+    }
+
+    static File segmentFile(File directory, int number) {
+        return new File(directory, String.format(Locale.US, "segment-%05d%s", number, SEGMENT_SUFFIX));
+    }
+
+    // Little endian, like the rest of the segment
+    private static void putLong(byte[] bytes, int offset, long value) {
+        for (int i = 0; i < 8; i++) {
+            bytes[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+}
@@ -0,0 +1,538 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link GattBackend} without hardware: a set of {@link SimulatedPeripheral}s with their own
+ * latency, loss and link drops. Answers, notifications and link events all run on the given
+ * {@link GattScheduler}, so with a virtual time scheduler hundreds of devices can be driven
+ * from a plain JVM test, and with a {@link HandlerScheduler} the app runs on them.
+ *
+ * <p>Like the real stack, a connection runs one request at a time and refuses the next one
+ * while an answer is pending. Recorded sessions can be replayed as notifications with
+ * {@link #replay(File)}.
+ */
+public class SimulatedGattBackend implements GattBackend {
+
+    // GATT_CONN_TIMEOUT, the status of a link lost to supervision timeout
+    public static final int STATUS_LINK_LOST = 8;
+    // GATT_ERROR, the status of a failed connection attempt
+    public static final int STATUS_CONNECT_FAILED = 133;
+
+    /**
+     * Service holding the characteristics of replayed devices
+     */
+    public static final UUID REPLAY_SERVICE = UUID.fromString("7e5e0000-0000-1000-8000-00805f9b34fb");
+
+    // How long a direct connection to a device that does not exist takes to fail
+    private static final long DIRECT_CONNECT_TIMEOUT = 30000;
+
+    private final GattScheduler mScheduler;
+    private final Random mRandom;
+    private final ConcurrentHashMap<String, SimulatedPeripheral> mPeripherals = new ConcurrentHashMap<>();
+    // Connection to each peripheral, only touched on the scheduler thread
+    private final ConcurrentHashMap<String, Connection> mLinks = new ConcurrentHashMap<>();
+
+    /**
+     * @param seed Seed of the random latencies, losses and drops, so runs can be repeated
+     */
+    public SimulatedGattBackend(GattScheduler scheduler, long seed) {
+        mScheduler = scheduler;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * @return The peripheral with this address, created if needed
+     */
+    public SimulatedPeripheral addPeripheral(String address) {
+        SimulatedPeripheral peripheral = mPeripherals.get(address);
+        if (peripheral == null) {
+            peripheral = new SimulatedPeripheral(address);
+            SimulatedPeripheral existing = mPeripherals.putIfAbsent(address, peripheral);
+            if (existing != null) {
+                peripheral = existing;
+            }
+        }
+        return peripheral;
+    }
+
+    public SimulatedPeripheral getPeripheral(String address) {
+        return mPeripherals.get(address);
+    }
+
+    public Collection<SimulatedPeripheral> getPeripherals() {
+        return Collections.unmodifiableCollection(mPeripherals.values());
+    }
+
+    /**
+     * Replay a recording of {@link SessionRecorder} from now on, with its original timing.
+     * Recorded devices and characteristics are added as peripherals if needed; recorded values
+     * are notified to whoever has them enabled at that point.
+     */
+    public void replay(File recording) throws IOException {
+        SessionReader reader = new SessionReader(recording);
+        try {
+            while (reader.next()) {
+                SimulatedPeripheral peripheral = addPeripheral(reader.getDeviceAddress());
+                if (peripheral.indexOf(reader.getCharacteristicUuid()) < 0) {
+                    peripheral.addCharacteristic(REPLAY_SERVICE, reader.getCharacteristicUuid(),
+                            BluetoothGattCharacteristic.PROPERTY_READ
+                                    | BluetoothGattCharacteristic.PROPERTY_NOTIFY,
+                            0, reader.getValueLength());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        mScheduler.post(new Replay(new SessionReader(recording)));
+    }
+
+    @Override
+    public GattBackend.Connection connect(String address, boolean autoConnect, Callback callback) {
+        final Connection connection = new Connection(address, mPeripherals.get(address), callback);
+        mScheduler.post(new Runnable() {
+            @Override
+            public void run() {
+                connection.attempt();
+            }
+        });
+        return connection;
+    }
+
+    private long latency(SimulatedPeripheral peripheral) {
+        long min = peripheral.getMinLatency();
+        long max = peripheral.getMaxLatency();
+        return max > min ? min + (long) (mRandom.nextDouble() * (max - min)) : min;
+    }
+
+    private boolean chance(double probability) {
+        return probability > 0 && mRandom.nextDouble() < probability;
+    }
+
+    private static int phy(int phyMask) {
+        if ((phyMask & BluetoothDevice.PHY_LE_2M_MASK) != 0) {
+            return BluetoothDevice.PHY_LE_2M;
+        }
+        if ((phyMask & BluetoothDevice.PHY_LE_CODED_MASK) != 0) {
+            return BluetoothDevice.PHY_LE_CODED;
+        }
+        return BluetoothDevice.PHY_LE_1M;
+    }
+
+    private final class Connection implements GattBackend.Connection {
+        private static final int CONNECTING = 0;
+        private static final int CONNECTED = 1;
+        private static final int DISCONNECTED = 2;
+        private static final int CLOSED = 3;
+
+        private final String mAddress;
+        private final SimulatedPeripheral mPeripheral;
+        private final Callback mCallback;
+        // Guarded by this
+        private int mState = CONNECTING;
+        private boolean mBusy;
+        private boolean mDiscovered;
+        private boolean[] mNotifying;
+
+        Connection(String address, SimulatedPeripheral peripheral, Callback callback) {
+            mAddress = address;
+            mPeripheral = peripheral;
+            mCallback = callback;
+        }
+
+        /*
+         * Link events
+         */
+
+        // On the scheduler thread
+        void attempt() {
+            if (mPeripheral == null) {
+                // Nobody answers. A pending autoConnect just keeps waiting.
+                mScheduler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        linkDown(CONNECTING, STATUS_CONNECT_FAILED);
+                    }
+                }, DIRECT_CONNECT_TIMEOUT);
+                return;
+            }
+            final boolean fail = chance(mPeripheral.getConnectFailureRate());
+            mScheduler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    if (fail) {
+                        linkDown(CONNECTING, STATUS_CONNECT_FAILED);
+                    } else {
+                        linkUp();
+                    }
+                }
+            }, latency(mPeripheral));
+        }
+
+        private void linkUp() {
+            synchronized (this) {
+                if (mState != CONNECTING) {
+                    return;
+                }
+                mState = CONNECTED;
+                mNotifying = new boolean[mPeripheral.getAttributeCount()];
+            }
+            mLinks.put(mAddress, this);
+            long meanUp = mPeripheral.getMeanTimeBetweenDisconnects();
+            if (meanUp > 0) {
+                // Exponentially distributed time to the next drop
+                long up = (long) (-meanUp * Math.log(1 - mRandom.nextDouble()));
+                mScheduler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        linkDown(CONNECTED, STATUS_LINK_LOST);
+                    }
+                }, up);
+            }
+            mCallback.onConnectionStateChange(this, BluetoothGatt.GATT_SUCCESS,
+                    BluetoothProfile.STATE_CONNECTED);
+        }
+
+        private void linkDown(int expectedState, int status) {
+            synchronized (this) {
+                if (mState != expectedState) {
+                    return;
+                }
+                mState = DISCONNECTED;
+                mBusy = false;
+            }
+            mLinks.remove(mAddress, this);
+            mCallback.onConnectionStateChange(this, status, BluetoothProfile.STATE_DISCONNECTED);
+        }
+
+        /*
+         * Requests
+         */
+
+        /**
+         * Run a request on the peripheral after its latency. The request always takes effect,
+         * but its answer may be lost on the way back.
+         *
+         * @return false if the request cannot be started
+         */
+        private boolean request(final Request request) {
+            synchronized (this) {
+                if (mState != CONNECTED || mBusy) {
+                    return false;
+                }
+                mBusy = true;
+            }
+            final boolean lost = chance(mPeripheral.getLossRate());
+            mScheduler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (Connection.this) {
+                        if (mState != CONNECTED) {
+                            return;
+                        }
+                        mBusy = false;
+                    }
+                    request.apply();
+                    if (!lost) {
+                        request.answer();
+                    }
+                }
+            }, latency(mPeripheral));
+            return true;
+        }
+
+        @Override
+        public String getAddress() {
+            return mAddress;
+        }
+
+        @Override
+        public boolean discoverServices() {
+            return request(new Request() {
+                @Override
+                void apply() {
+                    synchronized (Connection.this) {
+                        mDiscovered = true;
+                    }
+                }
+
+                @Override
+                void answer() {
+                    mCallback.onServicesDiscovered(Connection.this, BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public synchronized List<BluetoothGattService> getServices() {
+            if (!mDiscovered) {
+                return Collections.emptyList();
+            }
+            return new ArrayList<>(mPeripheral.getServices());
+        }
+
+        @Override
+        public boolean readCharacteristic(final BluetoothGattCharacteristic characteristic) {
+            final int index = mPeripheral != null ? mPeripheral.indexOf(characteristic) : -1;
+            if (index < 0) {
+                return false;
+            }
+            return request(new Request() {
+                @Override
+                void answer() {
+                    byte[] value = mPeripheral.getAttribute(index).value.clone();
+                    characteristic.setValue(value);
+                    mCallback.onCharacteristicRead(Connection.this, characteristic, value,
+                            BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public boolean writeCharacteristic(final BluetoothGattCharacteristic characteristic,
+                                           final byte[] value, int writeType) {
+            final int index = mPeripheral != null ? mPeripheral.indexOf(characteristic) : -1;
+            if (index < 0) {
+                return false;
+            }
+            // Taken now, as the stack does, so callers may reuse the array
+            final byte[] written = value.clone();
+            return request(new Request() {
+                @Override
+                void apply() {
+                    SimulatedPeripheral.Attribute attribute = mPeripheral.getAttribute(index);
+                    attribute.value = written;
+                    attribute.bytesWritten += written.length;
+                }
+
+                @Override
+                void answer() {
+                    mCallback.onCharacteristicWrite(Connection.this, characteristic,
+                            BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public boolean writeDescriptor(final BluetoothGattDescriptor descriptor, final byte[] value) {
+            final int index = mPeripheral != null ? mPeripheral.indexOf(descriptor) : -1;
+            if (index < 0) {
+                return false;
+            }
+            return request(new Request() {
+                @Override
+                void apply() {
+                    // Notifications and indications are bits 0 and 1 of the CCC
+                    setNotifying(index, value.length > 0 && (value[0] & 0x03) != 0);
+                }
+
+                @Override
+                void answer() {
+                    mCallback.onDescriptorWrite(Connection.this, descriptor,
+                            BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic,
+                                                     boolean enable) {
+            return mPeripheral != null && mPeripheral.indexOf(characteristic) >= 0;
+        }
+
+        @Override
+        public boolean requestMtu(final int mtu) {
+            return request(new Request() {
+                @Override
+                void answer() {
+                    mCallback.onMtuChanged(Connection.this, Math.min(mtu, mPeripheral.getMaxMtu()),
+                            BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public synchronized boolean requestConnectionPriority(int priority) {
+            return mState == CONNECTED;
+        }
+
+        @Override
+        public boolean setPreferredPhy(final int txPhyMask, final int rxPhyMask) {
+            return request(new Request() {
+                @Override
+                void answer() {
+                    mCallback.onPhyUpdate(Connection.this, phy(txPhyMask), phy(rxPhyMask),
+                            BluetoothGatt.GATT_SUCCESS);
+                }
+            });
+        }
+
+        @Override
+        public synchronized boolean refresh() {
+            mDiscovered = false;
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+            boolean connected;
+            synchronized (this) {
+                if (mState == CONNECTING) {
+                    // Cancels the attempt, the stack reports nothing
+                    mState = DISCONNECTED;
+                    return;
+                }
+                connected = mState == CONNECTED;
+            }
+            if (connected && mPeripheral != null) {
+                mScheduler.postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        linkDown(CONNECTED, BluetoothGatt.GATT_SUCCESS);
+                    }
+                }, latency(mPeripheral));
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                mState = CLOSED;
+            }
+            mScheduler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mLinks.remove(mAddress, Connection.this);
+                }
+            });
+        }
+
+        /*
+         * Notifications
+         */
+
+        private void setNotifying(int index, boolean enable) {
+            boolean start;
+            synchronized (this) {
+                start = enable && !mNotifying[index];
+                mNotifying[index] = enable;
+            }
+            SimulatedPeripheral.Attribute attribute = mPeripheral.getAttribute(index);
+            if (start && attribute.notifyInterval > 0) {
+                mScheduler.postDelayed(new Notifier(index), attribute.notifyInterval);
+            }
+        }
+
+        private synchronized boolean isNotifying(int index) {
+            return mState == CONNECTED && index < mNotifying.length && mNotifying[index];
+        }
+
+        /**
+         * Notify a value, unless it is lost.
+         */
+        void sendNotification(int index, byte[] value) {
+            SimulatedPeripheral.Attribute attribute = mPeripheral.getAttribute(index);
+            if (chance(mPeripheral.getLossRate())) {
+                attribute.lost++;
+                return;
+            }
+            attribute.sent++;
+            attribute.characteristic.setValue(value);
+            mCallback.onCharacteristicChanged(this, attribute.characteristic, value);
+        }
+
+        private final class Notifier implements Runnable {
+            private final int mIndex;
+
+            Notifier(int index) {
+                mIndex = index;
+            }
+
+            @Override
+            public void run() {
+                if (!isNotifying(mIndex)) {
+                    return; // Disabled or disconnected
+                }
+                SimulatedPeripheral.Attribute attribute = mPeripheral.getAttribute(mIndex);
+                sendNotification(mIndex, attribute.nextValue());
+                mScheduler.postDelayed(this, attribute.notifyInterval);
+            }
+        }
+    }
+
+    /**
+     * What a peripheral does with a request, and what it answers.
+     */
+    private abstract static class Request {
+        void apply() {
+        }
+
+        abstract void answer();
+    }
+
+    /**
+     * Feeds recorded values to the connections, one scheduled run per value.
+     */
+    private final class Replay implements Runnable {
+        private final SessionReader mReader;
+        private long mFirstTimestamp = -1;
+        private long mStartTime;
+        private boolean mPending;
+
+        Replay(SessionReader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (mPending) {
+                    deliver();
+                }
+                mPending = mReader.next();
+            } catch (IOException e) {
+                mPending = false;
+            }
+            if (!mPending) {
+                mReader.close();
+                return;
+            }
+            long now = mScheduler.uptimeMillis();
+            if (mFirstTimestamp < 0) {
+                mFirstTimestamp = mReader.getTimestamp();
+                mStartTime = now;
+            }
+            long due = mStartTime + (mReader.getTimestamp() - mFirstTimestamp) / 1000000;
+            mScheduler.postDelayed(this, Math.max(0, due - now));
+        }
+
+        private void deliver() {
+            Connection connection = mLinks.get(mReader.getDeviceAddress());
+            if (connection == null) {
+                return; // Not connected
+            }
+            int index = connection.mPeripheral.indexOf(mReader.getCharacteristicUuid());
+            if (index < 0 || !connection.isNotifying(index)) {
+                return;
+            }
+            byte[] value = new byte[mReader.getValueLength()];
+            mReader.getValue(value);
+            connection.sendNotification(index, value);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A virtual device of {@link SimulatedGattBackend}: its attribute layout and how its link
+ * behaves. Configure it before connecting to it.
+ *
+ * <p>Notified values carry a little endian sequence number in their first four bytes, so
+ * receivers can check for gaps and reordering.
+ */
+public class SimulatedPeripheral {
+
+    private final String mAddress;
+    private final ArrayList<UUID> mServiceUuids = new ArrayList<>();
+    private final ArrayList<BluetoothGattService> mServices = new ArrayList<>();
+    private final ArrayList<Attribute> mAttributes = new ArrayList<>();
+    private long mMinLatency = 5;
+    private long mMaxLatency = 15;
+    private double mLossRate;
+    private double mConnectFailureRate;
+    private long mMeanTimeBetweenDisconnects;
+    private int mMaxMtu = 247;
+
+    SimulatedPeripheral(String address) {
+        mAddress = address;
+    }
+
+    public String getAddress() {
+        return mAddress;
+    }
+
+    /**
+     * Add a characteristic, with a CCC descriptor if it notifies.
+     *
+     * @param properties     {@code BluetoothGattCharacteristic.PROPERTY_*} bits
+     * @param notifyInterval Milliseconds between notifications once enabled, 0 for none
+     * @param valueLength    Length of the value in bytes
+     */
+    public SimulatedPeripheral addCharacteristic(UUID serviceUuid, UUID uuid, int properties,
+                                                 long notifyInterval, int valueLength) {
+        int serviceIndex = mServiceUuids.indexOf(serviceUuid);
+        if (serviceIndex < 0) {
+            serviceIndex = mServiceUuids.size();
+            mServiceUuids.add(serviceUuid);
+            mServices.add(new BluetoothGattService(serviceUuid,
+                    BluetoothGattService.SERVICE_TYPE_PRIMARY));
+        }
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(uuid,
+                properties, BluetoothGattCharacteristic.PERMISSION_READ
+                        | BluetoothGattCharacteristic.PERMISSION_WRITE);
+        BluetoothGattDescriptor ccc = null;
+        if ((properties & (BluetoothGattCharacteristic.PROPERTY_NOTIFY
+                | BluetoothGattCharacteristic.PROPERTY_INDICATE)) != 0) {
+            ccc = new BluetoothGattDescriptor(GattAttributes.CLIENT_CHARACTERISTIC_CONFIG,
+                    BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE);
+            characteristic.addDescriptor(ccc);
+        }
+        mServices.get(serviceIndex).addCharacteristic(characteristic);
+        mAttributes.add(new Attribute(uuid, characteristic, ccc, notifyInterval,
+                new byte[valueLength]));
+        return this;
+    }
+
+    /**
+     * @param min Shortest time in milliseconds between a request and its answer
+     * @param max Longest time in milliseconds between a request and its answer
+     */
+    public SimulatedPeripheral setLatency(long min, long max) {
+        mMinLatency = min;
+        mMaxLatency = max;
+        return this;
+    }
+
+    /**
+     * @param lossRate Probability, from 0 to 1, that a notification or the answer to a
+     *                 request is lost
+     */
+    public SimulatedPeripheral setLossRate(double lossRate) {
+        mLossRate = lossRate;
+        return this;
+    }
+
+    /**
+     * @param failureRate Probability, from 0 to 1, that a connection attempt fails with
+     *                    GATT_ERROR (133)
+     */
+    public SimulatedPeripheral setConnectFailureRate(double failureRate) {
+        mConnectFailureRate = failureRate;
+        return this;
+    }
+
+    /**
+     * @param meanTime Mean time in milliseconds a link stays up before it is lost, 0 to never
+     *                 lose it
+     */
+    public SimulatedPeripheral setMeanTimeBetweenDisconnects(long meanTime) {
+        mMeanTimeBetweenDisconnects = meanTime;
+        return this;
+    }
+
+    public SimulatedPeripheral setMaxMtu(int maxMtu) {
+        mMaxMtu = maxMtu;
+        return this;
+    }
+
+    public long getMinLatency() {
+        return mMinLatency;
+    }
+
+    public long getMaxLatency() {
+        return mMaxLatency;
+    }
+
+    public double getLossRate() {
+        return mLossRate;
+    }
+
+    public double getConnectFailureRate() {
+        return mConnectFailureRate;
+    }
+
+    public long getMeanTimeBetweenDisconnects() {
+        return mMeanTimeBetweenDisconnects;
+    }
+
+    public int getMaxMtu() {
+        return mMaxMtu;
+    }
+
+    public List<BluetoothGattService> getServices() {
+        return Collections.unmodifiableList(mServices);
+    }
+
+    /**
+     * @return The characteristic with this UUID, to pass to requests, or null
+     */
+    public BluetoothGattCharacteristic getCharacteristic(UUID uuid) {
+        int index = indexOf(uuid);
+        return index >= 0 ? mAttributes.get(index).characteristic : null;
+    }
+
+    /**
+     * @return The CCC descriptor of the characteristic with this UUID, or null
+     */
+    public BluetoothGattDescriptor getClientCharacteristicConfig(UUID uuid) {
+        int index = indexOf(uuid);
+        return index >= 0 ? mAttributes.get(index).ccc : null;
+    }
+
+    /**
+     * @return Number of notifications of the characteristic delivered to the central
+     */
+    public long getNotificationsSent(UUID uuid) {
+        return mAttributes.get(indexOf(uuid)).sent;
+    }
+
+    /**
+     * @return Number of notifications of the characteristic lost on the way
+     */
+    public long getNotificationsLost(UUID uuid) {
+        return mAttributes.get(indexOf(uuid)).lost;
+    }
+
+    /**
+     * @return Number of bytes written to the characteristic by the central
+     */
+    public long getBytesWritten(UUID uuid) {
+        return mAttributes.get(indexOf(uuid)).bytesWritten;
+    }
+
+    int indexOf(UUID uuid) {
+        for (int i = 0; i < mAttributes.size(); i++) {
+            if (mAttributes.get(i).uuid.equals(uuid)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Attributes are looked up by identity: the android.bluetooth objects are only handles here,
+     * the simulation keeps its own copy of everything it needs.
+     */
+
+    int indexOf(BluetoothGattCharacteristic characteristic) {
+        for (int i = 0; i < mAttributes.size(); i++) {
+            if (mAttributes.get(i).characteristic == characteristic) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int indexOf(BluetoothGattDescriptor ccc) {
+        for (int i = 0; i < mAttributes.size(); i++) {
+            if (mAttributes.get(i).ccc == ccc) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    int getAttributeCount() {
+        return mAttributes.size();
+    }
+
+    Attribute getAttribute(int index) {
+        return mAttributes.get(index);
+    }
+
+    static final class Attribute {
+        final UUID uuid;
+        final BluetoothGattCharacteristic characteristic;
+        final BluetoothGattDescriptor ccc;
+        final long notifyInterval;
+        byte[] value;
+        int sequence;
+        long sent;
+        long lost;
+        long bytesWritten;
+
+        Attribute(UUID uuid, BluetoothGattCharacteristic characteristic,
+                  BluetoothGattDescriptor ccc, long notifyInterval, byte[] value) {
+            this.uuid = uuid;
+            this.characteristic = characteristic;
+            this.ccc = ccc;
+            this.notifyInterval = notifyInterval;
+            this.value = value;
+        }
+
+        /**
+         * @return A copy of the next value to notify
+         */
+        byte[] nextValue() {
+            int sequence = this.sequence++;
+            for (int i = 0; i < 4 && i < value.length; i++) {
+                value[i] = (byte) (sequence >>> (8 * i));
+            }
+            return value.clone();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.kelth.mybluetooth;
+
+/**
+ * Temperature Measurement (0x2A1C) and Intermediate Temperature (0x2A1E), which share the
+ * same format.
+ */
+public class TemperatureMeasurement extends GattCodec {
+
+    private static final int FLAG_FAHRENHEIT = 0x01;
+    private static final int FLAG_TIME_STAMP = 0x02;
+    private static final int FLAG_TEMPERATURE_TYPE = 0x04;
+
+    private float mTemperature;
+    private boolean mFahrenheit;
+    private boolean mTimeStampPresent;
+    private int mYear;
+    private int mMonth;
+    private int mDay;
+    private int mHours;
+    private int mMinutes;
+    private int mSeconds;
+    private int mTemperatureType;
+
+    public static TemperatureMeasurement measurement() {
+        return new TemperatureMeasurement(0x2A1C);
+    }
+
+    public static TemperatureMeasurement intermediate() {
+        return new TemperatureMeasurement(0x2A1E);
+    }
+
+    private TemperatureMeasurement(int shortUuid) {
+        super(shortUuid);
+    }
+
+    @Override
+    public boolean decode(byte[] data, int length) {
+        if (length < 5) {
+            return false;
+        }
+        int flags = uint8(data, 0);
+        mFahrenheit = (flags & FLAG_FAHRENHEIT) != 0;
+        mTemperature = float32(data, 1);
+        int offset = 5;
+
+        mTimeStampPresent = (flags & FLAG_TIME_STAMP) != 0;
+        if (mTimeStampPresent) {
+            if (length < offset + 7) {
+                return false;
+            }
+            mYear = uint16(data, offset);
+            mMonth = uint8(data, offset + 2);
+            mDay = uint8(data, offset + 3);
+            mHours = uint8(data, offset + 4);
+            mMinutes = uint8(data, offset + 5);
+            mSeconds = uint8(data, offset + 6);
+            offset += 7;
+        }
+
+        mTemperatureType = -1;
+        if ((flags & FLAG_TEMPERATURE_TYPE) != 0) {
+            if (length < offset + 1) {
+                return false;
+            }
+            mTemperatureType = uint8(data, offset);
+        }
+        return true;
+    }
+
+    /**
+     * @return Temperature in the unit given by {@link #isFahrenheit()}. NaN if the sensor
+     *         reported no valid value.
+     */
+    public float getTemperature() {
+        return mTemperature;
+    }
+
+    public boolean isFahrenheit() {
+        return mFahrenheit;
+    }
+
+    public boolean isTimeStampPresent() {
+        return mTimeStampPresent;
+    }
+
+    public int getYear() {
+        return mYear;
+    }
+
+    public int getMonth() {
+        return mMonth;
+    }
+
+    public int getDay() {
+        return mDay;
+    }
+
+    public int getHours() {
+        return mHours;
+    }
+
+    public int getMinutes() {
+        return mMinutes;
+    }
+
+    public int getSeconds() {
+        return mSeconds;
+    }
+
+    /**
+     * @return Temperature Type (0x2A1D) value, or -1 if not present
+     */
+    public int getTemperatureType() {
+        return mTemperatureType;
+    }
+
+    @Override
+    public String toString() {
+        return "Temperature: " + mTemperature + (mFahrenheit ? " \u00B0F" : " \u00B0C");
+    }
+}
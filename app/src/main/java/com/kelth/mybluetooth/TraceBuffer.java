@@ -0,0 +1,261 @@
+package com.kelth.mybluetooth;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size binary events in a preallocated ring, exported on demand as a
+ * Chrome trace (JSON, opened by chrome://tracing or ui.perfetto.dev). An event is an id, a
+ * device, a 32-bit handle and the System.nanoTime() it happened at; recording is lock free,
+ * does not allocate and may happen from any thread. Once full, the oldest events are
+ * overwritten.
+ * <p>
+ * Every device is a thread of the trace, with its spans and instants. See {@link GattTrace}
+ * for the events of the GATT layer.
+ */
+public final class TraceBuffer {
+
+    // Phases of an event in the trace
+    public static final char PHASE_BEGIN = 'B';
+    public static final char PHASE_END = 'E';
+    public static final char PHASE_INSTANT = 'i';
+
+    private static final int MAX_EVENTS = 256;
+
+    // Device 0 is for events of no device in particular
+    private static final int MAX_DEVICES = 0xFFFF;
+
+    private final int mMask;
+    // Slot i holds its time at 2 * i and its packed event at 2 * i + 1. Atomic so that
+    // reading a slot stays ordered between the two reads of its stamp.
+    private final AtomicLongArray mEvents;
+    // Sequence number + 1 of the event in each slot, 0 while the slot is being written
+    private final AtomicLongArray mStamps;
+    private final AtomicLong mSequence = new AtomicLong();
+    // Guarded by itself
+    private final Map<String, Integer> mDeviceIds = new HashMap<>();
+    private final List<String> mDevices = new ArrayList<>();
+    // Indexed by event ID, set before recording
+    private final String[] mNames = new String[MAX_EVENTS];
+    private final char[] mPhases = new char[MAX_EVENTS];
+    private final String[] mArguments = new String[MAX_EVENTS];
+
+    /**
+     * @param capacity Events kept, rounded up to a power of two
+     */
+    public TraceBuffer(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 24) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mMask = size - 1;
+        mEvents = new AtomicLongArray(2 * size);
+        mStamps = new AtomicLongArray(size);
+        mDevices.add(null);
+    }
+
+    /**
+     * Say how to export an event. Events not defined are left out of the trace.
+     *
+     * @param event    ID of the event, below 256
+     * @param name     Name shown, null for {@link #PHASE_END} which ends the last span begun
+     * @param phase    One of the {@code PHASE_*}
+     * @param argument What the handle of the event is, or null to leave it out
+     */
+    public void define(int event, String name, char phase, String argument) {
+        mNames[event] = name;
+        mPhases[event] = phase;
+        mArguments[event] = argument;
+    }
+
+    public int getCapacity() {
+        return mMask + 1;
+    }
+
+    /**
+     * Assign a device its ID in the trace, once: call when the device is first seen and keep
+     * the result.
+     *
+     * @return ID to record events of {@code address} with, the same for the same address
+     */
+    public int registerDevice(String address) {
+        synchronized (mDeviceIds) {
+            Integer id = mDeviceIds.get(address);
+            if (id == null) {
+                if (mDevices.size() > MAX_DEVICES) {
+                    return 0;
+                }
+                id = mDevices.size();
+                mDevices.add(address);
+                mDeviceIds.put(address, id);
+            }
+            return id;
+        }
+    }
+
+    public void record(int event, int device, int handle) {
+        record(event, device, handle, System.nanoTime());
+    }
+
+    /**
+     * @param event  ID given to {@link #define}
+     * @param device ID from {@link #registerDevice}, or 0
+     * @param time   System.nanoTime() of the event
+     */
+    public void record(int event, int device, int handle, long time) {
+        long sequence = mSequence.getAndIncrement();
+        int slot = (int) sequence & mMask;
+        // Each ordered store is seen after the ones before it: a reader seeing the new event
+        // has seen the slot cleared first
+        mStamps.lazySet(slot, 0);
+        mEvents.lazySet(2 * slot, time);
+        mEvents.lazySet(2 * slot + 1, pack(event, device, handle));
+        mStamps.lazySet(slot, sequence + 1);
+    }
+
+    /**
+     * @return Events recorded, overwritten ones included
+     */
+    public long getEventCount() {
+        return mSequence.get();
+    }
+
+    /**
+     * Drop the events kept. Call while nothing records.
+     */
+    public void clear() {
+        for (int slot = 0; slot <= mMask; slot++) {
+            mStamps.set(slot, 0);
+        }
+        mSequence.set(0);
+    }
+
+    static long pack(int event, int device, int handle) {
+        return (long) (event & 0xFFFF) << 48 | (long) (device & 0xFFFF) << 32
+                | (handle & 0xFFFFFFFFL);
+    }
+
+    static int event(long packed) {
+        return (int) (packed >>> 48);
+    }
+
+    static int device(long packed) {
+        return (int) (packed >>> 32) & 0xFFFF;
+    }
+
+    static int handle(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * Copy the events kept, oldest first. An event whose slot is rewritten while being copied
+     * is left out. Two writers can only share a slot if one records a whole capacity of events
+     * while the other is inside {@link #record}; the slot may then mix both events.
+     *
+     * @param times  Receives the times, of at least {@link #getCapacity()} elements
+     * @param packed Receives the packed events, as large
+     * @return Events copied
+     */
+    int snapshot(long[] times, long[] packed) {
+        long end = mSequence.get();
+        long start = Math.max(0, end - getCapacity());
+        int count = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) sequence & mMask;
+            if (mStamps.get(slot) != sequence + 1) {
+                continue; // Overwritten or not written yet
+            }
+            long time = mEvents.get(2 * slot);
+            long event = mEvents.get(2 * slot + 1);
+            if (mStamps.get(slot) != sequence + 1) {
+                continue; // Rewritten while being copied
+            }
+            times[count] = time;
+            packed[count] = event;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Write the events kept, oldest first, as a Chrome trace. Recording may go on meanwhile,
+     * see {@link #snapshot} for the events left out. Timestamps are in microseconds from the
+     * earliest event written.
+     *
+     * @return Events written
+     */
+    public int writeChromeJson(Writer out) throws IOException {
+        long[] times = new long[getCapacity()];
+        long[] packed = new long[times.length];
+        int count = snapshot(times, packed);
+
+        String[] devices;
+        synchronized (mDeviceIds) {
+            devices = mDevices.toArray(new String[mDevices.size()]);
+        }
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+        out.write("{\"name\":\"process_name\",\"ph\":\"M\",\"pid\":1,\"args\":{\"name\":\"GATT\"}}");
+        for (int id = 1; id < devices.length; id++) {
+            out.write(",\n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":");
+            out.write(Integer.toString(id));
+            out.write(",\"args\":{\"name\":\"");
+            out.write(devices[id]);
+            out.write("\"}}");
+        }
+        // Slots are claimed in about the order of the events, not exactly
+        long origin = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            origin = Math.min(origin, times[i]);
+        }
+        StringBuilder sb = new StringBuilder(128);
+        int written = 0;
+        for (int i = 0; i < count; i++) {
+            int event = event(packed[i]);
+            if (event >= MAX_EVENTS || mPhases[event] == 0) {
+                continue;
+            }
+            sb.setLength(0);
+            sb.append(",\n{");
+            if (mNames[event] != null) {
+                sb.append("\"name\":\"").append(mNames[event]).append("\",");
+            }
+            sb.append("\"ph\":\"").append(mPhases[event]).append("\",\"pid\":1,\"tid\":")
+                    .append(device(packed[i])).append(",\"ts\":");
+            appendMicros(sb, times[i] - origin);
+            if (mPhases[event] == PHASE_INSTANT) {
+                sb.append(",\"s\":\"t\"");  // Scoped to the device
+            }
+            if (mArguments[event] != null) {
+                sb.append(",\"args\":{\"").append(mArguments[event]).append("\":")
+                        .append(handle(packed[i])).append('}');
+            }
+            sb.append('}');
+            out.append(sb);
+            written++;
+        }
+        out.write("\n]}\n");
+        out.flush();
+        return written;
+    }
+
+    private static void appendMicros(StringBuilder sb, long nanos) {
+        sb.append(nanos / 1000).append('.');
+        long fraction = nanos % 1000;
+        if (fraction < 100) {
+            sb.append('0');
+        }
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        sb.append(fraction);
+    }
+}
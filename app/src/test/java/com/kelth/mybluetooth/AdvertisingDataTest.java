@@ -0,0 +1,90 @@
+package com.kelth.mybluetooth;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class AdvertisingDataTest {
+
+    private static final UUID HEART_RATE = UUID.fromString("0000180d-0000-1000-8000-00805f9b34fb");
+    private static final UUID BATTERY = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
+    private static final UUID CUSTOM = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID UNKNOWN = UUID.fromString("00001810-0000-1000-8000-00805f9b34fb");
+
+    // Legacy advertisement and scan response, padded with zeros to 62 bytes
+    private static final byte[] SCAN_RECORD = Arrays.copyOf(new byte[]{
+            0x02, 0x01, 0x06,                                   // Flags
+            0x05, 0x03, 0x0D, 0x18, 0x0F, 0x18,                 // Heart Rate, Battery
+            0x11, 0x07, (byte) 0x9E, (byte) 0xCA, (byte) 0xDC, 0x24, 0x0E, (byte) 0xE5,
+            (byte) 0xA9, (byte) 0xE0, (byte) 0x93, (byte) 0xF3, (byte) 0xA3, (byte) 0xB5,
+            0x01, 0x00, 0x40, 0x6E,                             // Custom 128-bit
+            0x02, 0x0A, (byte) 0xF4,                            // TX power -12 dBm
+            0x04, 0x16, 0x0F, 0x18, 0x64,                       // Battery level 100
+            0x06, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15, 0x01,    // Company 0x004C
+            0x05, 0x09, 'T', 'e', 's', 't',                     // Complete local name
+    }, 62);
+
+    private final AdvertisingData mData = new AdvertisingData();
+
+    @Test
+    public void iteratesStructuresInPlace() {
+        mData.wrap(SCAN_RECORD);
+        int[] types = new int[8];
+        int count = 0;
+        while (mData.next()) {
+            assertSame(SCAN_RECORD, mData.getBuffer());
+            types[count++] = mData.getType();
+        }
+        assertArrayEquals(new int[]{
+                AdvertisingData.TYPE_FLAGS, AdvertisingData.TYPE_COMPLETE_UUID16,
+                AdvertisingData.TYPE_COMPLETE_UUID128, AdvertisingData.TYPE_TX_POWER_LEVEL,
+                AdvertisingData.TYPE_SERVICE_DATA_UUID16,
+                AdvertisingData.TYPE_MANUFACTURER_SPECIFIC_DATA,
+                AdvertisingData.TYPE_COMPLETE_LOCAL_NAME}, Arrays.copyOf(types, count));
+        assertEquals(-1, mData.getType());
+    }
+
+    @Test
+    public void readsFields() {
+        mData.wrap(SCAN_RECORD);
+        assertEquals(0x06, mData.getFlags());
+        assertEquals(-12, mData.getTxPowerLevel());
+        assertEquals("Test", mData.getLocalName());
+        assertTrue(mData.hasServiceUuid(HEART_RATE));
+        assertTrue(mData.hasServiceUuid(BATTERY));
+        assertTrue(mData.hasServiceUuid(CUSTOM));
+        assertFalse(mData.hasServiceUuid(UNKNOWN));
+        assertEquals(Arrays.asList(HEART_RATE, BATTERY, CUSTOM), mData.getServiceUuids());
+        assertEquals(0x004C, mData.getManufacturerId());
+        assertArrayEquals(new byte[]{0x02, 0x15, 0x01}, mData.getManufacturerData(0x004C));
+        assertNull(mData.getManufacturerData(0x0006));
+        assertArrayEquals(new byte[]{0x64}, mData.getServiceData(BATTERY));
+        assertNull(mData.getServiceData(HEART_RATE));
+    }
+
+    @Test
+    public void cursorPointsIntoTheRecord() {
+        mData.wrap(SCAN_RECORD);
+        assertTrue(mData.findManufacturerData(0x004C));
+        assertEquals(39, mData.getValueOffset());
+        assertEquals(3, mData.getValueLength());
+    }
+
+    @Test
+    public void toleratesMissingAndTruncatedData() {
+        mData.wrap(null);
+        assertFalse(mData.next());
+        assertEquals(-1, mData.getFlags());
+        assertEquals(AdvertisingData.TX_POWER_UNKNOWN, mData.getTxPowerLevel());
+        assertNull(mData.getLocalName());
+        assertEquals(-1, mData.getManufacturerId());
+
+        // Name claims 9 bytes, only 4 follow
+        mData.wrap(new byte[]{0x02, 0x01, 0x06, 0x0A, 0x09, 'T', 'e', 's', 't'});
+        assertEquals(0x06, mData.getFlags());
+        assertNull(mData.getLocalName());
+    }
+}
@@ -0,0 +1,167 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGattService;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class BluetoothLeListenerSetTest {
+
+    private static final UUID CHARACTERISTIC =
+            UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+
+    private final BluetoothLeListenerSet mListeners = new BluetoothLeListenerSet();
+    private final GattValuePool mPool = new GattValuePool(1);
+
+    @Test
+    public void eachSubscriberGetsItsOwnCopy() {
+        QueueExecutor first = new QueueExecutor();
+        QueueExecutor second = new QueueExecutor();
+        RecordingListener firstListener = new RecordingListener();
+        RecordingListener secondListener = new RecordingListener();
+        assertTrue(mListeners.add(firstListener, first));
+        assertTrue(mListeners.add(secondListener, second));
+
+        dispatch(new byte[]{1, 2});
+        dispatch(new byte[]{3});
+        // Nothing runs until each executor does
+        assertTrue(firstListener.events.isEmpty());
+
+        first.runAll();
+        assertEquals("value 01 02,value 03", firstListener.joined());
+        assertTrue(secondListener.events.isEmpty());
+        second.runAll();
+        assertEquals("value 01 02,value 03", secondListener.joined());
+    }
+
+    @Test
+    public void eventsKeepTheirOrder() {
+        QueueExecutor executor = new QueueExecutor();
+        RecordingListener listener = new RecordingListener();
+        mListeners.add(listener, executor);
+
+        mListeners.onBLEScanningStart();
+        mListeners.onConnected(null);
+        dispatch(new byte[]{7});
+        mListeners.onDisconnected(null);
+        mListeners.onBLEScanningStop();
+        executor.runAll();
+
+        assertEquals("start,connected,value 07,disconnected,stop", listener.joined());
+    }
+
+    @Test
+    public void addTwiceAndRemove() {
+        QueueExecutor executor = new QueueExecutor();
+        RecordingListener listener = new RecordingListener();
+        assertTrue(mListeners.add(listener, executor));
+        assertFalse(mListeners.add(listener, executor));
+        assertNotNull(mListeners.get(listener));
+
+        assertTrue(mListeners.remove(listener));
+        assertFalse(mListeners.remove(listener));
+        assertTrue(mListeners.isEmpty());
+        mListeners.onConnected(null);
+        executor.runAll();
+        assertTrue(listener.events.isEmpty());
+    }
+
+    @Test
+    public void replayReachesOneSubscriber() {
+        QueueExecutor executor = new QueueExecutor();
+        RecordingListener early = new RecordingListener();
+        RecordingListener late = new RecordingListener();
+        mListeners.add(early, executor);
+        mListeners.add(late, executor);
+
+        mListeners.onConnected(mListeners.get(late), null);
+        executor.runAll();
+
+        assertTrue(early.events.isEmpty());
+        assertEquals("connected", late.joined());
+    }
+
+    private void dispatch(byte[] data) {
+        GattValue value = mPool.acquire();
+        value.set(CHARACTERISTIC, data, data.length);
+        mListeners.onValue(null, CHARACTERISTIC, value);
+        // The caller reuses its value right away
+        mPool.release(value);
+    }
+
+    private static final class QueueExecutor implements Executor {
+        private final List<Runnable> mQueue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable runnable) {
+            mQueue.add(runnable);
+        }
+
+        void runAll() {
+            while (!mQueue.isEmpty()) {
+                mQueue.remove(0).run();
+            }
+        }
+    }
+
+    private static final class RecordingListener
+            implements BluetoothLeService.BluetoothLeListener {
+        final List<String> events = new ArrayList<>();
+
+        String joined() {
+            StringBuilder sb = new StringBuilder();
+            for (String event : events) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(event);
+            }
+            return sb.toString();
+        }
+
+        @Override
+        public void onBLEScanningStart() {
+            events.add("start");
+        }
+
+        @Override
+        public void onBLEScanningStop() {
+            events.add("stop");
+        }
+
+        @Override
+        public void onBLEScanResult(BluetoothDevice btDevice, int rssi,
+                                    AdvertisingData advertisement) {
+            events.add("scan");
+        }
+
+        @Override
+        public void onConnected(BluetoothDevice btDevice) {
+            events.add("connected");
+        }
+
+        @Override
+        public void onDisconnected(BluetoothDevice btDevice) {
+            events.add("disconnected");
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothDevice btDevice,
+                                         List<BluetoothGattService> services, int status) {
+            events.add("services");
+        }
+
+        @Override
+        public void onValue(BluetoothDevice btDevice, UUID uuid, GattValue value) {
+            assertEquals(CHARACTERISTIC, uuid);
+            events.add("value " + value.toHexString().trim());
+        }
+    }
+}
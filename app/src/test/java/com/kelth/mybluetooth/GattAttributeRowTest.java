@@ -0,0 +1,67 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattAttributeRowTest {
+
+    private static final UUID HEART_RATE = GattAttributes.fromShortUuid(0x180D);
+    private static final UUID MEASUREMENT = GattAttributes.HEART_RATE_MEASUREMENT;
+    private static final UUID LOCATION = GattAttributes.fromShortUuid(0x2A38);
+
+    @Test
+    public void rediscoveredRowsAreEqual() {
+        List<GattAttributeRow> first = table();
+        List<GattAttributeRow> second = table();
+
+        assertEquals(first, second);
+        for (int i = 0; i < first.size(); i++) {
+            assertNotSame(first.get(i), second.get(i));
+            assertEquals(first.get(i).hashCode(), second.get(i).hashCode());
+        }
+        assertEquals(first.size(), new HashSet<>(first).size());
+    }
+
+    @Test
+    public void instancesAreDifferentAttributes() {
+        GattAttributeRow a = row(40, MEASUREMENT, 42, BluetoothGattCharacteristic.PROPERTY_NOTIFY);
+        GattAttributeRow b = row(40, MEASUREMENT, 46, BluetoothGattCharacteristic.PROPERTY_NOTIFY);
+        GattAttributeRow otherService =
+                row(50, MEASUREMENT, 42, BluetoothGattCharacteristic.PROPERTY_NOTIFY);
+
+        assertFalse(a.isSameAttribute(b));
+        assertFalse(a.isSameAttribute(otherService));
+        assertNotEquals(a, b);
+    }
+
+    @Test
+    public void changedContentIsSameAttribute() {
+        GattAttributeRow before = row(40, LOCATION, 44, BluetoothGattCharacteristic.PROPERTY_READ);
+        GattAttributeRow after = row(40, LOCATION, 44, BluetoothGattCharacteristic.PROPERTY_READ
+                | BluetoothGattCharacteristic.PROPERTY_NOTIFY);
+
+        assertTrue(before.isSameAttribute(after));
+        assertNotEquals(before, after);
+    }
+
+    private static List<GattAttributeRow> table() {
+        return Arrays.asList(
+                row(40, MEASUREMENT, 42, BluetoothGattCharacteristic.PROPERTY_NOTIFY),
+                row(40, LOCATION, 44, BluetoothGattCharacteristic.PROPERTY_READ));
+    }
+
+    private static GattAttributeRow row(int serviceInstanceId, UUID characteristicUuid,
+                                        int instanceId, int properties) {
+        return new GattAttributeRow(HEART_RATE, serviceInstanceId, characteristicUuid,
+                instanceId, properties, GattAttributes.serviceName(HEART_RATE),
+                GattAttributes.characteristicName(characteristicUuid), null);
+    }
+}
@@ -0,0 +1,55 @@
+package com.kelth.mybluetooth;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattAttributesTest {
+
+    @Test
+    public void shortUuidRoundTrip() {
+        UUID uuid = UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+        assertEquals(0x2A37, GattAttributes.toShortUuid(uuid));
+        assertEquals(uuid, GattAttributes.fromShortUuid(0x2A37));
+        assertEquals(0xFFFF, GattAttributes.toShortUuid(GattAttributes.fromShortUuid(0xFFFF)));
+        assertEquals(0, GattAttributes.toShortUuid(GattAttributes.fromShortUuid(0)));
+    }
+
+    @Test
+    public void nonBaseUuidsHaveNoShortForm() {
+        // Vendor UUID
+        assertEquals(-1, GattAttributes.toShortUuid(
+                UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e")));
+        // 32-bit form on the base UUID
+        assertEquals(-1, GattAttributes.toShortUuid(
+                UUID.fromString("12342a37-0000-1000-8000-00805f9b34fb")));
+        // Base UUID with another low half
+        assertEquals(-1, GattAttributes.toShortUuid(
+                UUID.fromString("00002a37-0000-1000-8000-00805f9b34fc")));
+        assertEquals(-1, GattAttributes.toShortUuid(
+                UUID.fromString("00002a37-0001-1000-8000-00805f9b34fb")));
+    }
+
+    @Test
+    public void namesOfAssignedNumbers() {
+        assertEquals("Heart Rate", GattAttributes.serviceName(GattAttributes.fromShortUuid(0x180D)));
+        assertEquals("Heart Rate Measurement",
+                GattAttributes.characteristicName(GattAttributes.HEART_RATE_MEASUREMENT));
+        assertEquals("Client Characteristic Configuration",
+                GattAttributes.descriptorName(GattAttributes.CLIENT_CHARACTERISTIC_CONFIG));
+        // Each kind only looks in its own table
+        assertNull(GattAttributes.serviceName(GattAttributes.HEART_RATE_MEASUREMENT));
+    }
+
+    @Test
+    public void unknownUuidsFallBack() {
+        UUID vendor = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+        assertNull(GattAttributes.characteristicName(vendor));
+        assertEquals("unknown", GattAttributes.lookup(vendor, "unknown"));
+        assertEquals("unknown", GattAttributes.lookup(GattAttributes.fromShortUuid(0xFFF0), "unknown"));
+        assertEquals("Heart Rate Measurement",
+                GattAttributes.lookup(GattAttributes.HEART_RATE_MEASUREMENT, "unknown"));
+    }
+}
@@ -0,0 +1,121 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class GattBatchReadTest {
+
+    private static final UUID SERVICE = UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb");
+    private static final int CHARACTERISTICS = 20;
+    private static final String ADDRESS = "00:00:00:00:00:01";
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private final VirtualScheduler mScheduler = new VirtualScheduler();
+    private final SimulatedGattBackend mBackend = new SimulatedGattBackend(mScheduler, 7);
+    private final List<GattBatchRead.Result> mResults = new ArrayList<>();
+    private final GattBatchRead.Listener mListener = new GattBatchRead.Listener() {
+        @Override
+        public void onBatchReadComplete(GattBatchRead.Result result) {
+            mResults.add(result);
+        }
+    };
+
+    @Test
+    public void readsRunBackToBack() {
+        SimulatedPeripheral peripheral = addPeripheral().setLatency(10, 10);
+        SimulatedCentral central = connect();
+
+        enqueue(central, peripheral);
+        // Each read starts when the previous one is answered
+        mScheduler.advanceBy(10 * CHARACTERISTICS - 1);
+        assertTrue(mResults.isEmpty());
+        mScheduler.advanceBy(1);
+
+        assertEquals(1, mResults.size());
+        GattBatchRead.Result result = mResults.get(0);
+        assertEquals(ADDRESS, result.getAddress());
+        assertEquals(CHARACTERISTICS, result.size());
+        assertEquals(CHARACTERISTICS, result.getSuccessCount());
+        for (int i = 0; i < CHARACTERISTICS; i++) {
+            assertSame(peripheral.getCharacteristic(uuid(i)), result.getCharacteristic(i));
+            assertEquals(BluetoothGatt.GATT_SUCCESS, result.getStatus(i));
+        }
+    }
+
+    @Test
+    public void lostLinkStillReportsEveryItem() {
+        SimulatedPeripheral peripheral = addPeripheral().setLatency(10, 10)
+                .setMeanTimeBetweenDisconnects(50);
+        SimulatedCentral central = connect();
+
+        enqueue(central, peripheral);
+        mScheduler.advanceBy(60000);
+
+        assertEquals(1, mResults.size());
+        GattBatchRead.Result result = mResults.get(0);
+        assertTrue(result.getSuccessCount() < CHARACTERISTICS);
+        for (int i = 0; i < CHARACTERISTICS; i++) {
+            int status = result.getStatus(i);
+            assertTrue(status == BluetoothGatt.GATT_SUCCESS
+                    || status == GattOperation.STATUS_CANCELLED);
+        }
+    }
+
+    @Test
+    public void emptyBatchCompletesRightAway() {
+        GattBatchRead batch = new GattBatchRead(ADDRESS,
+                new ArrayList<BluetoothGattCharacteristic>(), DIRECT, mListener);
+        batch.start();
+
+        assertEquals(1, mResults.size());
+        assertEquals(0, mResults.get(0).size());
+    }
+
+    private SimulatedPeripheral addPeripheral() {
+        SimulatedPeripheral peripheral = mBackend.addPeripheral(ADDRESS);
+        for (int i = 0; i < CHARACTERISTICS; i++) {
+            peripheral.addCharacteristic(SERVICE, uuid(i),
+                    BluetoothGattCharacteristic.PROPERTY_READ, 0, 8);
+        }
+        return peripheral;
+    }
+
+    private SimulatedCentral connect() {
+        SimulatedCentral central = new SimulatedCentral(mBackend, mScheduler, ADDRESS, null);
+        central.connect();
+        mScheduler.advanceBy(10);
+        assertTrue(central.isConnected());
+        return central;
+    }
+
+    private void enqueue(SimulatedCentral central, SimulatedPeripheral peripheral) {
+        List<BluetoothGattCharacteristic> characteristics = new ArrayList<>();
+        for (int i = 0; i < CHARACTERISTICS; i++) {
+            characteristics.add(peripheral.getCharacteristic(uuid(i)));
+        }
+        GattBatchRead batch = new GattBatchRead(ADDRESS, characteristics, DIRECT, mListener);
+        for (int i = 0; i < batch.size(); i++) {
+            central.queue.enqueue(batch.createOperation(i));
+        }
+        batch.start();
+    }
+
+    private static UUID uuid(int index) {
+        return new UUID(0x0000ff0000001000L + ((long) index << 32), 0x800000805f9b34fbL);
+    }
+}
@@ -0,0 +1,171 @@
+package com.kelth.mybluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GattCodecTest {
+
+    private final HeartRateMeasurement mHeartRate = new HeartRateMeasurement();
+    private final TemperatureMeasurement mTemperature = TemperatureMeasurement.measurement();
+
+    @Test
+    public void heartRateUint8() {
+        // Sensor contact supported and detected
+        assertTrue(decode(mHeartRate, 0x06, 72));
+        assertEquals(72, mHeartRate.getHeartRate());
+        assertTrue(mHeartRate.isSensorContactSupported());
+        assertTrue(mHeartRate.isSensorContactDetected());
+        assertFalse(mHeartRate.isEnergyExpendedPresent());
+        assertEquals(0, mHeartRate.getRrIntervalCount());
+    }
+
+    @Test
+    public void heartRateUint16() {
+        assertTrue(decode(mHeartRate, 0x01, 0x2C, 0x01));
+        assertEquals(300, mHeartRate.getHeartRate());
+        assertFalse(mHeartRate.isSensorContactSupported());
+        // Detected means nothing unless supported
+        assertTrue(decode(mHeartRate, 0x02, 60));
+        assertFalse(mHeartRate.isSensorContactDetected());
+    }
+
+    @Test
+    public void heartRateEnergyAndRrIntervals() {
+        assertTrue(decode(mHeartRate, 0x18, 80, 0x10, 0x27, 0x00, 0x04, 0x00, 0x02));
+        assertEquals(80, mHeartRate.getHeartRate());
+        assertTrue(mHeartRate.isEnergyExpendedPresent());
+        assertEquals(10000, mHeartRate.getEnergyExpended());
+        assertEquals(2, mHeartRate.getRrIntervalCount());
+        assertEquals(1024, mHeartRate.getRrInterval(0));
+        assertEquals(512, mHeartRate.getRrInterval(1));
+        assertEquals("Heart rate: 80 bpm, energy: 10000 kJ, RR: 1000 ms 500 ms",
+                mHeartRate.toString());
+
+        // Fields of the previous value do not leak into the next
+        assertTrue(decode(mHeartRate, 0x00, 81));
+        assertFalse(mHeartRate.isEnergyExpendedPresent());
+        assertEquals(0, mHeartRate.getRrIntervalCount());
+    }
+
+    @Test
+    public void heartRateOddRrByteIsIgnored() {
+        assertTrue(decode(mHeartRate, 0x10, 80, 0x00, 0x04, 0x01));
+        assertEquals(1, mHeartRate.getRrIntervalCount());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void heartRateRrIntervalOutOfRange() {
+        assertTrue(decode(mHeartRate, 0x10, 80, 0x00, 0x04));
+        mHeartRate.getRrInterval(1);
+    }
+
+    @Test
+    public void heartRateTruncated() {
+        assertFalse(decode(mHeartRate));
+        assertFalse(decode(mHeartRate, 0x00));
+        assertFalse(decode(mHeartRate, 0x01, 0x2C));
+        assertFalse(decode(mHeartRate, 0x08, 80, 0x10));
+        // The length given counts, not the size of the array
+        assertFalse(mHeartRate.decode(new byte[]{0x00, 72}, 1));
+    }
+
+    @Test
+    public void float32() {
+        // 365 x 10^-1
+        assertEquals(36.5f, GattCodec.float32(bytes(0x6D, 0x01, 0x00, 0xFF), 0), 1e-4f);
+        // -1 x 10^2
+        assertEquals(-100f, GattCodec.float32(bytes(0xFF, 0xFF, 0xFF, 0x02), 0), 1e-4f);
+        assertEquals(7f, GattCodec.float32(bytes(0x00, 0x07, 0x00, 0x00, 0x00), 1), 0f);
+    }
+
+    @Test
+    public void float32SpecialValues() {
+        assertTrue(Float.isNaN(GattCodec.float32(bytes(0xFF, 0xFF, 0x7F, 0x00), 0)));
+        // NRes and reserved, whatever the exponent
+        assertTrue(Float.isNaN(GattCodec.float32(bytes(0x00, 0x00, 0x80, 0x00), 0)));
+        assertTrue(Float.isNaN(GattCodec.float32(bytes(0x01, 0x00, 0x80, 0xFF), 0)));
+        assertEquals(Float.POSITIVE_INFINITY,
+                GattCodec.float32(bytes(0xFE, 0xFF, 0x7F, 0x00), 0), 0f);
+        assertEquals(Float.NEGATIVE_INFINITY,
+                GattCodec.float32(bytes(0x02, 0x00, 0x80, 0x00), 0), 0f);
+    }
+
+    @Test
+    public void temperatureCelsiusAndFahrenheit() {
+        assertTrue(decode(mTemperature, 0x00, 0x6D, 0x01, 0x00, 0xFF));
+        assertFalse(mTemperature.isFahrenheit());
+        assertEquals(36.5f, mTemperature.getTemperature(), 1e-4f);
+        assertFalse(mTemperature.isTimeStampPresent());
+        assertEquals(-1, mTemperature.getTemperatureType());
+
+        assertTrue(decode(mTemperature, 0x01, 0xB1, 0x03, 0x00, 0xFF));
+        assertTrue(mTemperature.isFahrenheit());
+        assertEquals(94.5f, mTemperature.getTemperature(), 1e-4f);
+        assertEquals("Temperature: 94.5 \u00B0F", mTemperature.toString());
+    }
+
+    @Test
+    public void temperatureTimeStampAndType() {
+        // 2018-10-05 13:45:30, ear
+        assertTrue(decode(mTemperature, 0x06, 0x6D, 0x01, 0x00, 0xFF,
+                0xE2, 0x07, 10, 5, 13, 45, 30, 3));
+        assertTrue(mTemperature.isTimeStampPresent());
+        assertEquals(2018, mTemperature.getYear());
+        assertEquals(10, mTemperature.getMonth());
+        assertEquals(5, mTemperature.getDay());
+        assertEquals(13, mTemperature.getHours());
+        assertEquals(45, mTemperature.getMinutes());
+        assertEquals(30, mTemperature.getSeconds());
+        assertEquals(3, mTemperature.getTemperatureType());
+    }
+
+    @Test
+    public void temperatureNotAvailable() {
+        assertTrue(decode(mTemperature, 0x00, 0xFF, 0xFF, 0x7F, 0x00));
+        assertTrue(Float.isNaN(mTemperature.getTemperature()));
+    }
+
+    @Test
+    public void temperatureTruncated() {
+        assertFalse(decode(mTemperature, 0x00, 0x6D, 0x01, 0x00));
+        assertFalse(decode(mTemperature, 0x02, 0x6D, 0x01, 0x00, 0xFF, 0xE2, 0x07, 10));
+        assertFalse(decode(mTemperature, 0x04, 0x6D, 0x01, 0x00, 0xFF));
+    }
+
+    @Test
+    public void batteryLevel() {
+        BatteryLevel battery = new BatteryLevel();
+        assertTrue(decode(battery, 100));
+        assertEquals(100, battery.getLevel());
+        assertEquals("Battery: 100 %", battery.toString());
+        assertFalse(decode(battery, 101));
+        assertFalse(decode(battery, 0xFF));
+        assertFalse(decode(battery));
+    }
+
+    @Test
+    public void bodySensorLocation() {
+        BodySensorLocation location = new BodySensorLocation();
+        assertTrue(decode(location, BodySensorLocation.LOCATION_WRIST));
+        assertEquals(BodySensorLocation.LOCATION_WRIST, location.getLocation());
+        assertEquals("Sensor location: Wrist", location.toString());
+        // Reserved values decode, shown as numbers
+        assertTrue(decode(location, 42));
+        assertEquals("Sensor location: 42", location.toString());
+        assertFalse(decode(location));
+    }
+
+    private static boolean decode(GattCodec codec, int... values) {
+        byte[] data = bytes(values);
+        return codec.decode(data, data.length);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+        return data;
+    }
+}
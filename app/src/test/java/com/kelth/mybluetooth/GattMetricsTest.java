@@ -0,0 +1,118 @@
+package com.kelth.mybluetooth;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class GattMetricsTest {
+
+    private static final String ADDRESS = "00:11:22:33:44:55";
+
+    private final GattMetrics mMetrics = new GattMetrics();
+    private final GattMetrics.Device mDevice = mMetrics.forDevice(ADDRESS);
+
+    @Test
+    public void operationStatusesGoToTheirCounters() {
+        mDevice.onOperationComplete(GattOperation.TYPE_READ_CHARACTERISTIC, 0, 1000000);
+        mDevice.onOperationComplete(GattOperation.TYPE_WRITE_CHARACTERISTIC, 0, 2000000);
+        mDevice.onOperationComplete(GattOperation.TYPE_READ_CHARACTERISTIC,
+                GattOperation.STATUS_TIMEOUT, 0);
+        mDevice.onOperationComplete(GattOperation.TYPE_READ_CHARACTERISTIC,
+                GattOperation.STATUS_CANCELLED, 0);
+        mDevice.onOperationComplete(GattOperation.TYPE_READ_CHARACTERISTIC,
+                GattOperation.STATUS_START_FAILED, 0);
+        mDevice.onOperationComplete(GattOperation.TYPE_READ_CHARACTERISTIC, 0x05, 0);
+
+        GattMetrics.Snapshot snapshot = snapshot();
+        assertEquals(1, snapshot.getLatency(GattMetrics.READ).getCount());
+        assertEquals(1, snapshot.getLatency(GattMetrics.WRITE).getCount());
+        assertEquals(1, snapshot.getTimeouts());
+        assertEquals(1, snapshot.getDropped());
+        assertEquals(1, snapshot.getStartFailures());
+        assertEquals(1, snapshot.getErrorStatuses().size());
+        assertEquals(1L, (long) snapshot.getErrorStatuses().get(0x05));
+    }
+
+    @Test
+    public void errorStatusSlots() {
+        mDevice.onConnectFailed(0x85);
+        mDevice.onLinkLost(0x08);
+        mDevice.onLinkLost(0x08);
+        // GATT_FAILURE is the one status above 8 bits
+        mDevice.onLinkLost(0x101);
+        // Success does not count as an error
+        mDevice.onLinkLost(0);
+        // Out of range statuses share one slot
+        mDevice.onConnectFailed(0x102);
+        mDevice.onConnectFailed(-5);
+
+        GattMetrics.Snapshot snapshot = snapshot();
+        assertEquals(3, snapshot.getConnectFailures());
+        assertEquals(4, snapshot.getLinkLosses());
+        Map<Integer, Long> errors = snapshot.getErrorStatuses();
+        assertEquals(4, errors.size());
+        assertEquals(1L, (long) errors.get(0x85));
+        assertEquals(2L, (long) errors.get(0x08));
+        assertEquals(1L, (long) errors.get(0x101));
+        assertEquals(2L, (long) errors.get(-1));
+    }
+
+    @Test
+    public void connectTimeoutIsATimeout() {
+        mDevice.onConnectFailed(GattOperation.STATUS_TIMEOUT);
+
+        GattMetrics.Snapshot snapshot = snapshot();
+        assertEquals(1, snapshot.getConnectFailures());
+        assertEquals(1, snapshot.getTimeouts());
+        assertTrue(snapshot.getErrorStatuses().isEmpty());
+    }
+
+    @Test
+    public void notificationSlots() {
+        // One slot per characteristic, intervals measured from the second notification on
+        mDevice.onNotification(1, 0);
+        mDevice.onNotification(2, 0);
+        mDevice.onNotification(1, 1000000);
+        mDevice.onNotification(2, 2000000);
+        assertEquals(2, snapshot().getLatency(GattMetrics.NOTIFICATION_INTERVAL).getCount());
+
+        // A reconnection frees the slots, its gap is not an interval
+        mDevice.onDisconnected();
+        mDevice.onNotification(1, 60000000000L);
+        assertEquals(2, snapshot().getLatency(GattMetrics.NOTIFICATION_INTERVAL).getCount());
+    }
+
+    @Test
+    public void notificationsBeyondTheSlotsAreNotTracked() {
+        for (int key = 0; key < 20; key++) {
+            mDevice.onNotification(key, 0);
+        }
+        for (int key = 0; key < 20; key++) {
+            mDevice.onNotification(key, 1000000);
+        }
+        assertEquals(16, snapshot().getLatency(GattMetrics.NOTIFICATION_INTERVAL).getCount());
+    }
+
+    @Test
+    public void resetZeroesEverySlot() {
+        mDevice.onConnected(1000000);
+        mDevice.onLinkLost(0x08);
+        mDevice.onOperationComplete(GattOperation.TYPE_READ_CHARACTERISTIC,
+                GattOperation.STATUS_TIMEOUT, 0);
+        mMetrics.reset();
+
+        GattMetrics.Snapshot snapshot = snapshot();
+        assertEquals(0, snapshot.getLatency(GattMetrics.CONNECT).getCount());
+        assertEquals(0, snapshot.getLinkLosses());
+        assertEquals(0, snapshot.getTimeouts());
+        assertTrue(snapshot.getErrorStatuses().isEmpty());
+        // The device keeps its slot
+        assertSame(mDevice, mMetrics.forDevice(ADDRESS));
+    }
+
+    private GattMetrics.Snapshot snapshot() {
+        return mMetrics.snapshot().get(ADDRESS);
+    }
+}
@@ -0,0 +1,173 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs {@link GattOperationQueue}s against hundreds of simulated devices.
+ */
+public class GattOperationQueueTest {
+
+    private static final UUID SERVICE = UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb");
+    private static final UUID CHARACTERISTIC = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+
+    private static final int DEVICES = 200;
+    private static final int OPERATIONS = 50;
+    private static final long TIMEOUT = 200;
+
+    private final VirtualScheduler mScheduler = new VirtualScheduler();
+    private final SimulatedGattBackend mBackend = new SimulatedGattBackend(mScheduler, 42);
+
+    @Test
+    public void everyOperationCompletesOnceInOrder() {
+        List<SimulatedCentral> centrals = connect(0.05, 0);
+        GattMetrics metrics = new GattMetrics();
+        for (SimulatedCentral central : centrals) {
+            central.queue.setMetrics(metrics.forDevice(central.address));
+        }
+        Completions completions = enqueueAll(centrals);
+        mScheduler.advanceBy(60000);
+
+        completions.assertAllCompletedOnceInOrder();
+        int timeouts = completions.count(GattOperation.STATUS_TIMEOUT);
+        assertTrue("some answers must have been lost", timeouts > 0);
+        assertEquals(DEVICES * OPERATIONS,
+                completions.count(BluetoothGatt.GATT_SUCCESS) + timeouts);
+        // The queue never has two requests in flight, so the stack never refuses one
+        assertEquals(0, completions.count(GattOperation.STATUS_START_FAILED));
+        Map<String, GattMetrics.Snapshot> snapshots = metrics.snapshot();
+        long timedOut = 0;
+        long succeeded = 0;
+        for (SimulatedCentral central : centrals) {
+            assertTrue(central.queue.isIdle());
+            GattMetrics.Snapshot snapshot = snapshots.get(central.address);
+            timedOut += snapshot.getTimeouts();
+            succeeded += snapshot.getLatency(GattMetrics.READ).getCount()
+                    + snapshot.getLatency(GattMetrics.WRITE).getCount();
+        }
+        assertEquals(timeouts, timedOut);
+        assertEquals(completions.count(BluetoothGatt.GATT_SUCCESS), succeeded);
+    }
+
+    @Test
+    public void unansweredOperationsTimeOut() {
+        List<SimulatedCentral> centrals = connect(1, 0);
+        Completions completions = enqueueAll(centrals);
+
+        // Links are up within the longest latency, then each operation waits for its timeout
+        mScheduler.advanceBy(50 + TIMEOUT * (OPERATIONS - 1));
+        assertEquals(DEVICES * (OPERATIONS - 1), completions.count(GattOperation.STATUS_TIMEOUT));
+        mScheduler.advanceBy(TIMEOUT);
+
+        completions.assertAllCompletedOnceInOrder();
+        assertEquals(DEVICES * OPERATIONS, completions.count(GattOperation.STATUS_TIMEOUT));
+    }
+
+    @Test
+    public void lostLinkCancelsPendingOperations() {
+        List<SimulatedCentral> centrals = connect(0, 300);
+        Completions completions = enqueueAll(centrals);
+        mScheduler.advanceBy(60000);
+
+        completions.assertAllCompletedOnceInOrder();
+        assertTrue("links must have dropped before the end of the queue",
+                completions.count(GattOperation.STATUS_CANCELLED) > 0);
+        assertEquals(DEVICES * OPERATIONS, completions.count(BluetoothGatt.GATT_SUCCESS)
+                + completions.count(GattOperation.STATUS_CANCELLED));
+        for (SimulatedCentral central : centrals) {
+            assertEquals(1, central.disconnectStatuses.size());
+            assertEquals(SimulatedGattBackend.STATUS_LINK_LOST,
+                    (int) central.disconnectStatuses.get(0));
+        }
+    }
+
+    private List<SimulatedCentral> connect(double lossRate, long meanTimeBetweenDisconnects) {
+        List<SimulatedCentral> centrals = new ArrayList<>();
+        for (int i = 0; i < DEVICES; i++) {
+            String address = String.format(Locale.US, "00:00:00:00:%02X:%02X", i >> 8, i & 0xFF);
+            mBackend.addPeripheral(address)
+                    .addCharacteristic(SERVICE, CHARACTERISTIC,
+                            BluetoothGattCharacteristic.PROPERTY_READ
+                                    | BluetoothGattCharacteristic.PROPERTY_WRITE, 0, 20)
+                    .setLatency(5, 50)
+                    .setLossRate(lossRate)
+                    .setMeanTimeBetweenDisconnects(meanTimeBetweenDisconnects);
+            SimulatedCentral central = new SimulatedCentral(mBackend, mScheduler, address, null);
+            central.connect();
+            centrals.add(central);
+        }
+        return centrals;
+    }
+
+    /**
+     * Queue alternating reads and writes on every device, before their links are up.
+     */
+    private Completions enqueueAll(List<SimulatedCentral> centrals) {
+        Completions completions = new Completions();
+        for (int device = 0; device < centrals.size(); device++) {
+            SimulatedCentral central = centrals.get(device);
+            BluetoothGattCharacteristic characteristic =
+                    mBackend.getPeripheral(central.address).getCharacteristic(CHARACTERISTIC);
+            for (int i = 0; i < OPERATIONS; i++) {
+                GattOperation operation = i % 2 == 0
+                        ? GattOperation.readCharacteristic(characteristic)
+                        : GattOperation.writeCharacteristic(characteristic, new byte[]{(byte) i},
+                                BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+                operation.setTimeout(TIMEOUT).setCallback(completions.callback(device, i));
+                central.queue.enqueue(operation);
+            }
+        }
+        return completions;
+    }
+
+    private static final class Completions {
+        final int[][] mStatuses = new int[DEVICES][OPERATIONS];
+        final int[][] mCounts = new int[DEVICES][OPERATIONS];
+        final int[] mNext = new int[DEVICES];
+        boolean mOutOfOrder;
+
+        GattOperation.Callback callback(final int device, final int index) {
+            return new GattOperation.Callback() {
+                @Override
+                public void onOperationComplete(GattOperation operation, int status) {
+                    if (mNext[device]++ != index) {
+                        mOutOfOrder = true;
+                    }
+                    mCounts[device][index]++;
+                    mStatuses[device][index] = status;
+                }
+            };
+        }
+
+        void assertAllCompletedOnceInOrder() {
+            assertFalse("operations completed out of order", mOutOfOrder);
+            for (int device = 0; device < DEVICES; device++) {
+                for (int i = 0; i < OPERATIONS; i++) {
+                    assertEquals("device " + device + " operation " + i, 1, mCounts[device][i]);
+                }
+            }
+        }
+
+        int count(int status) {
+            int count = 0;
+            for (int device = 0; device < DEVICES; device++) {
+                for (int i = 0; i < OPERATIONS; i++) {
+                    if (mCounts[device][i] > 0 && mStatuses[device][i] == status) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+    }
+}
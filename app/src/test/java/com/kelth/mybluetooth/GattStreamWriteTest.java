@@ -0,0 +1,149 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class GattStreamWriteTest {
+
+    private static final UUID SERVICE = UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb");
+    private static final UUID CHARACTERISTIC = UUID.fromString("0000fff2-0000-1000-8000-00805f9b34fb");
+    private static final String ADDRESS = "00:00:00:00:00:01";
+    private static final int CHUNK_SIZE = GattStreamWrite.chunkSize(ConnectionProfile.DEFAULT_MTU);
+    // Not a multiple of the chunk size, so the last chunk is short
+    private static final int PAYLOAD_LENGTH = 100 * CHUNK_SIZE + 7;
+    private static final long LATENCY = 10;
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable runnable) {
+            runnable.run();
+        }
+    };
+
+    private final VirtualScheduler mScheduler = new VirtualScheduler();
+    private final SimulatedGattBackend mBackend = new SimulatedGattBackend(mScheduler, 5);
+    private final Outcome mOutcome = new Outcome();
+
+    @Test
+    public void chunksRunBackToBack() {
+        SimulatedPeripheral peripheral = addPeripheral();
+        SimulatedCentral central = connect();
+        byte[] payload = payload();
+
+        for (int writeType : new int[]{BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT,
+                BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE}) {
+            mOutcome.status = Integer.MIN_VALUE;
+            mOutcome.progressReports = 0;
+            mOutcome.lastProgress = 0;
+            long bytesBefore = peripheral.getBytesWritten(CHARACTERISTIC);
+            start(central, peripheral, payload, writeType);
+            mScheduler.advanceBy(60000);
+
+            assertEquals(BluetoothGatt.GATT_SUCCESS, mOutcome.status);
+            assertEquals(PAYLOAD_LENGTH, mOutcome.bytesWritten);
+            assertEquals(PAYLOAD_LENGTH, peripheral.getBytesWritten(CHARACTERISTIC) - bytesBefore);
+            // One chunk per answer: the link is never idle
+            assertEquals(CHUNK_SIZE * 1000 / LATENCY, mOutcome.bytesPerSecond, CHUNK_SIZE);
+            assertTrue(mOutcome.progressReports > 0);
+            assertTrue(mOutcome.lastProgress <= PAYLOAD_LENGTH);
+        }
+        assertArrayEquals(Arrays.copyOfRange(payload, PAYLOAD_LENGTH - 7, PAYLOAD_LENGTH),
+                peripheral.getAttribute(peripheral.indexOf(CHARACTERISTIC)).value);
+    }
+
+    @Test
+    public void lostLinkFailsTheWrite() {
+        SimulatedPeripheral peripheral = addPeripheral().setMeanTimeBetweenDisconnects(200);
+        SimulatedCentral central = connect();
+
+        start(central, peripheral, payload(), BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        mScheduler.advanceBy(60000);
+
+        assertEquals(GattOperation.STATUS_CANCELLED, mOutcome.status);
+        assertTrue(mOutcome.bytesWritten < PAYLOAD_LENGTH);
+    }
+
+    @Test
+    public void cancelStopsAfterCurrentChunk() {
+        SimulatedPeripheral peripheral = addPeripheral();
+        SimulatedCentral central = connect();
+
+        GattStreamWrite write = start(central, peripheral, payload(),
+                BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        mScheduler.advanceBy(5 * LATENCY);
+        write.cancel();
+        mScheduler.advanceBy(60000);
+
+        assertEquals(GattOperation.STATUS_CANCELLED, mOutcome.status);
+        assertEquals(6 * CHUNK_SIZE, mOutcome.bytesWritten);
+        assertEquals(6 * CHUNK_SIZE, peripheral.getBytesWritten(CHARACTERISTIC));
+    }
+
+    private SimulatedPeripheral addPeripheral() {
+        return mBackend.addPeripheral(ADDRESS)
+                .addCharacteristic(SERVICE, CHARACTERISTIC,
+                        BluetoothGattCharacteristic.PROPERTY_WRITE
+                                | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE, 0, 0)
+                .setLatency(LATENCY, LATENCY);
+    }
+
+    private SimulatedCentral connect() {
+        SimulatedCentral central = new SimulatedCentral(mBackend, mScheduler, ADDRESS, null);
+        central.connect();
+        mScheduler.advanceBy(LATENCY);
+        assertTrue(central.isConnected());
+        return central;
+    }
+
+    private GattStreamWrite start(SimulatedCentral central, SimulatedPeripheral peripheral,
+                                  byte[] payload, int writeType) {
+        GattStreamWrite write = new GattStreamWrite(peripheral.getCharacteristic(CHARACTERISTIC),
+                new ByteArrayInputStream(payload), payload.length, writeType, mScheduler, DIRECT,
+                mOutcome);
+        write.start(central.queue, CHUNK_SIZE);
+        return write;
+    }
+
+    private static byte[] payload() {
+        byte[] payload = new byte[PAYLOAD_LENGTH];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (i * 31);
+        }
+        return payload;
+    }
+
+    private static final class Outcome implements GattStreamWrite.Listener {
+        int status = Integer.MIN_VALUE;
+        long bytesWritten;
+        long bytesPerSecond;
+        int progressReports;
+        long lastProgress;
+
+        @Override
+        public void onProgress(GattStreamWrite write, long bytesWritten, long totalBytes,
+                               long bytesPerSecond) {
+            assertEquals(PAYLOAD_LENGTH, totalBytes);
+            assertTrue(bytesWritten > lastProgress);
+            lastProgress = bytesWritten;
+            progressReports++;
+        }
+
+        @Override
+        public void onComplete(GattStreamWrite write, int status, long bytesWritten,
+                               long bytesPerSecond) {
+            assertEquals(Integer.MIN_VALUE, this.status);
+            this.status = status;
+            this.bytesWritten = bytesWritten;
+            this.bytesPerSecond = bytesPerSecond;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.kelth.mybluetooth;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattValueCacheTest {
+
+    private static final UUID MODEL_NUMBER = GattAttributes.fromShortUuid(0x2A24);
+    private static final UUID HEART_RATE = GattAttributes.fromShortUuid(0x2A37);
+
+    private final VirtualScheduler mClock = new VirtualScheduler();
+    private final GattValueCache.Policy mPolicy = new GattValueCache.Policy();
+    private final GattValueCache mCache = new GattValueCache(mPolicy, mClock);
+    private final GattValue mValue = new GattValue(4);
+
+    @Test
+    public void valueExpiresAfterItsTtl() {
+        mPolicy.setTtl(HEART_RATE, 1000);
+        mCache.put(HEART_RATE, 12, new byte[]{72});
+        mClock.advanceBy(1000);
+        assertTrue(mCache.get(HEART_RATE, 12, mValue));
+        assertEquals(72, mValue.getData()[0]);
+        mClock.advanceBy(1);
+        assertFalse(mCache.get(HEART_RATE, 12, mValue));
+
+        // A new value starts the TTL over
+        mCache.put(HEART_RATE, 12, new byte[]{73});
+        mClock.advanceBy(500);
+        assertTrue(mCache.get(HEART_RATE, 12, mValue));
+        assertEquals(73, mValue.getData()[0]);
+    }
+
+    @Test
+    public void connectionTtlNeverExpires() {
+        mCache.put(MODEL_NUMBER, 3, new byte[]{'A', 'B'});
+        mClock.advanceBy(Long.MAX_VALUE / 2);
+        assertTrue(mCache.get(MODEL_NUMBER, 3, mValue));
+        assertEquals("AB", mValue.toText());
+        mCache.clear();
+        assertFalse(mCache.get(MODEL_NUMBER, 3, mValue));
+    }
+
+    @Test
+    public void uncachedCharacteristicsAreNotStored() {
+        mCache.put(HEART_RATE, 12, new byte[]{72});
+        assertFalse(mCache.get(HEART_RATE, 12, mValue));
+
+        mPolicy.setDefaultTtl(100);
+        mCache.put(HEART_RATE, 12, new byte[]{72});
+        assertTrue(mCache.get(HEART_RATE, 12, mValue));
+    }
+
+    @Test
+    public void entriesAreKeyedByInstanceAndUuid() {
+        mPolicy.setTtl(HEART_RATE, 1000);
+        mCache.put(HEART_RATE, 12, new byte[]{72});
+        assertFalse(mCache.get(HEART_RATE, 13, mValue));
+        // Same handle, other characteristic after a layout change
+        assertFalse(mCache.get(MODEL_NUMBER, 12, mValue));
+    }
+
+    @Test
+    public void shorterValueReusesTheEntry() {
+        mCache.put(MODEL_NUMBER, 3, new byte[]{'A', 'B', 'C'});
+        mCache.put(MODEL_NUMBER, 3, new byte[]{'D'});
+        assertTrue(mCache.get(MODEL_NUMBER, 3, mValue));
+        assertEquals(1, mValue.getLength());
+        assertEquals("D", mValue.toText());
+    }
+}
@@ -0,0 +1,79 @@
+package com.kelth.mybluetooth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class GattValueDispatcherTest {
+
+    private static final UUID HEART_RATE = GattAttributes.fromShortUuid(0x2A37);
+
+    // Runs what it was given when the test says so
+    private final List<Runnable> mPending = new ArrayList<>();
+    private final Executor mExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mPending.add(command);
+        }
+    };
+    private final List<String> mReceived = new ArrayList<>();
+    private final List<GattValue> mValues = new ArrayList<>();
+    private final GattValueDispatcher<String> mDispatcher = new GattValueDispatcher<>(mExecutor,
+            new GattValueDispatcher.Listener<String>() {
+                @Override
+                public void onValue(String device, UUID uuid, GattValue value) {
+                    assertEquals(HEART_RATE, uuid);
+                    mReceived.add(device + " " + value.toHexString());
+                    mValues.add(value);
+                }
+            }, 2);
+
+    @Test
+    public void valuesAreCopiedWhenDispatched() {
+        byte[] data = {0x06, 72, 0x00};
+        mDispatcher.dispatch("A", HEART_RATE, data, 2);
+        // The caller may reuse its buffer right away
+        data[1] = 73;
+        mDispatcher.dispatch("B", HEART_RATE, data, 2);
+        runPending();
+        assertEquals(2, mReceived.size());
+        assertEquals("A 06 48 ", mReceived.get(0));
+        assertEquals("B 06 49 ", mReceived.get(1));
+    }
+
+    @Test
+    public void deliveredValuesAreRecycled() {
+        mDispatcher.dispatch("A", HEART_RATE, new byte[]{1}, 1);
+        runPending();
+        GattValue delivered = mValues.get(0);
+        // Emptied once the listener returned, and handed out again
+        assertEquals(0, delivered.getLength());
+        assertNull(delivered.getUuid());
+        mDispatcher.dispatch("A", HEART_RATE, new byte[]{2}, 1);
+        runPending();
+        assertSame(delivered, mValues.get(1));
+    }
+
+    @Test
+    public void valuesWaitingBeyondThePoolAreStillDelivered() {
+        for (int i = 0; i < 5; i++) {
+            mDispatcher.dispatch("A", HEART_RATE, new byte[]{(byte) i}, 1);
+        }
+        runPending();
+        assertEquals(5, mReceived.size());
+        assertEquals("A 04 ", mReceived.get(4));
+    }
+
+    private void runPending() {
+        List<Runnable> pending = new ArrayList<>(mPending);
+        mPending.clear();
+        for (Runnable runnable : pending) {
+            runnable.run();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.kelth.mybluetooth;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattValuePoolTest {
+
+    private static final UUID HEART_RATE = GattAttributes.fromShortUuid(0x2A37);
+
+    @Test
+    public void releasedHoldersAreReused() {
+        GattValuePool pool = new GattValuePool(2);
+        GattValue first = pool.acquire();
+        GattValue second = pool.acquire();
+        assertNotSame(first, second);
+        pool.release(first);
+        assertSame(first, pool.acquire());
+        pool.release(second);
+        assertSame(second, pool.acquire());
+    }
+
+    @Test
+    public void releasedHoldersAreEmpty() {
+        GattValuePool pool = new GattValuePool(1);
+        GattValue value = pool.acquire();
+        value.set(HEART_RATE, new byte[]{0x06, 72}, 2);
+        pool.release(value);
+        value = pool.acquire();
+        assertNull(value.getUuid());
+        assertEquals(0, value.getLength());
+        assertEquals("", value.toHexString());
+    }
+
+    @Test
+    public void grownBufferIsKept() {
+        GattValuePool pool = new GattValuePool(1);
+        GattValue value = pool.acquire();
+        value.set(HEART_RATE, new byte[100], 100);
+        byte[] buffer = value.getData();
+        pool.release(value);
+        value = pool.acquire();
+        value.set(HEART_RATE, new byte[50], 50);
+        assertSame(buffer, value.getData());
+    }
+
+    @Test
+    public void exhaustedPoolAllocates() {
+        GattValuePool pool = new GattValuePool(1);
+        GattValue pooled = pool.acquire();
+        GattValue extra = pool.acquire();
+        assertNotNull(extra);
+        assertNotSame(pooled, extra);
+        // Only as many holders as the pool size are kept
+        pool.release(pooled);
+        pool.release(extra);
+        assertSame(pooled, pool.acquire());
+        assertNotSame(extra, pool.acquire());
+    }
+}
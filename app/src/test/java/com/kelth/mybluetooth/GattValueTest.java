@@ -0,0 +1,51 @@
+package com.kelth.mybluetooth;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattValueTest {
+
+    private static final UUID MODEL_NUMBER = GattAttributes.fromShortUuid(0x2A24);
+
+    @Test
+    public void onlyTheLengthSetCounts() {
+        GattValue value = new GattValue(4);
+        value.set(MODEL_NUMBER, new byte[]{'O', 'K', (byte) 0xFE}, 2);
+        assertEquals(MODEL_NUMBER, value.getUuid());
+        assertEquals(2, value.getLength());
+        assertEquals("4F 4B ", value.toHexString());
+        assertEquals("OK", value.toText());
+        assertArrayEquals(new byte[]{'O', 'K'}, value.copyData());
+        assertEquals('K', value.getByte(1));
+        try {
+            value.getByte(2);
+            fail("read past the length");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+
+    @Test
+    public void formsAreRebuiltForANewValue() {
+        GattValue value = new GattValue(1);
+        value.set(MODEL_NUMBER, new byte[]{'A'}, 1);
+        assertEquals("A", value.toText());
+        assertEquals("41 ", value.toHexString());
+        // Larger than the buffer, which grows
+        value.set(MODEL_NUMBER, new byte[]{'B', 'C'}, 2);
+        assertEquals("BC", value.toText());
+        assertEquals("42 43 ", value.toHexString());
+        assertEquals(2, value.getData().length);
+    }
+
+    @Test
+    public void appendHexReusesTheBuilder() {
+        GattValue value = new GattValue(2);
+        value.set(MODEL_NUMBER, new byte[]{0x00, (byte) 0xAB}, 2);
+        StringBuilder sb = new StringBuilder("value: ");
+        assertSame(sb, value.appendHex(sb));
+        assertEquals("value: 00 AB ", sb.toString());
+    }
+}
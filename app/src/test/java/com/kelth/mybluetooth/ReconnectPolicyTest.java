@@ -0,0 +1,53 @@
+package com.kelth.mybluetooth;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReconnectPolicyTest {
+
+    // Always draws the bounds of the jitter
+    private static final Random LOW = new Random() {
+        @Override
+        public double nextDouble() {
+            return 0;
+        }
+    };
+    private static final Random HIGH = new Random() {
+        @Override
+        public double nextDouble() {
+            return 1;
+        }
+    };
+
+    @Test
+    public void directDelaysDoubleUpToMax() {
+        ReconnectPolicy policy = new ReconnectPolicy(5, 250, 1000, true);
+        assertEquals(0, policy.getDelay(0, HIGH));
+        assertEquals(250, policy.getDelay(1, HIGH));
+        assertEquals(125, policy.getDelay(1, LOW));
+        assertEquals(500, policy.getDelay(2, HIGH));
+        assertEquals(1000, policy.getDelay(3, HIGH));
+        assertEquals(1000, policy.getDelay(4, HIGH));
+    }
+
+    @Test
+    public void fallbackStartsAtMaxDelayAndBacksOff() {
+        ReconnectPolicy policy = new ReconnectPolicy(5, 250, 8000, true);
+        assertEquals(8000, policy.getFallbackDelay(0, HIGH));
+        assertEquals(4000, policy.getFallbackDelay(0, LOW));
+        assertEquals(16000, policy.getFallbackDelay(1, HIGH));
+        assertEquals(32000, policy.getFallbackDelay(2, HIGH));
+        assertEquals(ReconnectPolicy.MAX_FALLBACK_DELAY, policy.getFallbackDelay(3, HIGH));
+        assertEquals(ReconnectPolicy.MAX_FALLBACK_DELAY, policy.getFallbackDelay(1000, HIGH));
+    }
+
+    @Test
+    public void fallbackNeverImmediate() {
+        ReconnectPolicy policy = new ReconnectPolicy(0, 0, 0, true);
+        assertEquals(ReconnectPolicy.MIN_FALLBACK_DELAY, policy.getFallbackDelay(0, HIGH));
+        assertTrue(policy.getFallbackDelay(0, LOW) > 0);
+    }
+}
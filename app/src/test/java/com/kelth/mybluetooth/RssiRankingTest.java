@@ -0,0 +1,136 @@
+package com.kelth.mybluetooth;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RssiRankingTest {
+
+    private static final float ALPHA = 0.25f;
+
+    @Test
+    public void staysOrderedBySmoothedRssi() {
+        RssiRanking ranking = new RssiRanking(ALPHA, 10);
+        HashMap<String, Float> expected = new HashMap<>();
+        Random random = new Random(11);
+        String[] addresses = new String[300];
+        int[] means = new int[addresses.length];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = String.format(Locale.US, "C0:00:00:00:%02X:%02X", i >> 8, i & 0xFF);
+            means[i] = -40 - random.nextInt(60);
+        }
+
+        for (int sample = 0; sample < 100000; sample++) {
+            int i = random.nextInt(addresses.length);
+            int rssi = means[i] + random.nextInt(11) - 5;
+            ranking.update(addresses[i], rssi, sample);
+            Float previous = expected.get(addresses[i]);
+            expected.put(addresses[i], previous == null ? rssi : previous + ALPHA * (rssi - previous));
+        }
+
+        assertEquals(addresses.length, ranking.size());
+        for (int rank = 0; rank < ranking.size(); rank++) {
+            String address = ranking.getAddress(rank);
+            assertEquals(rank, ranking.getRank(address));
+            assertEquals(expected.get(address), ranking.getSmoothedRssi(rank), 1e-3);
+            if (rank > 0) {
+                assertTrue(ranking.getSmoothedRssi(rank - 1) >= ranking.getSmoothedRssi(rank));
+            }
+        }
+    }
+
+    @Test
+    public void reportsOnlyChangesOfTheTopRanks() {
+        RssiRanking ranking = new RssiRanking(ALPHA, 2);
+        assertTrue(ranking.update("A", -50, 0));
+        assertTrue(ranking.update("B", -60, 0));
+        // Third, outside the top 2
+        assertFalse(ranking.update("C", -70, 0));
+        assertFalse(ranking.update("C", -70, 0));
+        // Same rounded average, same rank
+        assertFalse(ranking.update("A", -50, 0));
+        // Average of C becomes -55, passing B
+        assertTrue(ranking.update("C", -10, 0));
+        assertEquals("C", ranking.getAddress(1));
+        assertEquals("B", ranking.getAddress(2));
+
+        ranking.clear();
+        assertEquals(0, ranking.size());
+        assertEquals(-1, ranking.getRank("A"));
+    }
+
+    @Test
+    public void devicesNotSeenAgeOut() {
+        RssiRanking ranking = new RssiRanking(ALPHA, 2);
+        ranking.update("A", -50, 0);
+        ranking.update("B", -60, 0);
+        ranking.update("C", -70, 0);
+        ranking.update("D", -80, 0);
+        ranking.update("B", -60, 1000);
+        ranking.update("D", -80, 1000);
+
+        // Nothing older than the oldest sample
+        assertFalse(ranking.removeOlderThan(0));
+        assertEquals(4, ranking.size());
+        // A leaves the top 2 and C goes with it
+        assertTrue(ranking.removeOlderThan(500));
+        assertEquals(2, ranking.size());
+        assertEquals(-1, ranking.getRank("A"));
+        assertEquals(-1, ranking.getRank("C"));
+        assertEquals("B", ranking.getAddress(0));
+        assertEquals("D", ranking.getAddress(1));
+        assertEquals(1, ranking.getRank("D"));
+        assertEquals(-80, ranking.getSmoothedRssi(1), 0);
+
+        // A comes back as a new device, without its old average
+        assertFalse(ranking.update("A", -90, 2000));
+        assertEquals(2, ranking.getRank("A"));
+        assertEquals(-90, ranking.getSmoothedRssi(2), 0);
+        // Devices kept go on averaging where they were
+        assertTrue(ranking.update("D", -10, 2000));
+        assertEquals(-62.5f, ranking.getSmoothedRssi(1), 1e-3);
+        ranking.update("B", -60, 2000);
+
+        // Only the devices past the top 2 expire
+        ranking.update("E", -95, 1500);
+        assertFalse(ranking.removeOlderThan(1800));
+        assertEquals(3, ranking.size());
+        assertEquals(-1, ranking.getRank("E"));
+    }
+
+    @Test
+    public void agingKeepsTheRankingConsistent() {
+        RssiRanking ranking = new RssiRanking(ALPHA, 10);
+        HashMap<String, Long> lastSeen = new HashMap<>();
+        Random random = new Random(5);
+        for (int sample = 0; sample < 20000; sample++) {
+            String address = String.format(Locale.US, "C0:00:00:00:00:%02X", random.nextInt(100));
+            ranking.update(address, -40 - random.nextInt(60), sample);
+            lastSeen.put(address, (long) sample);
+            if (sample % 1000 == 999) {
+                long cutoff = sample - 200;
+                ranking.removeOlderThan(cutoff);
+                int alive = 0;
+                for (Map.Entry<String, Long> entry : lastSeen.entrySet()) {
+                    boolean kept = entry.getValue() >= cutoff;
+                    assertEquals(entry.getKey(), kept, ranking.getRank(entry.getKey()) >= 0);
+                    if (kept) {
+                        alive++;
+                    }
+                }
+                assertEquals(alive, ranking.size());
+                for (int rank = 0; rank < ranking.size(); rank++) {
+                    assertEquals(rank, ranking.getRank(ranking.getAddress(rank)));
+                    if (rank > 0) {
+                        assertTrue(ranking.getSmoothedRssi(rank - 1) >= ranking.getSmoothedRssi(rank));
+                    }
+                }
+            }
+        }
+    }
+}
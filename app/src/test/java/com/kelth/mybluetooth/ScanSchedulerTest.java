@@ -0,0 +1,149 @@
+package com.kelth.mybluetooth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ScanSchedulerTest {
+
+    private static final ScanDutyCycle DUTY_CYCLE = new ScanDutyCycle(1000, 3000, 8000, 64000);
+
+    private final VirtualScheduler mScheduler = new VirtualScheduler();
+    private final FakeScanner mScanner = new FakeScanner();
+    private final ScanScheduler mScanScheduler =
+            new ScanScheduler(mScheduler, DUTY_CYCLE, mScanner);
+
+    @Test
+    public void stableEnvironmentBacksOff() {
+        mScanScheduler.start();
+        mScheduler.advanceBy(300000);
+
+        // Interval doubles after every window that found nothing, up to the longest
+        long[] expected = {0, 16000, 48000, 112000, 176000, 240000};
+        assertEquals(expected.length, mScanner.starts.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], (long) mScanner.starts.get(i));
+        }
+        assertEquals(DUTY_CYCLE.getMaxInterval(), mScanScheduler.getInterval());
+        assertEquals(expected.length * DUTY_CYCLE.getWindow(), mScanScheduler.getScanningTime());
+        assertFalse(mScanner.scanning);
+    }
+
+    @Test
+    public void newDeviceRaisesDutyCycle() {
+        mScanScheduler.start();
+        mScheduler.advanceBy(112000);
+        assertTrue(mScanScheduler.isScanning());
+        assertEquals(64000, mScanScheduler.getInterval());
+
+        mScheduler.advanceBy(500);
+        mScanScheduler.onDeviceSeen("00:00:00:00:00:01", false);
+        assertEquals(DUTY_CYCLE.getMinInterval(), mScanScheduler.getInterval());
+        // The window stays open a full window after the device
+        mScheduler.advanceBy(999);
+        assertTrue(mScanScheduler.isScanning());
+        mScheduler.advanceBy(1);
+        assertFalse(mScanScheduler.isScanning());
+
+        // Next window one short interval after the start of this one
+        mScheduler.advanceBy(112000 + 8000 - mScheduler.uptimeMillis());
+        assertTrue(mScanScheduler.isScanning());
+    }
+
+    @Test
+    public void knownDeviceDoesNotRaiseDutyCycle() {
+        mScanScheduler.start();
+        mScanScheduler.onDeviceSeen("00:00:00:00:00:01", false);
+        mScheduler.advanceBy(DUTY_CYCLE.getMinInterval());
+        assertTrue(mScanScheduler.isScanning());
+
+        mScanScheduler.onDeviceSeen("00:00:00:00:00:01", false);
+        mScheduler.advanceBy(DUTY_CYCLE.getWindow());
+        assertFalse(mScanScheduler.isScanning());
+        assertEquals(2 * DUTY_CYCLE.getMinInterval(), mScanScheduler.getInterval());
+    }
+
+    @Test
+    public void targetKeepsDutyCycleUp() {
+        mScanScheduler.start();
+        for (int i = 0; i < 10; i++) {
+            mScanScheduler.onDeviceSeen("00:00:00:00:00:01", true);
+            mScheduler.advanceBy(DUTY_CYCLE.getMinInterval());
+        }
+        // One window every short interval, the last one just started
+        assertEquals(11, mScanner.starts.size());
+        assertEquals(DUTY_CYCLE.getMinInterval(), mScanScheduler.getInterval());
+    }
+
+    @Test
+    public void windowExtensionIsBounded() {
+        mScanScheduler.start();
+        for (int i = 0; i < 50; i++) {
+            mScanScheduler.onDeviceSeen("00:00:00:00:00:" + i, false);
+            mScheduler.advanceBy(100);
+        }
+        assertEquals(1, mScanner.starts.size());
+        assertEquals(DUTY_CYCLE.getMaxWindow(), mScanScheduler.getScanningTime());
+    }
+
+    @Test
+    public void startsRespectPlatformLimit() {
+        ScanScheduler scheduler = new ScanScheduler(mScheduler,
+                new ScanDutyCycle(500, 500, 1000, 1000), mScanner);
+        scheduler.start();
+        mScheduler.advanceBy(300000);
+
+        List<Long> starts = mScanner.starts;
+        assertTrue(starts.size() > 2 * ScanScheduler.MAX_STARTS);
+        for (int i = ScanScheduler.MAX_STARTS; i < starts.size(); i++) {
+            assertTrue(starts.get(i) - starts.get(i - ScanScheduler.MAX_STARTS)
+                    > ScanScheduler.START_LIMIT_PERIOD);
+        }
+    }
+
+    @Test
+    public void stopCancelsNextWindow() {
+        mScanScheduler.start();
+        mScheduler.advanceBy(500);
+        mScanScheduler.stop();
+
+        assertFalse(mScanner.scanning);
+        assertFalse(mScanScheduler.isRunning());
+        assertEquals(0, mScheduler.getPendingCount());
+    }
+
+    @Test
+    public void failedStartStops() {
+        mScanner.available = false;
+        mScanScheduler.start();
+
+        assertFalse(mScanScheduler.isRunning());
+        assertEquals(0, mScheduler.getPendingCount());
+    }
+
+    private final class FakeScanner implements ScanScheduler.Scanner {
+        final List<Long> starts = new ArrayList<>();
+        boolean available = true;
+        boolean scanning;
+
+        @Override
+        public boolean startScan() {
+            if (!available) {
+                return false;
+            }
+            assertFalse(scanning);
+            scanning = true;
+            starts.add(mScheduler.uptimeMillis());
+            return true;
+        }
+
+        @Override
+        public void stopScan() {
+            assertTrue(scanning);
+            scanning = false;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.kelth.mybluetooth;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class SessionRecorderTest {
+
+    private static final UUID HEART_RATE_MEASUREMENT =
+            UUID.fromString("00002a37-0000-1000-8000-00805f9b34fb");
+    private static final UUID VENDOR = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasRecorded() throws IOException {
+        File directory = mFolder.newFolder("recording");
+        SessionRecorder recorder = new SessionRecorder(directory);
+        assertTrue(recorder.record(1000, "00:11:22:33:44:55", HEART_RATE_MEASUREMENT,
+                new byte[]{0x06, 0x48, 0x00}, 2));
+        assertTrue(recorder.record(2000, "66:77:88:99:AA:BB", VENDOR, new byte[0], 0));
+        assertTrue(recorder.record(3000, "00:11:22:33:44:55", VENDOR, new byte[]{1, 2, 3}, 3));
+        recorder.close();
+        assertEquals(3, recorder.getRecordCount());
+
+        SessionReader reader = new SessionReader(directory);
+        byte[] buffer = new byte[16];
+
+        assertTrue(reader.next());
+        assertEquals(1000, reader.getTimestamp());
+        assertEquals("00:11:22:33:44:55", reader.getDeviceAddress());
+        assertEquals(HEART_RATE_MEASUREMENT, reader.getCharacteristicUuid());
+        assertEquals(2, reader.getValue(buffer));
+        assertEquals(0x06, buffer[0]);
+        assertEquals(0x48, buffer[1]);
+
+        assertTrue(reader.next());
+        assertEquals(2000, reader.getTimestamp());
+        assertEquals("66:77:88:99:AA:BB", reader.getDeviceAddress());
+        assertEquals(VENDOR, reader.getCharacteristicUuid());
+        assertEquals(0, reader.getValueLength());
+
+        assertTrue(reader.next());
+        assertEquals(3000, reader.getTimestamp());
+        assertEquals(0, reader.getDeviceIndex());
+        assertEquals(VENDOR, reader.getCharacteristicUuid());
+        assertEquals(3, reader.getValueLength());
+        assertEquals(3, reader.getValueByte(2));
+
+        assertFalse(reader.next());
+        assertEquals(2, reader.getDeviceCount());
+        reader.close();
+    }
+}
@@ -0,0 +1,107 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothProfile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The app side of one simulated link: an operation queue fed by the backend callbacks, as
+ * {@link GattSession} does it, without the session's use of the android.bluetooth objects.
+ */
+class SimulatedCentral implements GattBackend.Callback {
+
+    final String address;
+    final GattOperationQueue queue;
+    final List<Integer> disconnectStatuses = new ArrayList<>();
+    private final SimulatedGattBackend mBackend;
+    private final SimulatedPeripheral mPeripheral;
+    private final GattValueDispatcher<String> mDispatcher;
+    private GattBackend.Connection mConnection;
+    private boolean mConnected;
+
+    /**
+     * @param dispatcher Receives the notifications, may be null
+     */
+    SimulatedCentral(SimulatedGattBackend backend, GattScheduler scheduler, String address,
+                     GattValueDispatcher<String> dispatcher) {
+        this.address = address;
+        queue = new GattOperationQueue(scheduler);
+        mBackend = backend;
+        mPeripheral = backend.getPeripheral(address);
+        mDispatcher = dispatcher;
+    }
+
+    void connect() {
+        mConnection = mBackend.connect(address, false, this);
+    }
+
+    boolean isConnected() {
+        return mConnected;
+    }
+
+    @Override
+    public void onConnectionStateChange(GattBackend.Connection connection, int status,
+                                        int newState) {
+        if (newState == BluetoothProfile.STATE_CONNECTED) {
+            mConnected = true;
+            queue.setConnection(connection);
+        } else {
+            mConnected = false;
+            disconnectStatuses.add(status);
+            queue.setConnection(null);
+            queue.clear(GattOperation.STATUS_CANCELLED);
+            mConnection.close();
+        }
+    }
+
+    @Override
+    public void onServicesDiscovered(GattBackend.Connection connection, int status) {
+        queue.onOperationComplete(GattOperation.TYPE_DISCOVER_SERVICES, null, status);
+    }
+
+    @Override
+    public void onCharacteristicRead(GattBackend.Connection connection,
+                                     BluetoothGattCharacteristic characteristic, byte[] value,
+                                     int status) {
+        queue.onOperationComplete(GattOperation.TYPE_READ_CHARACTERISTIC, characteristic, status);
+    }
+
+    @Override
+    public void onCharacteristicWrite(GattBackend.Connection connection,
+                                      BluetoothGattCharacteristic characteristic, int status) {
+        queue.onOperationComplete(GattOperation.TYPE_WRITE_CHARACTERISTIC, characteristic, status);
+    }
+
+    @Override
+    public void onCharacteristicChanged(GattBackend.Connection connection,
+                                        BluetoothGattCharacteristic characteristic, byte[] value) {
+        if (mDispatcher != null) {
+            SimulatedPeripheral.Attribute attribute =
+                    mPeripheral.getAttribute(mPeripheral.indexOf(characteristic));
+            mDispatcher.dispatch(address, attribute.uuid, value, value.length);
+        }
+    }
+
+    @Override
+    public void onDescriptorWrite(GattBackend.Connection connection,
+                                  BluetoothGattDescriptor descriptor, int status) {
+        queue.onOperationComplete(GattOperation.TYPE_WRITE_DESCRIPTOR, descriptor, status);
+    }
+
+    @Override
+    public void onMtuChanged(GattBackend.Connection connection, int mtu, int status) {
+        queue.onOperationComplete(GattOperation.TYPE_REQUEST_MTU, null, status);
+    }
+
+    @Override
+    public void onPhyUpdate(GattBackend.Connection connection, int txPhy, int rxPhy, int status) {
+        queue.onOperationComplete(GattOperation.TYPE_SET_PREFERRED_PHY, null, status);
+    }
+
+    @Override
+    public void onServiceChanged(GattBackend.Connection connection) {
+    }
+}
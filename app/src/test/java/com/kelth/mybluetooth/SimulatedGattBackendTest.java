@@ -0,0 +1,187 @@
+package com.kelth.mybluetooth;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Notification streams, link failures and replay of {@link SimulatedGattBackend}, delivered
+ * through a {@link GattValueDispatcher} as the service does.
+ */
+public class SimulatedGattBackendTest {
+
+    private static final UUID SERVICE = UUID.fromString("0000fff0-0000-1000-8000-00805f9b34fb");
+    private static final UUID STREAM = UUID.fromString("0000fff1-0000-1000-8000-00805f9b34fb");
+    private static final byte[] ENABLE_NOTIFICATION = {1, 0};
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final VirtualScheduler mScheduler = new VirtualScheduler();
+    private final SimulatedGattBackend mBackend = new SimulatedGattBackend(mScheduler, 7);
+
+    @Test
+    public void notificationsArriveInSequence() {
+        final int devices = 100;
+        final Map<String, Integer> lastSequence = new HashMap<>();
+        final Map<String, Integer> received = new HashMap<>();
+        final boolean[] outOfOrder = new boolean[1];
+        GattValueDispatcher<String> dispatcher = new GattValueDispatcher<>(DIRECT,
+                new GattValueDispatcher.Listener<String>() {
+                    @Override
+                    public void onValue(String device, UUID uuid, GattValue value) {
+                        int sequence = (value.getByte(0) & 0xFF)
+                                | (value.getByte(1) & 0xFF) << 8
+                                | (value.getByte(2) & 0xFF) << 16
+                                | (value.getByte(3) & 0xFF) << 24;
+                        Integer last = lastSequence.put(device, sequence);
+                        if (!STREAM.equals(uuid) || (last != null && sequence <= last)) {
+                            outOfOrder[0] = true;
+                        }
+                        Integer count = received.get(device);
+                        received.put(device, count == null ? 1 : count + 1);
+                    }
+                }, 16);
+
+        List<SimulatedCentral> centrals = new ArrayList<>();
+        for (int i = 0; i < devices; i++) {
+            String address = address(i);
+            mBackend.addPeripheral(address)
+                    .addCharacteristic(SERVICE, STREAM, BluetoothGattCharacteristic.PROPERTY_NOTIFY,
+                            20, 8)
+                    .setLossRate(0.02);
+            SimulatedCentral central = new SimulatedCentral(mBackend, mScheduler, address, dispatcher);
+            central.connect();
+            enableNotifications(central, STREAM);
+            centrals.add(central);
+        }
+        mScheduler.advanceBy(10000);
+
+        assertFalse("values out of sequence", outOfOrder[0]);
+        long lost = 0;
+        for (SimulatedCentral central : centrals) {
+            SimulatedPeripheral peripheral = mBackend.getPeripheral(central.address);
+            long sent = peripheral.getNotificationsSent(STREAM);
+            assertTrue(sent > 400);
+            assertEquals(sent, (long) received.get(central.address));
+            lost += peripheral.getNotificationsLost(STREAM);
+        }
+        assertTrue("some notifications must have been lost", lost > 0);
+    }
+
+    @Test
+    public void connectionsFailAndDrop() {
+        final int devices = 100;
+        List<SimulatedCentral> centrals = new ArrayList<>();
+        for (int i = 0; i < devices; i++) {
+            String address = address(i);
+            mBackend.addPeripheral(address)
+                    .addCharacteristic(SERVICE, STREAM, BluetoothGattCharacteristic.PROPERTY_NOTIFY,
+                            20, 8)
+                    .setConnectFailureRate(0.3)
+                    .setMeanTimeBetweenDisconnects(1000);
+            SimulatedCentral central = new SimulatedCentral(mBackend, mScheduler, address, null);
+            central.connect();
+            centrals.add(central);
+        }
+        SimulatedCentral absent = new SimulatedCentral(mBackend, mScheduler, "00:00:00:00:FF:FF", null);
+        absent.connect();
+        mScheduler.advanceBy(60000);
+
+        int failed = 0;
+        int dropped = 0;
+        for (SimulatedCentral central : centrals) {
+            assertFalse(central.isConnected());
+            assertEquals(1, central.disconnectStatuses.size());
+            int status = central.disconnectStatuses.get(0);
+            if (status == SimulatedGattBackend.STATUS_CONNECT_FAILED) {
+                failed++;
+            } else {
+                assertEquals(SimulatedGattBackend.STATUS_LINK_LOST, status);
+                dropped++;
+            }
+        }
+        assertTrue(failed > 10 && failed < 50);
+        assertEquals(devices, failed + dropped);
+        assertEquals(Arrays.asList(SimulatedGattBackend.STATUS_CONNECT_FAILED),
+                absent.disconnectStatuses);
+    }
+
+    @Test
+    public void replayFollowsRecordedTiming() throws Exception {
+        File directory = mFolder.newFolder("session");
+        SessionRecorder recorder = new SessionRecorder(directory);
+        long start = 1000000000L;
+        for (int i = 0; i < 200; i++) {
+            // Device i % 2, 10 ms apart
+            recorder.record(start + i * 10000000L, address(i % 2), STREAM,
+                    new byte[]{(byte) i, (byte) (i >> 8)}, 2);
+        }
+        recorder.close();
+
+        final List<String> devices = new ArrayList<>();
+        final List<Integer> values = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+        GattValueDispatcher<String> dispatcher = new GattValueDispatcher<>(DIRECT,
+                new GattValueDispatcher.Listener<String>() {
+                    @Override
+                    public void onValue(String device, UUID uuid, GattValue value) {
+                        devices.add(device);
+                        values.add((value.getByte(0) & 0xFF) | (value.getByte(1) & 0xFF) << 8);
+                        times.add(mScheduler.uptimeMillis());
+                    }
+                }, 4);
+        for (int i = 0; i < 2; i++) {
+            // Notifications must be enabled before the replay starts
+            mBackend.addPeripheral(address(i)).addCharacteristic(SimulatedGattBackend.REPLAY_SERVICE,
+                    STREAM, BluetoothGattCharacteristic.PROPERTY_NOTIFY, 0, 2);
+            SimulatedCentral central = new SimulatedCentral(mBackend, mScheduler, address(i),
+                    dispatcher);
+            central.connect();
+            enableNotifications(central, STREAM);
+        }
+        mScheduler.advanceBy(1000);
+
+        long replayStart = mScheduler.uptimeMillis();
+        mBackend.replay(directory);
+        mScheduler.advanceBy(5000);
+
+        assertEquals(200, values.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, (int) values.get(i));
+            assertEquals(address(i % 2), devices.get(i));
+            assertEquals(replayStart + i * 10, (long) times.get(i));
+        }
+    }
+
+    private static String address(int index) {
+        return String.format(Locale.US, "00:00:00:00:%02X:%02X", index >> 8, index & 0xFF);
+    }
+
+    private void enableNotifications(SimulatedCentral central, UUID uuid) {
+        central.queue.enqueue(GattOperation.writeDescriptor(
+                mBackend.getPeripheral(central.address).getClientCharacteristicConfig(uuid),
+                ENABLE_NOTIFICATION));
+    }
+}
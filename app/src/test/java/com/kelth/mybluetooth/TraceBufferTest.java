@@ -0,0 +1,132 @@
+package com.kelth.mybluetooth;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class TraceBufferTest {
+
+    private static final int BEGIN = 1;
+    private static final int END = 2;
+    private static final int INSTANT = 3;
+
+    private final TraceBuffer mBuffer = new TraceBuffer(4);
+
+    @Before
+    public void setUp() {
+        mBuffer.define(BEGIN, "read", TraceBuffer.PHASE_BEGIN, "handle");
+        mBuffer.define(END, null, TraceBuffer.PHASE_END, "status");
+        mBuffer.define(INSTANT, "notification", TraceBuffer.PHASE_INSTANT, null);
+    }
+
+    @Test
+    public void packedFieldsRoundTrip() {
+        long packed = TraceBuffer.pack(200, 0xFFFF, -3);
+        assertEquals(200, TraceBuffer.event(packed));
+        assertEquals(0xFFFF, TraceBuffer.device(packed));
+        assertEquals(-3, TraceBuffer.handle(packed));
+    }
+
+    @Test
+    public void capacityIsPowerOfTwo() {
+        assertEquals(4, mBuffer.getCapacity());
+        assertEquals(8, new TraceBuffer(5).getCapacity());
+    }
+
+    @Test
+    public void devicesKeepTheirId() {
+        int first = mBuffer.registerDevice("00:11:22:33:44:55");
+        int second = mBuffer.registerDevice("66:77:88:99:AA:BB");
+        assertEquals(1, first);
+        assertEquals(2, second);
+        assertEquals(first, mBuffer.registerDevice("00:11:22:33:44:55"));
+    }
+
+    @Test
+    public void spansAndInstants() throws IOException {
+        int device = mBuffer.registerDevice("00:11:22:33:44:55");
+        mBuffer.record(BEGIN, device, 42, 1000000);
+        mBuffer.record(INSTANT, device, 46, 1001500);
+        mBuffer.record(END, device, 0, 1002250);
+
+        String json = export(3);
+        assertTrue(json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+        assertTrue(json.contains("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":1,"
+                + "\"args\":{\"name\":\"00:11:22:33:44:55\"}}"));
+        assertTrue(json.contains("{\"name\":\"read\",\"ph\":\"B\",\"pid\":1,\"tid\":1,"
+                + "\"ts\":0.000,\"args\":{\"handle\":42}}"));
+        assertTrue(json.contains("{\"name\":\"notification\",\"ph\":\"i\",\"pid\":1,\"tid\":1,"
+                + "\"ts\":1.500,\"s\":\"t\"}"));
+        assertTrue(json.contains("{\"ph\":\"E\",\"pid\":1,\"tid\":1,"
+                + "\"ts\":2.250,\"args\":{\"status\":0}}"));
+        assertTrue(json.endsWith("]}\n"));
+    }
+
+    @Test
+    public void oldestEventsAreOverwritten() throws IOException {
+        for (int i = 0; i < 6; i++) {
+            mBuffer.record(BEGIN, 0, i, i * 1000L);
+        }
+        assertEquals(6, mBuffer.getEventCount());
+
+        String json = export(4);
+        assertFalse(json.contains("\"handle\":1}"));
+        assertTrue(json.contains("\"ts\":0.000,\"args\":{\"handle\":2}"));
+        assertTrue(json.contains("\"ts\":3.000,\"args\":{\"handle\":5}"));
+    }
+
+    @Test
+    public void undefinedEventsAreLeftOut() throws IOException {
+        mBuffer.record(9, 0, 0, 0);
+        mBuffer.record(BEGIN, 0, 0, 0);
+        export(1);
+    }
+
+    @Test
+    public void clearDropsEvents() throws IOException {
+        mBuffer.record(BEGIN, 0, 0, 0);
+        mBuffer.clear();
+        assertEquals(0, mBuffer.getEventCount());
+        export(0);
+    }
+
+    @Test
+    public void snapshotWhileRecordingHasNoTornEvents() throws InterruptedException {
+        final TraceBuffer buffer = new TraceBuffer(64);
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // The time and the handle of each event tell the same number
+                for (int i = 0; !stop.get(); i++) {
+                    buffer.record(BEGIN, 0, i, i);
+                }
+            }
+        });
+        writer.start();
+        try {
+            long[] times = new long[buffer.getCapacity()];
+            long[] packed = new long[times.length];
+            for (int round = 0; round < 20000; round++) {
+                int count = buffer.snapshot(times, packed);
+                for (int i = 0; i < count; i++) {
+                    assertEquals((int) times[i], TraceBuffer.handle(packed[i]));
+                }
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+    }
+
+    private String export(int expectedCount) throws IOException {
+        StringWriter writer = new StringWriter();
+        assertEquals(expectedCount, mBuffer.writeChromeJson(writer));
+        return writer.toString();
+    }
+}
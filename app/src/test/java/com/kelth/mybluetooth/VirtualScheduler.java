@@ -0,0 +1,94 @@
+package com.kelth.mybluetooth;
+
+import java.util.PriorityQueue;
+
+/**
+ * {@link GattScheduler} on virtual time: nothing runs until the test advances the clock, and
+ * tasks due at the same time run in the order they were posted.
+ */
+class VirtualScheduler implements GattScheduler {
+
+    private final PriorityQueue<Task> mTasks = new PriorityQueue<>();
+    private long mNow;
+    private long mSequence;
+
+    @Override
+    public synchronized void post(Runnable runnable) {
+        postDelayed(runnable, 0);
+    }
+
+    @Override
+    public synchronized void postDelayed(Runnable runnable, long delayMillis) {
+        mTasks.add(new Task(mNow + Math.max(0, delayMillis), mSequence++, runnable));
+    }
+
+    @Override
+    public synchronized void removeCallbacks(Runnable runnable) {
+        // Like Handler#removeCallbacks, removes every pending post of the runnable
+        while (mTasks.remove(new Task(0, 0, runnable))) {
+        }
+    }
+
+    @Override
+    public synchronized long uptimeMillis() {
+        return mNow;
+    }
+
+    /**
+     * Run everything due within the next {@code millis} milliseconds.
+     */
+    void advanceBy(long millis) {
+        long end;
+        synchronized (this) {
+            end = mNow + millis;
+        }
+        while (true) {
+            Task task;
+            synchronized (this) {
+                task = mTasks.peek();
+                if (task == null || task.time > end) {
+                    mNow = end;
+                    return;
+                }
+                mTasks.poll();
+                mNow = task.time;
+            }
+            task.runnable.run();
+        }
+    }
+
+    synchronized int getPendingCount() {
+        return mTasks.size();
+    }
+
+    private static final class Task implements Comparable<Task> {
+        final long time;
+        final long sequence;
+        final Runnable runnable;
+
+        Task(long time, long sequence, Runnable runnable) {
+            this.time = time;
+            this.sequence = sequence;
+            this.runnable = runnable;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+
+        // Matches on the runnable only, for removeCallbacks
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Task && ((Task) other).runnable == runnable;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(runnable);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.kelth.mybluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Cost of deciding from one advertisement whether a device is of interest: by a service UUID
+ * and by manufacturer data. {@code ScanRecord} is an Android class, so the baseline mirrors
+ * its parsing, which copies every structure into new objects up front.
+ */
+@State(Scope.Thread)
+public class AdvertisingDataBenchmark {
+
+    private static final UUID CUSTOM = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+
+    private static final byte[] SCAN_RECORD = Arrays.copyOf(new byte[]{
+            0x02, 0x01, 0x06,
+            0x05, 0x03, 0x0D, 0x18, 0x0F, 0x18,
+            0x11, 0x07, (byte) 0x9E, (byte) 0xCA, (byte) 0xDC, 0x24, 0x0E, (byte) 0xE5,
+            (byte) 0xA9, (byte) 0xE0, (byte) 0x93, (byte) 0xF3, (byte) 0xA3, (byte) 0xB5,
+            0x01, 0x00, 0x40, 0x6E,
+            0x02, 0x0A, (byte) 0xF4,
+            0x06, (byte) 0xFF, 0x4C, 0x00, 0x02, 0x15, 0x01,
+            0x05, 0x09, 'T', 'e', 's', 't',
+    }, 62);
+
+    private final AdvertisingData mData = new AdvertisingData();
+
+    @Benchmark
+    public boolean flyweight() {
+        mData.wrap(SCAN_RECORD);
+        return mData.hasServiceUuid(CUSTOM) && mData.findManufacturerData(0x004C)
+                && mData.getValueLength() > 0;
+    }
+
+    @Benchmark
+    public boolean baselineCopyEveryStructure() {
+        List<UUID> uuids = new ArrayList<>();
+        byte[] manufacturerData = null;
+        int offset = 0;
+        while (offset < SCAN_RECORD.length) {
+            int length = SCAN_RECORD[offset] & 0xFF;
+            if (length == 0 || offset + 1 + length > SCAN_RECORD.length) {
+                break;
+            }
+            int type = SCAN_RECORD[offset + 1] & 0xFF;
+            byte[] value = Arrays.copyOfRange(SCAN_RECORD, offset + 2, offset + 1 + length);
+            if (type == AdvertisingData.TYPE_COMPLETE_UUID16) {
+                for (int i = 0; i + 2 <= value.length; i += 2) {
+                    long shortUuid = (value[i] & 0xFF) | (value[i + 1] & 0xFF) << 8;
+                    uuids.add(new UUID(shortUuid << 32 | 0x1000L, 0x800000805F9B34FBL));
+                }
+            } else if (type == AdvertisingData.TYPE_COMPLETE_UUID128) {
+                for (int i = 0; i + 16 <= value.length; i += 16) {
+                    uuids.add(new UUID(readLong(value, i + 8), readLong(value, i)));
+                }
+            } else if (type == AdvertisingData.TYPE_MANUFACTURER_SPECIFIC_DATA) {
+                manufacturerData = value;
+            }
+            offset += 1 + length;
+        }
+        return uuids.contains(CUSTOM) && manufacturerData != null
+                && ((manufacturerData[0] & 0xFF) | (manufacturerData[1] & 0xFF) << 8) == 0x004C;
+    }
+
+    private static long readLong(byte[] value, int offset) {
+        long result = 0;
+        for (int i = 7; i >= 0; i--) {
+            result = result << 8 | (value[offset + i] & 0xFF);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,55 @@
+package com.kelth.mybluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Cost of naming one attribute: the string keyed map of the former
+ * {@code SampleGattAttributes}, looked up with {@code uuid.toString()} as the UI did, against
+ * {@link GattAttributes#lookup}. Known and unknown UUIDs are mixed.
+ */
+@State(Scope.Thread)
+public class AttributeLookupBenchmark {
+
+    private static final HashMap<String, String> SAMPLE_ATTRIBUTES = new HashMap<>();
+
+    static {
+        SAMPLE_ATTRIBUTES.put("0000180d-0000-1000-8000-00805f9b34fb", "Heart Rate Service");
+        SAMPLE_ATTRIBUTES.put("0000180a-0000-1000-8000-00805f9b34fb", "Device Information Service");
+        SAMPLE_ATTRIBUTES.put("00002a37-0000-1000-8000-00805f9b34fb", "Heart Rate Measurement");
+        SAMPLE_ATTRIBUTES.put("00002a29-0000-1000-8000-00805f9b34fb", "Manufacturer Name String");
+    }
+
+    private final UUID[] mUuids = {
+            GattAttributes.fromShortUuid(0x180D),
+            GattAttributes.fromShortUuid(0x2A37),
+            GattAttributes.fromShortUuid(0x2902),
+            GattAttributes.fromShortUuid(0x180A),
+            GattAttributes.fromShortUuid(0x2A29),
+            GattAttributes.fromShortUuid(0x2A19),
+            GattAttributes.fromShortUuid(0xFFF0),
+            UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e"),
+    };
+    private int mNext;
+
+    private UUID nextUuid() {
+        UUID uuid = mUuids[mNext];
+        mNext = (mNext + 1) & (mUuids.length - 1);
+        return uuid;
+    }
+
+    @Benchmark
+    public String baselineSampleAttributes() {
+        String name = SAMPLE_ATTRIBUTES.get(nextUuid().toString());
+        return name == null ? "Unknown" : name;
+    }
+
+    @Benchmark
+    public String assignedNumbers() {
+        return GattAttributes.lookup(nextUuid(), "Unknown");
+    }
+}
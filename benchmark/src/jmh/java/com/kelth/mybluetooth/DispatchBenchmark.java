@@ -0,0 +1,77 @@
+package com.kelth.mybluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.UUID;
+import java.util.concurrent.Executor;
+
+/**
+ * Cost of handing one notification to the app: the hex and text formatting that
+ * {@code broadcastUpdate} used to do for every value, against {@link GattValueDispatcher}.
+ * The executor runs inline so only the dispatch itself is measured.
+ */
+@State(Scope.Thread)
+public class DispatchBenchmark {
+
+    private static final String DEVICE = "00:11:22:33:44:55";
+    private static final UUID UUID_HEART_RATE = GattAttributes.HEART_RATE_MEASUREMENT;
+
+    private final byte[] mData = {0x16, 0x48, 0x20, 0x03, 0x10, 0x03};
+    private final StringBuilder mText = new StringBuilder(64);
+    private GattValueDispatcher<String> mDispatcher;
+    private GattValueDispatcher<String> mFormattingDispatcher;
+    // What the listeners read, returned so the work is not optimized away
+    private int mSink;
+
+    @Setup
+    public void setUp() {
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        mDispatcher = new GattValueDispatcher<>(direct,
+                new GattValueDispatcher.Listener<String>() {
+                    @Override
+                    public void onValue(String device, UUID uuid, GattValue value) {
+                        mSink += value.getByte(0);
+                    }
+                }, 4);
+        mFormattingDispatcher = new GattValueDispatcher<>(direct,
+                new GattValueDispatcher.Listener<String>() {
+                    @Override
+                    public void onValue(String device, UUID uuid, GattValue value) {
+                        mText.setLength(0);
+                        mSink += value.appendHex(mText).length();
+                    }
+                }, 4);
+    }
+
+    /**
+     * The per-value work of the original {@code broadcastUpdate}, without the Intent.
+     */
+    @Benchmark
+    public String baselineBroadcastFormat() {
+        StringBuilder stringBuilder = new StringBuilder(mData.length);
+        for (byte byteChar : mData) {
+            stringBuilder.append(String.format("%02X ", byteChar));
+        }
+        return new String(mData) + "\n" + stringBuilder.toString();
+    }
+
+    @Benchmark
+    public int dispatch() {
+        mDispatcher.dispatch(DEVICE, UUID_HEART_RATE, mData, mData.length);
+        return mSink;
+    }
+
+    @Benchmark
+    public int dispatchAndAppendHex() {
+        mFormattingDispatcher.dispatch(DEVICE, UUID_HEART_RATE, mData, mData.length);
+        return mSink;
+    }
+}
@@ -0,0 +1,20 @@
+package com.kelth.mybluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of recording one duration, paid by every notification and operation. The histogram is
+ * shared by all benchmark threads, so running with more threads shows contention.
+ */
+@State(Scope.Benchmark)
+public class LatencyHistogramBenchmark {
+
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+
+    @Benchmark
+    public void record() {
+        mHistogram.record(7500);
+    }
+}
@@ -0,0 +1,127 @@
+package com.kelth.mybluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Cost of one advertisement in the scan list with {@code devices} devices in range. The list
+ * adapter is an Android class, so this mirrors its bookkeeping: the original
+ * {@code ArrayList.contains} check against the address index of {@code BLEDeviceListAdapter},
+ * which also tracks the RSSI. Keeping the list ordered by smoothed RSSI is measured with
+ * {@link RssiRanking} against sorting the whole list on every advertisement.
+ */
+@State(Scope.Thread)
+public class ScanListBenchmark {
+
+    // Advertisements are cycled through, a power of two
+    private static final int ADVERTISEMENTS = 4096;
+
+    @Param({"10", "100", "1000"})
+    public int devices;
+
+    private String[] mAddresses;
+    private int[] mRssis;
+    private int mNext;
+    private final ArrayList<String> mLeDevices = new ArrayList<>();
+    private final HashMap<String, Entry> mDeviceIndex = new HashMap<>();
+    private final RssiRanking mRanking = new RssiRanking(0.25f, 100);
+    private final ArrayList<Entry> mSorted = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        String[] inRange = new String[devices];
+        for (int i = 0; i < devices; i++) {
+            inRange[i] = String.format(Locale.US, "C0:00:00:00:%02X:%02X", i >> 8, i & 0xFF);
+        }
+        mAddresses = new String[ADVERTISEMENTS];
+        mRssis = new int[ADVERTISEMENTS];
+        for (int i = 0; i < ADVERTISEMENTS; i++) {
+            // Each advertisement carries its own address string, as scan results do
+            mAddresses[i] = new String(inRange[random.nextInt(devices)]);
+            mRssis[i] = -40 - random.nextInt(60);
+        }
+        for (String address : inRange) {
+            mLeDevices.add(address);
+            Entry entry = new Entry(address, -100);
+            mDeviceIndex.put(address, entry);
+            mSorted.add(entry);
+            mRanking.update(address, -100, 0);
+        }
+    }
+
+    @Benchmark
+    public boolean baselineListContains() {
+        int i = next();
+        if (!mLeDevices.contains(mAddresses[i])) {
+            mLeDevices.add(mAddresses[i]);
+            return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean addressIndex() {
+        int i = next();
+        Entry entry = mDeviceIndex.get(mAddresses[i]);
+        if (entry == null) {
+            mDeviceIndex.put(mAddresses[i], new Entry(mAddresses[i], mRssis[i]));
+            return true;
+        }
+        if (entry.rssi != mRssis[i]) {
+            entry.rssi = mRssis[i];
+            return true;
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean rankedIncremental() {
+        int i = next();
+        return mRanking.update(mAddresses[i], mRssis[i], 0);
+    }
+
+    @Benchmark
+    public Entry baselineSmoothAndSort() {
+        int i = next();
+        Entry entry = mDeviceIndex.get(mAddresses[i]);
+        entry.smoothed += 0.25f * (mRssis[i] - entry.smoothed);
+        Collections.sort(mSorted, BY_SMOOTHED_RSSI);
+        return mSorted.get(0);
+    }
+
+    private static final Comparator<Entry> BY_SMOOTHED_RSSI = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return Float.compare(b.smoothed, a.smoothed);
+        }
+    };
+
+    private int next() {
+        int i = mNext;
+        mNext = (mNext + 1) & (ADVERTISEMENTS - 1);
+        return i;
+    }
+
+    private static final class Entry {
+        final String address;
+        int rssi;
+        float smoothed;
+
+        Entry(String address, int rssi) {
+            this.address = address;
+            this.rssi = rssi;
+            smoothed = rssi;
+        }
+    }
+}
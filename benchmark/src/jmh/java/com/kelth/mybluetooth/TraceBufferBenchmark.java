@@ -0,0 +1,28 @@
+package com.kelth.mybluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of tracing one notification, against building the log line it replaces. The buffer is
+ * shared by all benchmark threads, so running with more threads shows contention on the slot
+ * sequence.
+ */
+@State(Scope.Benchmark)
+public class TraceBufferBenchmark {
+
+    private final TraceBuffer mBuffer = new TraceBuffer(8192);
+    private final int mDevice = mBuffer.registerDevice("00:11:22:33:44:55");
+    private final String mAction = "com.kelth.mybluetooth.ACTION_DATA_AVAILABLE";
+
+    @Benchmark
+    public void record() {
+        mBuffer.record(5, mDevice, 42);
+    }
+
+    @Benchmark
+    public String logLine() {
+        return "broadcastUpdate: " + mAction + ", handle: " + 42;
+    }
+}
@@ -0,0 +1,66 @@
+package com.kelth.mybluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.UUID;
+
+/**
+ * Cost of turning one value into something to show: decoding with {@link GattCodecRegistry}
+ * and the hex formatting of {@link GattValue}, against per-byte {@code String.format}.
+ */
+@State(Scope.Thread)
+public class ValueBenchmark {
+
+    // Flags: UINT8 rate, contact detected, energy expended, RR intervals
+    private static final byte[] HEART_RATE = {0x1E, 0x48, 0x20, 0x03, 0x10, 0x03, 0x20, 0x03};
+    private static final UUID UUID_TEMPERATURE = GattAttributes.fromShortUuid(0x2A1C);
+    // Celsius with time stamp and type: 36.6 as FLOAT, 2019-01-11 10:37:34, body
+    private static final byte[] TEMPERATURE = {0x06, 0x6E, 0x01, 0x00, (byte) 0xFF,
+            (byte) 0xE3, 0x07, 0x01, 0x0B, 0x0A, 0x25, 0x22, 0x02};
+
+    private final GattCodecRegistry mRegistry = GattCodecRegistry.createDefault();
+    private final GattValuePool mPool = new GattValuePool(1);
+    private final StringBuilder mText = new StringBuilder(64);
+    private GattValue mValue;
+
+    @Setup
+    public void setUp() {
+        mValue = mPool.acquire();
+        mValue.set(GattAttributes.HEART_RATE_MEASUREMENT, HEART_RATE, HEART_RATE.length);
+    }
+
+    @Benchmark
+    public int decodeHeartRate() {
+        HeartRateMeasurement measurement = (HeartRateMeasurement) mRegistry.decode(
+                GattAttributes.HEART_RATE_MEASUREMENT, HEART_RATE, HEART_RATE.length);
+        return measurement.getHeartRate() + measurement.getRrIntervalCount();
+    }
+
+    @Benchmark
+    public float decodeTemperature() {
+        TemperatureMeasurement measurement = (TemperatureMeasurement) mRegistry.decode(
+                UUID_TEMPERATURE, TEMPERATURE, TEMPERATURE.length);
+        return measurement.getTemperature();
+    }
+
+    @Benchmark
+    public String baselineFormatHex() {
+        StringBuilder stringBuilder = new StringBuilder(HEART_RATE.length);
+        for (byte byteChar : HEART_RATE) {
+            stringBuilder.append(String.format("%02X ", byteChar));
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Appending into a builder the caller keeps, e.g. the one of a list row
+     */
+    @Benchmark
+    public StringBuilder appendHex() {
+        mText.setLength(0);
+        return mValue.appendHex(mText);
+    }
+}